@@ -12,11 +12,10 @@ import software.amazon.awssdk.services.rekognition.model.DetectLabelsRequest;
 import software.amazon.awssdk.services.rekognition.model.DetectLabelsResponse;
 import software.amazon.awssdk.services.rekognition.model.Image;
 
-import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UncheckedIOException;
 import java.util.Properties;
 import java.util.stream.Collectors;
 
@@ -32,26 +31,35 @@ import java.util.stream.Collectors;
  *      aws.id=[your access key id]
  *      aws.secret=[your Secret access key]
  *      aws.region=[an aws region of choice. For example: us-east-2]
+ * 7. Optionally, limit the size and quality of the images sent to AWS with
+ *      aws.image.maxDimension=[longest side in pixels, 1024 if not set]
+ *      aws.image.quality=[JPEG quality between 0 and 1, 0.85 if not set]
  */
-public class AwsImageService {
+public class AwsImageService implements ImageService {
 
     private Logger log = LoggerFactory.getLogger(AwsImageService.class);
 
     //aws recommendation is to maintain only a single instance of client objects
     private static RekognitionClient rekognitionClient;
 
+    private final JpegEncoder jpegEncoder;
+
     public AwsImageService() {
         Properties props = new Properties();
         try (InputStream is = getClass().getClassLoader().getResourceAsStream("config.properties")) {
             props.load(is);
         } catch (IOException ioe ) {
             log.error("Unable to initialize AWS Rekognition, no properties file found", ioe);
+            jpegEncoder = new JpegEncoder();
             return;
         }
 
         String awsId = props.getProperty("aws.id");
         String awsSecret = props.getProperty("aws.secret");
         String awsRegion = props.getProperty("aws.region");
+        jpegEncoder = new JpegEncoder(
+                Integer.parseInt(props.getProperty("aws.image.maxDimension", String.valueOf(JpegEncoder.DEFAULT_MAX_DIMENSION))),
+                Float.parseFloat(props.getProperty("aws.image.quality", String.valueOf(JpegEncoder.DEFAULT_QUALITY))));
 
         AwsCredentials awsCredentials = AwsBasicCredentials.create(awsId, awsSecret);
         rekognitionClient = RekognitionClient.builder()
@@ -66,12 +74,13 @@ public class AwsImageService {
      * @param confidenceThreshhold Minimum threshhold to consider for cat. For example, 90.0f would require 90% confidence minimum
      * @return
      */
+    @Override
     public boolean imageContainsCat(BufferedImage image, float confidenceThreshhold) {
         Image awsImage = null;
-        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
-            ImageIO.write(image, "jpg", os);
-            awsImage = Image.builder().bytes(SdkBytes.fromByteArray(os.toByteArray())).build();
-        } catch (IOException ioe) {
+        try {
+            //the encoded array is never touched again, so the SDK may keep it without a copy
+            awsImage = Image.builder().bytes(SdkBytes.fromByteArrayUnsafe(jpegEncoder.encode(image))).build();
+        } catch (UncheckedIOException ioe) {
             log.error("Error building image byte array", ioe);
             return false;
         }
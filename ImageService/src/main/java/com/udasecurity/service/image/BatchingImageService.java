@@ -0,0 +1,247 @@
+package com.udasecurity.service.image;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Front end that lets many cameras share one classifier. Images are queued, gathered into batches
+ * of up to a maximum size or for at most a short window after the first one arrives, and each
+ * batch is dispatched at once, every image on a virtual thread of its own. At most a fixed number
+ * of classifications are in flight; when that many are running the next batch waits for a free
+ * slot, and when the queue is full new images are rejected rather than piling up. Every caller
+ * gets a future of its own image's result.
+ *
+ * Rekognition's DetectLabels takes a single image, so a batch reaches the classifier as a burst
+ * of concurrent calls. A longer window gives fuller bursts but adds up to the window to every
+ * image's latency; {@link StubImageService} allows measuring the trade-off offline.
+ *
+ * If dispatching fails, for example because the classifier executor rejects a classification, the
+ * service closes itself: queued images are cancelled and new ones rejected, so no caller waits
+ * for a dispatcher that is gone.
+ */
+public class BatchingImageService implements ImageService, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BatchingImageService.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 16;
+    public static final Duration DEFAULT_MAX_WAIT = Duration.ofMillis(10);
+    public static final int DEFAULT_MAX_IN_FLIGHT = 32;
+    public static final int DEFAULT_MAX_QUEUED = 256;
+
+    private final ImageService delegate;
+    private final int maxBatchSize;
+    private final long maxWaitNanos;
+    private final BlockingQueue<Request> queue;
+    private final Semaphore inFlight;
+    private final ExecutorService classifiers;
+    private final Thread dispatcher;
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder images = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile boolean closed;
+
+    public BatchingImageService(ImageService delegate) {
+        this(delegate, DEFAULT_MAX_BATCH_SIZE, DEFAULT_MAX_WAIT, DEFAULT_MAX_IN_FLIGHT, DEFAULT_MAX_QUEUED);
+    }
+
+    /**
+     * @param delegate Classifier the images are dispatched to
+     * @param maxBatchSize Most images dispatched together
+     * @param maxWait Longest time the first image of a batch waits for more to arrive
+     * @param maxInFlight Most classifications running at once
+     * @param maxQueued Most images waiting to be dispatched before new ones are rejected
+     */
+    public BatchingImageService(ImageService delegate, int maxBatchSize, Duration maxWait, int maxInFlight, int maxQueued) {
+        this(delegate, maxBatchSize, maxWait, maxInFlight, maxQueued,
+                Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("image-classifier-", 0).factory()));
+    }
+
+    /**
+     * @param classifiers Runs the classifications, one task per image; shut down when this service is closed
+     */
+    public BatchingImageService(ImageService delegate, int maxBatchSize, Duration maxWait, int maxInFlight, int maxQueued,
+                                ExecutorService classifiers) {
+        if (maxBatchSize < 1 || maxInFlight < 1 || maxQueued < 1) {
+            throw new IllegalArgumentException("Batch size, in-flight window and queue must be positive");
+        }
+        this.delegate = delegate;
+        this.maxBatchSize = maxBatchSize;
+        this.maxWaitNanos = maxWait.toNanos();
+        this.queue = new ArrayBlockingQueue<>(maxQueued);
+        this.inFlight = new Semaphore(maxInFlight);
+        this.classifiers = classifiers;
+        this.dispatcher = Thread.ofPlatform().name("image-batch-dispatcher").daemon().start(this::dispatch);
+    }
+
+    /**
+     * Queues the image for classification.
+     *
+     * @return future completed with whether the image contains a cat. It fails at once with a
+     * {@link RejectedExecutionException} if the queue is full or the service closed. Cancelling it
+     * before its batch is dispatched keeps the image from reaching the classifier.
+     */
+    public CompletableFuture<Boolean> submit(BufferedImage image, float confidenceThreshhold) {
+        Request request = new Request(image, confidenceThreshhold, new CompletableFuture<>());
+        if (closed || !queue.offer(request)) {
+            rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(
+                    closed ? "Image classifier is closed" : "Image classification queue is full"));
+        }
+        //close() may have drained the queue between the check and the offer
+        if (closed && queue.remove(request)) {
+            request.result().cancel(false);
+        }
+        return request.result();
+    }
+
+    /**
+     * Queues the image and waits for its result. If the waiting thread is interrupted, the image
+     * is given up on and a {@link CancellationException} thrown.
+     */
+    @Override
+    public boolean imageContainsCat(BufferedImage image, float confidenceThreshhold) {
+        CompletableFuture<Boolean> result = submit(image, confidenceThreshhold);
+        try {
+            return result.get();
+        } catch (InterruptedException ie) {
+            result.cancel(false);
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while waiting for image classification");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new CompletionException(e.getCause());
+        }
+    }
+
+    /**
+     * @return number of batches dispatched
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * @return number of images dispatched to the classifier
+     */
+    public long getImageCount() {
+        return images.sum();
+    }
+
+    /**
+     * @return number of images turned away because the queue was full or the service closed
+     */
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    public int getQueuedCount() {
+        return queue.size();
+    }
+
+    /**
+     * Stops dispatching. Queued images are cancelled; classifications already running finish.
+     */
+    @Override
+    public void close() {
+        //runs in full even if a failed dispatcher already marked the service closed
+        closed = true;
+        dispatcher.interrupt();
+        try {
+            dispatcher.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        cancelQueued();
+        classifiers.shutdown();
+    }
+
+    private void dispatch() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        int dispatched = 0;
+        try {
+            while (!closed) {
+                batch.add(queue.take());
+                long deadline = System.nanoTime() + maxWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    //take whatever is already queued without waiting, then wait out the window
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) == 0) {
+                        Request next = queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                        if (next == null) {
+                            break;
+                        }
+                        batch.add(next);
+                    }
+                }
+                batches.increment();
+                for (; dispatched < batch.size(); dispatched++) {
+                    Request request = batch.get(dispatched);
+                    if (request.result().isDone()) {
+                        continue;
+                    }
+                    inFlight.acquire();
+                    try {
+                        classifiers.execute(() -> classify(request));
+                    } catch (RuntimeException e) {
+                        inFlight.release();
+                        throw e;
+                    }
+                    images.increment();
+                }
+                batch.clear();
+                dispatched = 0;
+            }
+        } catch (InterruptedException ie) {
+            //closing
+        } catch (RuntimeException e) {
+            log.error("Image batch dispatcher failed, closing the image classifier", e);
+            //submit() stops queueing once it sees this, and anything it queued meanwhile is cancelled below
+            closed = true;
+        }
+        for (Request request : batch.subList(dispatched, batch.size())) {
+            request.result().cancel(false);
+        }
+        if (closed) {
+            cancelQueued();
+        }
+    }
+
+    private void classify(Request request) {
+        try {
+            request.result().complete(delegate.imageContainsCat(request.image(), request.confidenceThreshhold()));
+        } catch (RuntimeException e) {
+            request.result().completeExceptionally(e);
+        } finally {
+            inFlight.release();
+        }
+    }
+
+    private void cancelQueued() {
+        Request request;
+        while ((request = queue.poll()) != null) {
+            request.result().cancel(false);
+        }
+    }
+
+    private record Request(BufferedImage image, float confidenceThreshhold, CompletableFuture<Boolean> result) {
+    }
+}
@@ -0,0 +1,48 @@
+package com.udasecurity.service.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Reduces an image to a coarse grid of brightness, the common first step of comparing frames.
+ * Each cell is summed from a fixed square of evenly spaced sample pixels rather than from all of
+ * its pixels, so the cost is the same whatever the resolution of the camera.
+ */
+public final class BrightnessGrid {
+
+    private BrightnessGrid() {
+    }
+
+    /**
+     * @param columns Number of cells across
+     * @param rows Number of cells down
+     * @param samplesPerCell Samples per cell in each direction, so every cell sums the squared number of samples
+     * @return brightness sum of every cell, row by row. Every cell has the same number of samples,
+     * so comparing sums is comparing averages.
+     */
+    public static int[] sums(BufferedImage image, int columns, int rows, int samplesPerCell) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int sampleColumns = columns * samplesPerCell;
+        int sampleRows = rows * samplesPerCell;
+        int[] sums = new int[columns * rows];
+        for (int sy = 0; sy < sampleRows; sy++) {
+            int y = (2 * sy + 1) * height / (2 * sampleRows);
+            int rowOffset = sy / samplesPerCell * columns;
+            for (int sx = 0; sx < sampleColumns; sx++) {
+                int x = (2 * sx + 1) * width / (2 * sampleColumns);
+                sums[rowOffset + sx / samplesPerCell] += luma(image.getRGB(x, y));
+            }
+        }
+        return sums;
+    }
+
+    /**
+     * @return brightness of the pixel from 0 to 255, weighting the channels as the eye does
+     */
+    public static int luma(int rgb) {
+        int r = rgb >> 16 & 0xff;
+        int g = rgb >> 8 & 0xff;
+        int b = rgb & 0xff;
+        return (77 * r + 150 * g + 29 * b) >> 8;
+    }
+}
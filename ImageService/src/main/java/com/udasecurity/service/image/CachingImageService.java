@@ -0,0 +1,154 @@
+package com.udasecurity.service.image;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Image service that remembers the answers of another one by the {@link DifferenceHash} of the
+ * image. Cameras mostly send frames of an unchanged scene, and a frame whose hash is within a few
+ * bits of a remembered one gets the remembered answer without reaching the classifier, which saves
+ * both the image encoding and the round trip to a remote classifier.
+ *
+ * The cache holds a bounded number of answers, dropping the least recently used one when full,
+ * and forgets answers after a time to live so that a wrong answer cannot stick forever. An answer
+ * is only reused for the confidence threshold it was given for. Two threads missing on the same
+ * frame at once both ask the classifier; the later answer is the one kept.
+ */
+public class CachingImageService implements ImageService {
+
+    public static final int DEFAULT_MAX_ENTRIES = 256;
+    public static final Duration DEFAULT_TIME_TO_LIVE = Duration.ofSeconds(30);
+    //dHash distances of a few bits are noise; a cat walking into the scene moves many more
+    public static final int DEFAULT_MAX_DISTANCE = 4;
+
+    private final ImageService delegate;
+    private final int maxEntries;
+    private final long timeToLiveNanos;
+    private final int maxDistance;
+    //in access order, so the eldest entry is the least recently used one
+    private final LinkedHashMap<Long, Entry> entries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public CachingImageService(ImageService delegate) {
+        this(delegate, DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE, DEFAULT_MAX_DISTANCE);
+    }
+
+    /**
+     * @param delegate Service asked for images that are not in the cache
+     * @param maxEntries Number of answers kept at most
+     * @param timeToLive How long an answer is reused after the classifier gave it
+     * @param maxDistance Largest Hamming distance between image hashes that still counts as the same image
+     */
+    public CachingImageService(ImageService delegate, int maxEntries, Duration timeToLive, int maxDistance) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive but was " + maxEntries);
+        }
+        if (maxDistance < 0 || maxDistance > Long.SIZE) {
+            throw new IllegalArgumentException("maxDistance must be between 0 and 64 but was " + maxDistance);
+        }
+        this.delegate = delegate;
+        this.maxEntries = maxEntries;
+        this.timeToLiveNanos = timeToLive.toNanos();
+        this.maxDistance = maxDistance;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+                if (size() > CachingImageService.this.maxEntries) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    @Override
+    public boolean imageContainsCat(BufferedImage image, float confidenceThreshhold) {
+        long hash = DifferenceHash.of(image);
+        Boolean cached = lookup(hash, confidenceThreshhold, System.nanoTime());
+        if (cached != null) {
+            hits.increment();
+            return cached;
+        }
+        misses.increment();
+        boolean containsCat = delegate.imageContainsCat(image, confidenceThreshhold);
+        store(hash, new Entry(confidenceThreshhold, containsCat, System.nanoTime() + timeToLiveNanos));
+        return containsCat;
+    }
+
+    /**
+     * @return number of images answered from the cache
+     */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return number of images passed on to the classifier
+     */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return number of answers dropped because the cache was full or they had expired
+     */
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return the answer for the closest matching image, or null if there is none
+     */
+    private synchronized Boolean lookup(long hash, float confidenceThreshhold, long now) {
+        Entry exact = entries.get(hash);
+        if (exact != null && !exact.isExpired(now) && exact.confidenceThreshhold == confidenceThreshhold) {
+            return exact.containsCat;
+        }
+        if (maxDistance == 0) {
+            return null;
+        }
+        //a linear scan is a few hundred xor and popcounts, nothing next to a classifier call
+        Long closestHash = null;
+        int closestDistance = maxDistance + 1;
+        for (Iterator<Map.Entry<Long, Entry>> it = entries.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<Long, Entry> candidate = it.next();
+            if (candidate.getValue().isExpired(now)) {
+                it.remove();
+                evictions.increment();
+                continue;
+            }
+            int distance = DifferenceHash.distance(hash, candidate.getKey());
+            if (distance < closestDistance && candidate.getValue().confidenceThreshhold == confidenceThreshhold) {
+                closestHash = candidate.getKey();
+                closestDistance = distance;
+            }
+        }
+        //get rather than the iterated value, so the match counts as recently used
+        return closestHash == null ? null : entries.get(closestHash).containsCat;
+    }
+
+    private synchronized void store(long hash, Entry entry) {
+        entries.put(hash, entry);
+    }
+
+    private record Entry(float confidenceThreshhold, boolean containsCat, long expiresAt) {
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.udasecurity.service.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * 64 bit difference hash (dHash) of an image. The image is reduced to a 9 by 8 grid of average
+ * brightness, and each bit records whether a cell is darker than its right-hand neighbour. Frames
+ * that differ only by sensor noise, compression artifacts or a slight change of exposure get the
+ * same or nearly the same hash, so the number of differing bits, the Hamming distance, tells how
+ * alike two frames look.
+ *
+ * Each cell is averaged from a fixed 8 by 8 sample of pixels rather than from all of them, so
+ * hashing costs the same few thousand pixel reads whatever the resolution of the camera.
+ */
+public final class DifferenceHash {
+
+    private static final int COLUMNS = 9;
+    private static final int ROWS = 8;
+    private static final int SAMPLES_PER_CELL = 8;
+
+    private DifferenceHash() {
+    }
+
+    public static long of(BufferedImage image) {
+        int[] brightness = BrightnessGrid.sums(image, COLUMNS, ROWS, SAMPLES_PER_CELL);
+
+        long hash = 0;
+        for (int row = 0; row < ROWS; row++) {
+            for (int column = 0; column < COLUMNS - 1; column++) {
+                int cell = row * COLUMNS + column;
+                hash = hash << 1 | (brightness[cell] < brightness[cell + 1] ? 1 : 0);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * @return number of bits in which the hashes differ, 0 for identical images and at most 64
+     */
+    public static int distance(long hash, long otherHash) {
+        return Long.bitCount(hash ^ otherHash);
+    }
+}
@@ -0,0 +1,17 @@
+package com.udasecurity.service.image;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Service that decides whether an image displays a cat. Implementations may be slow, for example
+ * when the image is sent to a remote classifier, and must be safe to call from several threads.
+ */
+public interface ImageService {
+
+    /**
+     * Returns true if the provided image contains a cat.
+     * @param image Image to scan
+     * @param confidenceThreshhold Minimum threshhold to consider for cat. For example, 90.0f would require 90% confidence minimum
+     */
+    boolean imageContainsCat(BufferedImage image, float confidenceThreshhold);
+}
@@ -0,0 +1,157 @@
+package com.udasecurity.service.image;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Encodes camera frames as JPEG for a classifier. Frames larger than the classifier needs are
+ * scaled down first, which shrinks both the encoding work and the request, and the quality is set
+ * explicitly instead of left to the writer's default.
+ *
+ * The JPEG writer, its parameters, the output buffer and the scaled frame are kept in a small
+ * pool and reused, rather than looked up and allocated for every frame. A pool rather than one
+ * per thread, because classifications may run on short-lived virtual threads. The returned
+ * array is exactly as long as the JPEG, so callers can hand it on without copying it again.
+ */
+public class JpegEncoder {
+
+    public static final int DEFAULT_MAX_DIMENSION = 1024;
+    public static final float DEFAULT_QUALITY = 0.85f;
+    //an encoder whose buffer grew beyond this for an odd frame does not keep it
+    private static final int MAX_RETAINED_BUFFER = 4 * 1024 * 1024;
+
+    private final int maxDimension;
+    private final float quality;
+    private final BlockingQueue<Encoder> pool;
+
+    public JpegEncoder() {
+        this(DEFAULT_MAX_DIMENSION, DEFAULT_QUALITY);
+    }
+
+    /**
+     * @param maxDimension Longest side, in pixels, of the encoded image; larger frames are scaled down to fit
+     * @param quality JPEG quality between 0 and 1
+     */
+    public JpegEncoder(int maxDimension, float quality) {
+        if (maxDimension < 1) {
+            throw new IllegalArgumentException("maxDimension must be positive but was " + maxDimension);
+        }
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("quality must be between 0 and 1 but was " + quality);
+        }
+        this.maxDimension = maxDimension;
+        this.quality = quality;
+        this.pool = new ArrayBlockingQueue<>(Math.max(2, Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * @return the JPEG encoded frame
+     * @throws UncheckedIOException if the frame cannot be encoded
+     */
+    public byte[] encode(BufferedImage image) {
+        Encoder encoder = pool.poll();
+        if (encoder == null) {
+            encoder = new Encoder();
+        }
+        boolean pooled = false;
+        try {
+            byte[] jpeg = encoder.encode(image);
+            //only an encoder that succeeded goes back, as a failed one may be left in a bad state
+            pooled = encoder.output.capacity() <= MAX_RETAINED_BUFFER && pool.offer(encoder);
+            return jpeg;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to encode image as JPEG", e);
+        } finally {
+            if (!pooled) {
+                encoder.dispose();
+            }
+        }
+    }
+
+    public int getMaxDimension() {
+        return maxDimension;
+    }
+
+    public float getQuality() {
+        return quality;
+    }
+
+    private final class Encoder {
+        private final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        private final ImageWriteParam param = writer.getDefaultWriteParam();
+        private final Buffer output = new Buffer();
+        private BufferedImage scaled;
+
+        private Encoder() {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(quality);
+        }
+
+        private byte[] encode(BufferedImage image) throws IOException {
+            output.reset();
+            try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(output)) {
+                writer.setOutput(stream);
+                writer.write(null, new IIOImage(prepare(image), null, null), param);
+            } finally {
+                writer.setOutput(null);
+            }
+            return output.toByteArray();
+        }
+
+        /**
+         * @return the frame scaled to fit the maximum dimension, as 3 byte BGR. The JPEG writer
+         * rejects alpha, and converts any other layout into a fresh copy of the whole frame
+         */
+        private BufferedImage prepare(BufferedImage image) {
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int longest = Math.max(width, height);
+            if (longest <= maxDimension && image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+                return image;
+            }
+            if (longest > maxDimension) {
+                width = Math.max(1, (int) ((long) width * maxDimension / longest));
+                height = Math.max(1, (int) ((long) height * maxDimension / longest));
+            }
+            if (scaled == null || scaled.getWidth() != width || scaled.getHeight() != height) {
+                scaled = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            }
+            Graphics2D g = scaled.createGraphics();
+            try {
+                g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                g.drawImage(image, 0, 0, width, height, null);
+            } finally {
+                g.dispose();
+            }
+            return scaled;
+        }
+
+        private void dispose() {
+            writer.dispose();
+        }
+    }
+
+    /**
+     * Output buffer that exposes its capacity, so an oversized one can be let go.
+     */
+    private static final class Buffer extends ByteArrayOutputStream {
+        private Buffer() {
+            super(64 * 1024);
+        }
+
+        private int capacity() {
+            return buf.length;
+        }
+    }
+}
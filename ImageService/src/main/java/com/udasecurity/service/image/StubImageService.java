@@ -0,0 +1,66 @@
+package com.udasecurity.service.image;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+
+/**
+ * Local stand-in for a remote classifier, for measuring how the rest of the pipeline copes with
+ * its latency without an AWS account. Every call sleeps for the configured latency plus a random
+ * jitter and then answers with the given predicate. The stub counts its calls and the most calls
+ * it was ever serving at once.
+ */
+public class StubImageService implements ImageService {
+
+    private final long latencyNanos;
+    private final long jitterNanos;
+    private final Predicate<BufferedImage> containsCat;
+    private final LongAdder calls = new LongAdder();
+    private final AtomicInteger concurrentCalls = new AtomicInteger();
+    private final AtomicInteger maxConcurrentCalls = new AtomicInteger();
+
+    public StubImageService(Duration latency) {
+        this(latency, Duration.ZERO, image -> false);
+    }
+
+    /**
+     * @param latency Time every call takes at least
+     * @param jitter Largest random time added to the latency
+     * @param containsCat Answer for each image
+     */
+    public StubImageService(Duration latency, Duration jitter, Predicate<BufferedImage> containsCat) {
+        this.latencyNanos = latency.toNanos();
+        this.jitterNanos = jitter.toNanos();
+        this.containsCat = containsCat;
+    }
+
+    @Override
+    public boolean imageContainsCat(BufferedImage image, float confidenceThreshhold) {
+        calls.increment();
+        int concurrent = concurrentCalls.incrementAndGet();
+        maxConcurrentCalls.accumulateAndGet(concurrent, Math::max);
+        try {
+            long nanos = latencyNanos + (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos + 1) : 0);
+            if (nanos > 0) {
+                Thread.sleep(Duration.ofNanos(nanos));
+            }
+            return containsCat.test(image);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            concurrentCalls.decrementAndGet();
+        }
+    }
+
+    public long getCallCount() {
+        return calls.sum();
+    }
+
+    public int getMaxConcurrentCalls() {
+        return maxConcurrentCalls.get();
+    }
+}
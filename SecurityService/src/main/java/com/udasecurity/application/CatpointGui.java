@@ -3,11 +3,19 @@ package com.udasecurity.application;
 
 import com.udasecurity.data.PretendDatabaseSecurityRepositoryImpl;
 import com.udasecurity.data.SecurityRepository;
+import com.udasecurity.data.WriteBehindSecurityRepository;
+import com.udasecurity.ingest.SensorIngestServer;
 import com.udasecurity.service.SecurityService;
+import com.udasecurity.service.image.CachingImageService;
 import com.udasecurity.service.image.FakeImageService;
+import com.udasecurity.service.image.ImageService;
 import net.miginfocom.swing.MigLayout;
 
 import javax.swing.*;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 
 
 /**
@@ -17,8 +25,10 @@ import javax.swing.*;
  * all our dependencies and providing them to other classes as necessary.
  */
 public class CatpointGui extends JFrame {
-    private SecurityRepository securityRepository = new PretendDatabaseSecurityRepositoryImpl();
-    private FakeImageService imageService = new FakeImageService();
+    //writes are handed to the preferences store off the event dispatch thread
+    private SecurityRepository securityRepository = new WriteBehindSecurityRepository(new PretendDatabaseSecurityRepositoryImpl());
+    //cameras repeat near-identical frames, which need not be classified again
+    private ImageService imageService = new CachingImageService(new FakeImageService());
     private SecurityService securityService = new SecurityService(securityRepository, imageService);
     private DisplayPanel displayPanel = new DisplayPanel(securityService);
     private ControlPanel controlPanel = new ControlPanel(securityService);
@@ -40,5 +50,35 @@ public class CatpointGui extends JFrame {
 
         getContentPane().add(mainPanel);
 
+        //controllers can push events too, when a port is configured with -Dudasecurity.ingest.port
+        Integer ingestPort = Integer.getInteger("udasecurity.ingest.port");
+        if (ingestPort != null) {
+            startIngestServer(ingestPort);
+        }
+    }
+
+    /**
+     * Starts the ingest server on loopback, or on the address in -Dudasecurity.ingest.address.
+     * Controllers can arm and disarm the system, so a server reachable from other hosts is only
+     * started with a shared secret in -Dudasecurity.ingest.secret.
+     */
+    private void startIngestServer(int port) {
+        String address = System.getProperty("udasecurity.ingest.address");
+        String secret = System.getProperty("udasecurity.ingest.secret");
+        InetSocketAddress bindAddress = address == null
+                ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port)
+                : new InetSocketAddress(address, port);
+        if (bindAddress.isUnresolved()) {
+            throw new IllegalArgumentException("Unknown sensor ingest address " + address);
+        }
+        if (!bindAddress.getAddress().isLoopbackAddress() && secret == null) {
+            throw new IllegalStateException("The sensor ingest server only listens on " + bindAddress
+                    + " with a secret set in -Dudasecurity.ingest.secret");
+        }
+        try {
+            new SensorIngestServer(securityService, bindAddress, secret, SensorIngestServer.DEFAULT_MAX_BUFFERED_CHARS);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Unable to start the sensor ingest server on " + bindAddress, e);
+        }
     }
 }
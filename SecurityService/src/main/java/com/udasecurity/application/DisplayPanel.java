@@ -3,16 +3,17 @@ package com.udasecurity.application;
 
 import com.udasecurity.data.AlarmStatus;
 import com.udasecurity.service.SecurityService;
+import com.udasecurity.service.StatusEvent;
 import com.udasecurity.service.StyleService;
 import net.miginfocom.swing.MigLayout;
 
 import javax.swing.*;
 
 /**
- * Displays the current status of the system. Implements the StatusListener
- * interface so that it can be notified whenever the status changes.
+ * Displays the current status of the system. Subscribes to alarm status changes only,
+ * and only repaints the newest one when several arrive before the event thread gets to them.
  */
-public class DisplayPanel extends JPanel implements StatusListener {
+public class DisplayPanel extends JPanel {
 
     private JLabel currentStatusLabel;
 
@@ -20,15 +21,15 @@ public class DisplayPanel extends JPanel implements StatusListener {
         super();
         setLayout(new MigLayout());
 
-        securityService.addStatusListener(this);
-
         JLabel panelLabel = new JLabel("Very Secure Home Security");
         JLabel systemStatusLabel = new JLabel("System Status:");
         currentStatusLabel = new JLabel();
 
         panelLabel.setFont(StyleService.HEADING_FONT);
 
-        notify(securityService.getAlarmStatus());
+        showAlarmStatus(securityService.getAlarmStatus());
+        securityService.getStatusEvents().onLatest(StatusEvent.AlarmStatusChanged.class, SwingUtilities::invokeLater,
+                event -> showAlarmStatus(event.alarmStatus()));
 
         add(panelLabel, "span 2, wrap");
         add(systemStatusLabel);
@@ -36,20 +37,9 @@ public class DisplayPanel extends JPanel implements StatusListener {
 
     }
 
-    @Override
-    public void notify(AlarmStatus status) {
+    private void showAlarmStatus(AlarmStatus status) {
         currentStatusLabel.setText(status.getDescription());
         currentStatusLabel.setBackground(status.getColor());
         currentStatusLabel.setOpaque(true);
     }
-
-    @Override
-    public void catDetected(boolean catDetected) {
-        // no behavior necessary
-    }
-
-    @Override
-    public void sensorStatusChanged() {
-        // no behavior necessary
-    }
 }
\ No newline at end of file
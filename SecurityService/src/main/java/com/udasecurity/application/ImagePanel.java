@@ -1,8 +1,8 @@
 package com.udasecurity.application;
 
 
-import com.udasecurity.data.AlarmStatus;
 import com.udasecurity.service.SecurityService;
+import com.udasecurity.service.StatusEvent;
 import com.udasecurity.service.StyleService;
 import net.miginfocom.swing.MigLayout;
 
@@ -16,7 +16,7 @@ import java.io.IOException;
 /** Panel containing the 'camera' output. Allows users to 'refresh' the camera
  * by uploading their own picture, and 'scan' the picture, sending it for image analysis
  */
-public class ImagePanel extends JPanel implements StatusListener {
+public class ImagePanel extends JPanel {
     private SecurityService securityService;
 
     private JLabel cameraHeader;
@@ -30,10 +30,12 @@ public class ImagePanel extends JPanel implements StatusListener {
         super();
         setLayout(new MigLayout());
         this.securityService = securityService;
-        securityService.addStatusListener(this);
 
         cameraHeader = new JLabel("Camera Feed");
         cameraHeader.setFont(StyleService.HEADING_FONT);
+        //only camera results matter here, and only the newest one
+        securityService.getStatusEvents().onLatest(StatusEvent.CatDetected.class, SwingUtilities::invokeLater,
+                event -> catDetected(event.catDetected()));
 
         cameraLabel = new JLabel();
         cameraLabel.setBackground(Color.WHITE);
@@ -60,10 +62,13 @@ public class ImagePanel extends JPanel implements StatusListener {
             repaint();
         });
 
-        //button that sends the image to the image service
+        //button that sends the image to the image service; the result arrives through the status events
         JButton scanPictureButton = new JButton("Scan Picture");
         scanPictureButton.addActionListener(e -> {
-            securityService.processImage(currentCameraImage);
+            securityService.processImageAsync(currentCameraImage).exceptionally(error -> {
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Unable to scan picture: " + error.getMessage()));
+                return null;
+            });
         });
 
         add(cameraHeader, "span 3, wrap");
@@ -72,22 +77,11 @@ public class ImagePanel extends JPanel implements StatusListener {
         add(scanPictureButton);
     }
 
-    @Override
-    public void notify(AlarmStatus status) {
-        //no behavior necessary
-    }
-
-    @Override
-    public void catDetected(boolean catDetected) {
+    private void catDetected(boolean catDetected) {
         if(catDetected) {
             cameraHeader.setText("DANGER - CAT DETECTED");
         } else {
             cameraHeader.setText("Camera Feed - No Cats Detected");
         }
     }
-
-    @Override
-    public void sensorStatusChanged() {
-        //no behavior necessary
-    }
 }
\ No newline at end of file
@@ -0,0 +1,531 @@
+package com.udasecurity.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Repository implementation that keeps state in local memory and records every mutation as a small
+ * record appended to a log file, so the cost of a write depends on the size of the change rather
+ * than on the number of sensors in the system.
+ *
+ * Appended records are buffered in memory and committed to disk in groups by a background thread,
+ * so a burst of sensor toggles shares a single write and fsync. Call {@link #flush()} to commit
+ * immediately and {@link #close()} when the repository is no longer needed.
+ *
+ * State is stored in numbered generations: a compact binary snapshot of the whole state plus the
+ * log of mutations made since that snapshot. Once a log grows past the compaction threshold, the
+ * background thread writes a new snapshot, starts a new log and deletes the previous generation.
+ * Startup loads the newest snapshot and replays only the logs written after it.
+ */
+public class AppendOnlyLogSecurityRepositoryImpl implements SecurityRepository, Flushable, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AppendOnlyLogSecurityRepositoryImpl.class);
+
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLIS = 10;
+    public static final int DEFAULT_COMPACTION_THRESHOLD = 10_000;
+
+    //record types
+    private static final byte SENSOR_ADDED = 1;
+    private static final byte SENSOR_REMOVED = 2;
+    private static final byte SENSOR_UPDATED = 3;
+    private static final byte ALARM_STATUS = 4;
+    private static final byte ARMING_STATUS = 5;
+    private static final byte ALL_SENSORS_DEACTIVATED = 6;
+
+    //every record is framed as [int length][int crc32][length bytes of body]
+    private static final int FRAME_HEADER_BYTES = 8;
+
+    private static final int SNAPSHOT_MAGIC = 0x55445350; //"UDSP"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final Pattern GENERATION_FILE = Pattern.compile("security-(\\d+)\\.(log|snapshot)");
+
+    private final SensorStore sensors = new SensorStore();
+    private AlarmStatus alarmStatus = AlarmStatus.NO_ALARM;
+    private ArmingStatus armingStatus = ArmingStatus.DISARMED;
+
+    private final Path directory;
+    private final int compactionThreshold;
+    private final ScheduledExecutorService committer;
+
+    //log of the current generation, replaced under commitLock during compaction
+    private FileChannel channel;
+    private long generation;
+    private int recordsSinceSnapshot;
+
+    //records appended since the last commit, guarded by this
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream();
+    //scratch space used to encode a single record body, guarded by this
+    private final ByteArrayOutputStream recordBody = new ByteArrayOutputStream(64);
+    private final DataOutputStream recordOut = new DataOutputStream(recordBody);
+    private final CRC32 crc = new CRC32();
+
+    //serializes commits and compactions; the spare buffer is swapped with pending on every commit
+    private final Object commitLock = new Object();
+    private ByteArrayOutputStream spare = new ByteArrayOutputStream();
+
+    public AppendOnlyLogSecurityRepositoryImpl() {
+        this(Paths.get(System.getProperty("user.home"), ".udasecurity"));
+    }
+
+    public AppendOnlyLogSecurityRepositoryImpl(Path directory) {
+        this(directory, DEFAULT_COMMIT_INTERVAL_MILLIS, DEFAULT_COMPACTION_THRESHOLD);
+    }
+
+    /**
+     * @param directory Directory holding the snapshots and logs. Created if it does not exist yet.
+     * @param commitIntervalMillis How long appended records may wait before being committed to disk
+     * @param compactionThreshold Number of logged records after which a new snapshot is written
+     */
+    public AppendOnlyLogSecurityRepositoryImpl(Path directory, long commitIntervalMillis, int compactionThreshold) {
+        this.directory = directory;
+        this.compactionThreshold = compactionThreshold;
+        try {
+            Files.createDirectories(directory);
+            load();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to open security log in " + directory, ioe);
+        }
+
+        committer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "security-log-committer");
+            t.setDaemon(true);
+            return t;
+        });
+        committer.scheduleWithFixedDelay(this::commitQuietly, commitIntervalMillis, commitIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public synchronized void addSensor(Sensor sensor) {
+        sensors.add(sensor);
+        appendSensor(SENSOR_ADDED, sensor);
+    }
+
+    @Override
+    public synchronized void removeSensor(Sensor sensor) {
+        sensors.remove(sensor);
+        try {
+            beginRecord(SENSOR_REMOVED);
+            recordOut.writeLong(sensor.getSensorId().getMostSignificantBits());
+            recordOut.writeLong(sensor.getSensorId().getLeastSignificantBits());
+            endRecord();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public synchronized void updateSensor(Sensor sensor) {
+        sensors.update(sensor);
+        appendSensor(SENSOR_UPDATED, sensor);
+    }
+
+    /**
+     * Recorded as a single log record, however many sensors there are.
+     */
+    @Override
+    public synchronized void deactivateAllSensors() {
+        sensors.deactivateAll();
+        try {
+            beginRecord(ALL_SENSORS_DEACTIVATED);
+            endRecord();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    @Override
+    public synchronized void setAlarmStatus(AlarmStatus alarmStatus) {
+        this.alarmStatus = alarmStatus;
+        appendStatus(ALARM_STATUS, alarmStatus.ordinal());
+    }
+
+    @Override
+    public synchronized void setArmingStatus(ArmingStatus armingStatus) {
+        this.armingStatus = armingStatus;
+        appendStatus(ARMING_STATUS, armingStatus.ordinal());
+    }
+
+    @Override
+    public synchronized Set<Sensor> getSensors() {
+        return sensors.sorted();
+    }
+
+    @Override
+    public synchronized AlarmStatus getAlarmStatus() {
+        return alarmStatus;
+    }
+
+    @Override
+    public synchronized ArmingStatus getArmingStatus() {
+        return armingStatus;
+    }
+
+    @Override
+    public synchronized Optional<Sensor> findById(UUID sensorId) {
+        return sensors.findById(sensorId);
+    }
+
+    @Override
+    public synchronized Set<Sensor> findByType(SensorType sensorType) {
+        return Set.copyOf(sensors.findByType(sensorType));
+    }
+
+    @Override
+    public synchronized Set<Sensor> findActive() {
+        return Set.copyOf(sensors.findActive());
+    }
+
+    @Override
+    public synchronized int getActiveSensorCount() {
+        return sensors.activeCount();
+    }
+
+    @Override
+    public synchronized int getActiveSensorCount(SensorType sensorType) {
+        return sensors.activeCount(sensorType);
+    }
+
+    /**
+     * Commits every record appended so far to disk, without waiting for the next group commit.
+     */
+    @Override
+    public void flush() {
+        synchronized (commitLock) {
+            ByteArrayOutputStream batch;
+            synchronized (this) {
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending;
+                pending = spare;
+            }
+            long start = -1;
+            try {
+                start = channel.position();
+                batch.writeTo(Channels.newOutputStream(channel));
+                channel.force(false);
+                batch.reset();
+                spare = batch;
+            } catch (IOException ioe) {
+                requeue(batch, start);
+                throw new UncheckedIOException("Unable to commit security log", ioe);
+            }
+        }
+    }
+
+    /**
+     * Writes a snapshot of the current state and starts a new log, then deletes the snapshot and
+     * logs it replaces. Runs automatically on the commit thread once the log reaches the compaction
+     * threshold.
+     */
+    public void compact() {
+        synchronized (commitLock) {
+            flush();
+            long next;
+            SnapshotState state;
+            FileChannel previous = channel;
+            try {
+                synchronized (this) {
+                    //records appended after this point go to the new log
+                    next = generation + 1;
+                    channel = openLog(next);
+                    generation = next;
+                    recordsSinceSnapshot = 0;
+                    state = new SnapshotState(alarmStatus, armingStatus, sensors.sorted());
+                }
+                previous.close();
+                writeSnapshot(next, state);
+                deleteGenerationsBefore(next);
+            } catch (IOException ioe) {
+                //the previous snapshot and every log after it are still on disk, so nothing is lost
+                throw new UncheckedIOException("Unable to compact security log", ioe);
+            }
+        }
+    }
+
+    /**
+     * Commits any pending records and releases the log file.
+     */
+    @Override
+    public void close() throws IOException {
+        committer.shutdown();
+        synchronized (commitLock) {
+            try {
+                flush();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private void commitQuietly() {
+        try {
+            flush();
+            boolean compactionDue;
+            synchronized (this) {
+                compactionDue = recordsSinceSnapshot >= compactionThreshold;
+            }
+            if (compactionDue) {
+                compact();
+            }
+        } catch (UncheckedIOException e) {
+            log.error("Group commit failed, records will be retried on the next commit", e);
+        }
+    }
+
+    /**
+     * Rewinds the log to where a failed commit started and puts its records back in front of
+     * anything appended since, so the next commit retries them in order.
+     */
+    private void requeue(ByteArrayOutputStream batch, long start) {
+        try {
+            if (start >= 0) {
+                channel.truncate(start);
+                channel.position(start);
+            }
+        } catch (IOException ioe) {
+            log.error("Unable to rewind security log after a failed commit", ioe);
+        }
+        synchronized (this) {
+            batch.writeBytes(pending.toByteArray());
+            pending.reset();
+            spare = pending;
+            pending = batch;
+        }
+    }
+
+    private void appendSensor(byte type, Sensor sensor) {
+        try {
+            beginRecord(type);
+            SensorCodec.writeSensor(recordOut, sensor);
+            endRecord();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private void appendStatus(byte type, int ordinal) {
+        try {
+            beginRecord(type);
+            recordOut.writeByte(ordinal);
+            endRecord();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException(ioe);
+        }
+    }
+
+    private void beginRecord(byte type) throws IOException {
+        recordBody.reset();
+        recordOut.writeByte(type);
+    }
+
+    private void endRecord() throws IOException {
+        crc.reset();
+        crc.update(recordBody.toByteArray());
+        int length = recordBody.size();
+        int checksum = (int) crc.getValue();
+        pending.write(length >>> 24);
+        pending.write(length >>> 16);
+        pending.write(length >>> 8);
+        pending.write(length);
+        pending.write(checksum >>> 24);
+        pending.write(checksum >>> 16);
+        pending.write(checksum >>> 8);
+        pending.write(checksum);
+        recordBody.writeTo(pending);
+        recordsSinceSnapshot++;
+    }
+
+    /**
+     * Loads the newest snapshot, replays every log from that generation on and opens the newest
+     * log for appending.
+     */
+    private void load() throws IOException {
+        TreeMap<Long, Path> snapshots = new TreeMap<>();
+        TreeMap<Long, Path> logs = new TreeMap<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach(file -> {
+                Matcher m = GENERATION_FILE.matcher(file.getFileName().toString());
+                if (m.matches()) {
+                    (m.group(2).equals("log") ? logs : snapshots).put(Long.parseLong(m.group(1)), file);
+                }
+            });
+        }
+
+        long snapshotGeneration = 0;
+        if (!snapshots.isEmpty()) {
+            snapshotGeneration = snapshots.lastKey();
+            readSnapshot(snapshots.lastEntry().getValue());
+        }
+
+        generation = logs.isEmpty() ? snapshotGeneration : Math.max(snapshotGeneration, logs.lastKey());
+        for (Map.Entry<Long, Path> entry : logs.tailMap(snapshotGeneration, true).entrySet()) {
+            try (FileChannel logChannel = FileChannel.open(entry.getValue(), StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                long validLength = replay(logChannel);
+                if (validLength < logChannel.size()) {
+                    //a torn record at the tail means the last commit never completed, so drop it
+                    log.warn("Truncating {} bytes of incomplete records from {}", logChannel.size() - validLength, entry.getValue());
+                    logChannel.truncate(validLength);
+                }
+            }
+        }
+
+        channel = openLog(generation);
+    }
+
+    private FileChannel openLog(long logGeneration) throws IOException {
+        FileChannel logChannel = FileChannel.open(directory.resolve("security-" + logGeneration + ".log"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        logChannel.position(logChannel.size());
+        return logChannel;
+    }
+
+    /**
+     * Reads every intact record from the log and applies it to the in-memory state.
+     *
+     * @return the length of the log up to the end of the last intact record
+     */
+    private long replay(FileChannel logChannel) throws IOException {
+        long validLength = 0;
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(logChannel.position(0)), 1 << 16));
+        CRC32 check = new CRC32();
+        while (true) {
+            byte[] body;
+            try {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > logChannel.size()) {
+                    break;
+                }
+                body = new byte[length];
+                in.readFully(body);
+                check.reset();
+                check.update(body);
+                if ((int) check.getValue() != checksum) {
+                    break;
+                }
+            } catch (EOFException eof) {
+                break;
+            }
+            applyRecord(new DataInputStream(new ByteArrayInputStream(body)));
+            recordsSinceSnapshot++;
+            validLength += FRAME_HEADER_BYTES + body.length;
+        }
+        return validLength;
+    }
+
+    private void applyRecord(DataInputStream record) throws IOException {
+        byte type = record.readByte();
+        switch (type) {
+            case SENSOR_ADDED, SENSOR_UPDATED -> sensors.add(SensorCodec.readSensor(record));
+            case SENSOR_REMOVED -> sensors.remove(new UUID(record.readLong(), record.readLong()));
+            case ALARM_STATUS -> alarmStatus = SensorCodec.alarmStatus(record.readByte());
+            case ARMING_STATUS -> armingStatus = SensorCodec.armingStatus(record.readByte());
+            case ALL_SENSORS_DEACTIVATED -> sensors.deactivateAll();
+            default -> log.warn("Skipping unknown security log record type {}", type);
+        }
+    }
+
+    /**
+     * Point-in-time copy of the state. Sensor fields are copied because callers keep mutating the
+     * sensor objects while the snapshot is written.
+     */
+    private static final class SnapshotState {
+        private final AlarmStatus alarmStatus;
+        private final ArmingStatus armingStatus;
+        private final UUID[] ids;
+        private final String[] names;
+        private final SensorType[] types;
+        private final boolean[] active;
+
+        SnapshotState(AlarmStatus alarmStatus, ArmingStatus armingStatus, Collection<Sensor> sensors) {
+            this.alarmStatus = alarmStatus;
+            this.armingStatus = armingStatus;
+            int n = sensors.size();
+            ids = new UUID[n];
+            names = new String[n];
+            types = new SensorType[n];
+            active = new boolean[n];
+            int i = 0;
+            for (Sensor sensor : sensors) {
+                ids[i] = sensor.getSensorId();
+                names[i] = sensor.getName();
+                types[i] = sensor.getSensorType();
+                active[i] = sensor.getActive();
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Snapshot layout: int magic, int version, byte alarm status, byte arming status, int sensor
+     * count, the sensors, then a CRC32 of everything before it. The file is written under a
+     * temporary name and moved into place, so a snapshot that exists is always complete.
+     */
+    private void writeSnapshot(long snapshotGeneration, SnapshotState state) throws IOException {
+        Path target = directory.resolve("security-" + snapshotGeneration + ".snapshot");
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp.toFile())) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeByte(state.alarmStatus.ordinal());
+            out.writeByte(state.armingStatus.ordinal());
+            out.writeInt(state.ids.length);
+            for (int i = 0; i < state.ids.length; i++) {
+                SensorCodec.writeSensor(out, state.ids[i], state.names[i], state.types[i], state.active[i]);
+            }
+            out.writeInt((int) checked.getChecksum().getValue());
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private void readSnapshot(Path snapshot) throws IOException {
+        try (InputStream file = Files.newInputStream(snapshot)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(file, 1 << 16), new CRC32());
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unrecognized security snapshot " + snapshot);
+            }
+            alarmStatus = SensorCodec.alarmStatus(in.readByte());
+            armingStatus = SensorCodec.armingStatus(in.readByte());
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                sensors.add(SensorCodec.readSensor(in));
+            }
+            int expected = (int) checked.getChecksum().getValue();
+            if (in.readInt() != expected) {
+                throw new IOException("Corrupt security snapshot " + snapshot);
+            }
+        }
+    }
+
+    private void deleteGenerationsBefore(long keep) throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher m = GENERATION_FILE.matcher(file.getFileName().toString());
+                if (m.matches() && Long.parseLong(m.group(1)) < keep) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.udasecurity.data;
+
+import java.util.*;
+
+/**
+ * In-memory repository for large sensor fleets. Sensors are held in a {@link SensorTable}, so a
+ * sensor costs a few dozen bytes of primitive columns instead of a full object graph, and checks
+ * such as "is any sensor active?" scan the activation bits a word at a time.
+ *
+ * Sensors returned by this repository are views of the table: changing one is visible to the
+ * repository straight away, and {@link #updateSensor(Sensor)} is still accepted for sensors that
+ * were created elsewhere. Nothing is persisted.
+ */
+public class ColumnarSecurityRepositoryImpl implements SecurityRepository {
+
+    private final SensorTable sensors;
+    private AlarmStatus alarmStatus = AlarmStatus.NO_ALARM;
+    private ArmingStatus armingStatus = ArmingStatus.DISARMED;
+
+    public ColumnarSecurityRepositoryImpl() {
+        this(16);
+    }
+
+    /**
+     * @param expectedSensors Number of sensors to size the table for up front
+     */
+    public ColumnarSecurityRepositoryImpl(int expectedSensors) {
+        sensors = new SensorTable(expectedSensors);
+    }
+
+    @Override
+    public void addSensor(Sensor sensor) {
+        sensors.put(sensor);
+    }
+
+    @Override
+    public void removeSensor(Sensor sensor) {
+        sensors.remove(sensor.getSensorId());
+    }
+
+    @Override
+    public void updateSensor(Sensor sensor) {
+        sensors.put(sensor);
+    }
+
+    @Override
+    public void deactivateAllSensors() {
+        sensors.deactivateAll();
+    }
+
+    @Override
+    public synchronized void setAlarmStatus(AlarmStatus alarmStatus) {
+        this.alarmStatus = alarmStatus;
+    }
+
+    @Override
+    public synchronized void setArmingStatus(ArmingStatus armingStatus) {
+        this.armingStatus = armingStatus;
+    }
+
+    @Override
+    public Set<Sensor> getSensors() {
+        return Collections.unmodifiableSet(new LinkedHashSet<>(sensors.sorted()));
+    }
+
+    @Override
+    public synchronized AlarmStatus getAlarmStatus() {
+        return alarmStatus;
+    }
+
+    @Override
+    public synchronized ArmingStatus getArmingStatus() {
+        return armingStatus;
+    }
+
+    @Override
+    public Optional<Sensor> findById(UUID sensorId) {
+        return sensors.findById(sensorId);
+    }
+
+    @Override
+    public Set<Sensor> findByType(SensorType sensorType) {
+        return Set.copyOf(sensors.findByType(sensorType));
+    }
+
+    @Override
+    public Set<Sensor> findActive() {
+        return Set.copyOf(sensors.findActive());
+    }
+
+    @Override
+    public int getActiveSensorCount() {
+        return sensors.activeCount();
+    }
+
+    @Override
+    public int getActiveSensorCount(SensorType sensorType) {
+        return sensors.activeCount(sensorType);
+    }
+
+    @Override
+    public boolean hasActiveSensors() {
+        return sensors.anyActive();
+    }
+}
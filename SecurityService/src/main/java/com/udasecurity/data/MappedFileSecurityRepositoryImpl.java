@@ -0,0 +1,362 @@
+package com.udasecurity.data;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+
+/**
+ * Repository implementation that keeps every sensor as a fixed-width binary record in a
+ * memory-mapped file. Changing a sensor's activation status is a single in-place byte write, and
+ * the state is available again after a restart without parsing anything.
+ *
+ * Layout of the sensor file:
+ *   header: int magic, int version, int sensor count, byte alarm status, byte arming status
+ *   records: 16-byte UUID, int offset into the name table, int hash of the name,
+ *            byte sensor type ordinal, byte active flag
+ *
+ * Names are variable length, so they live in a separate append-only name table file. Sensors are
+ * only materialized as {@link Sensor} objects when {@link #getSensors()} or one of the lookups
+ * returns them.
+ */
+public class MappedFileSecurityRepositoryImpl implements SecurityRepository, Flushable, Closeable {
+
+    private static final int MAGIC = 0x55445353; //"UDSS"
+    private static final int VERSION = 1;
+
+    //header offsets
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int COUNT_OFFSET = 8;
+    private static final int ALARM_STATUS_OFFSET = 12;
+    private static final int ARMING_STATUS_OFFSET = 13;
+    private static final int HEADER_BYTES = 32;
+
+    //record field offsets
+    private static final int ID_MSB = 0;
+    private static final int ID_LSB = 8;
+    private static final int NAME_OFFSET = 16;
+    private static final int NAME_HASH = 20;
+    private static final int TYPE = 24;
+    private static final int ACTIVE = 25;
+    private static final int RECORD_BYTES = 32;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private final FileChannel sensorChannel;
+    private final FileChannel nameChannel;
+    private MappedByteBuffer sensorFile;
+    private int capacity;
+    private int count;
+
+    //sensor id -> record slot
+    private final UuidIntMap slots;
+    //active sensors per type ordinal, rebuilt on open and kept current on every write
+    private final int[] activeByType = new int[SensorType.values().length];
+    private int activeCount;
+
+    public MappedFileSecurityRepositoryImpl() {
+        this(Paths.get(System.getProperty("user.home"), ".udasecurity"));
+    }
+
+    /**
+     * @param directory Directory holding the sensor file and name table. Created if it does not exist yet.
+     */
+    public MappedFileSecurityRepositoryImpl(Path directory) {
+        try {
+            Files.createDirectories(directory);
+            sensorChannel = FileChannel.open(directory.resolve("sensors.dat"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            nameChannel = FileChannel.open(directory.resolve("sensors.names"),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+            boolean fresh = sensorChannel.size() < HEADER_BYTES;
+            long existingRecords = fresh ? 0 : (sensorChannel.size() - HEADER_BYTES) / RECORD_BYTES;
+            map((int) Math.max(INITIAL_CAPACITY, existingRecords));
+
+            if (fresh) {
+                sensorFile.putInt(MAGIC_OFFSET, MAGIC);
+                sensorFile.putInt(VERSION_OFFSET, VERSION);
+                sensorFile.putInt(COUNT_OFFSET, 0);
+                sensorFile.put(ALARM_STATUS_OFFSET, (byte) AlarmStatus.NO_ALARM.ordinal());
+                sensorFile.put(ARMING_STATUS_OFFSET, (byte) ArmingStatus.DISARMED.ordinal());
+            } else if (sensorFile.getInt(MAGIC_OFFSET) != MAGIC || sensorFile.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IllegalStateException("Unrecognized sensor file in " + directory);
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to open sensor file in " + directory, ioe);
+        }
+
+        count = sensorFile.getInt(COUNT_OFFSET);
+        slots = new UuidIntMap(count);
+        for (int slot = 0; slot < count; slot++) {
+            int base = recordBase(slot);
+            slots.put(sensorFile.getLong(base + ID_MSB), sensorFile.getLong(base + ID_LSB), slot);
+            countActivation(base, 1);
+        }
+    }
+
+    @Override
+    public synchronized void addSensor(Sensor sensor) {
+        UUID id = sensor.getSensorId();
+        if (slots.get(id) != UuidIntMap.NO_VALUE) {
+            updateSensor(sensor);
+            return;
+        }
+        if (count == capacity) {
+            map(capacity * 2);
+        }
+        int base = recordBase(count);
+        sensorFile.putLong(base + ID_MSB, id.getMostSignificantBits());
+        sensorFile.putLong(base + ID_LSB, id.getLeastSignificantBits());
+        writeName(base, sensor.getName());
+        sensorFile.put(base + TYPE, (byte) sensor.getSensorType().ordinal());
+        sensorFile.put(base + ACTIVE, (byte) (sensor.getActive() ? 1 : 0));
+        countActivation(base, 1);
+        slots.put(id, count);
+        sensorFile.putInt(COUNT_OFFSET, ++count);
+    }
+
+    @Override
+    public synchronized void removeSensor(Sensor sensor) {
+        int slot = slots.remove(sensor.getSensorId());
+        if (slot == UuidIntMap.NO_VALUE) {
+            return;
+        }
+        countActivation(recordBase(slot), -1);
+        //keep the records dense by moving the last record into the freed slot
+        int last = count - 1;
+        if (slot != last) {
+            int from = recordBase(last);
+            int to = recordBase(slot);
+            for (int i = 0; i < RECORD_BYTES; i += Long.BYTES) {
+                sensorFile.putLong(to + i, sensorFile.getLong(from + i));
+            }
+            slots.put(sensorFile.getLong(to + ID_MSB), sensorFile.getLong(to + ID_LSB), slot);
+        }
+        sensorFile.putInt(COUNT_OFFSET, --count);
+    }
+
+    @Override
+    public synchronized void updateSensor(Sensor sensor) {
+        int slot = slots.get(sensor.getSensorId());
+        if (slot == UuidIntMap.NO_VALUE) {
+            addSensor(sensor);
+            return;
+        }
+        int base = recordBase(slot);
+        countActivation(base, -1);
+        sensorFile.put(base + ACTIVE, (byte) (sensor.getActive() ? 1 : 0));
+        sensorFile.put(base + TYPE, (byte) sensor.getSensorType().ordinal());
+        countActivation(base, 1);
+        //names rarely change, so only touch the name table when the stored name differs
+        if (!nameMatches(base, sensor.getName())) {
+            writeName(base, sensor.getName());
+        }
+    }
+
+    /**
+     * Clears the active flag in place in every record that has it set; nothing else is written.
+     */
+    @Override
+    public synchronized void deactivateAllSensors() {
+        for (int slot = 0; slot < count && activeCount > 0; slot++) {
+            int base = recordBase(slot);
+            if (sensorFile.get(base + ACTIVE) != 0) {
+                countActivation(base, -1);
+                sensorFile.put(base + ACTIVE, (byte) 0);
+            }
+        }
+    }
+
+    @Override
+    public synchronized void setAlarmStatus(AlarmStatus alarmStatus) {
+        sensorFile.put(ALARM_STATUS_OFFSET, (byte) alarmStatus.ordinal());
+    }
+
+    @Override
+    public synchronized void setArmingStatus(ArmingStatus armingStatus) {
+        sensorFile.put(ARMING_STATUS_OFFSET, (byte) armingStatus.ordinal());
+    }
+
+    /**
+     * Materializes every stored record as a {@link Sensor}. Callers that change a sensor must hand it
+     * back through {@link #updateSensor(Sensor)} for the change to be stored.
+     */
+    @Override
+    public synchronized Set<Sensor> getSensors() {
+        Set<Sensor> sensors = new TreeSet<>();
+        for (int slot = 0; slot < count; slot++) {
+            sensors.add(readSensor(slot));
+        }
+        return sensors;
+    }
+
+    @Override
+    public synchronized Optional<Sensor> findById(UUID sensorId) {
+        int slot = slots.get(sensorId);
+        return slot == UuidIntMap.NO_VALUE ? Optional.empty() : Optional.of(readSensor(slot));
+    }
+
+    /**
+     * Reads only the active flags, and stops once every active sensor has been found. Names are
+     * decoded for the matching records only.
+     */
+    @Override
+    public synchronized Set<Sensor> findActive() {
+        Set<Sensor> active = new TreeSet<>();
+        for (int slot = 0; slot < count && active.size() < activeCount; slot++) {
+            if (sensorFile.get(recordBase(slot) + ACTIVE) != 0) {
+                active.add(readSensor(slot));
+            }
+        }
+        return active;
+    }
+
+    /**
+     * Reads only the type bytes; names are decoded for the matching records only.
+     */
+    @Override
+    public synchronized Set<Sensor> findByType(SensorType sensorType) {
+        Set<Sensor> sensors = new TreeSet<>();
+        byte type = (byte) sensorType.ordinal();
+        for (int slot = 0; slot < count; slot++) {
+            if (sensorFile.get(recordBase(slot) + TYPE) == type) {
+                sensors.add(readSensor(slot));
+            }
+        }
+        return sensors;
+    }
+
+    @Override
+    public synchronized int getActiveSensorCount() {
+        return activeCount;
+    }
+
+    @Override
+    public synchronized int getActiveSensorCount(SensorType sensorType) {
+        return activeByType[sensorType.ordinal()];
+    }
+
+    @Override
+    public synchronized AlarmStatus getAlarmStatus() {
+        return SensorCodec.alarmStatus(sensorFile.get(ALARM_STATUS_OFFSET));
+    }
+
+    @Override
+    public synchronized ArmingStatus getArmingStatus() {
+        return SensorCodec.armingStatus(sensorFile.get(ARMING_STATUS_OFFSET));
+    }
+
+    /**
+     * Forces the mapped records and the name table to disk. Without this, writes survive a crash of
+     * the application but not of the operating system.
+     */
+    @Override
+    public synchronized void flush() {
+        sensorFile.force();
+        try {
+            nameChannel.force(false);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to flush sensor name table", ioe);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        flush();
+        sensorChannel.close();
+        nameChannel.close();
+    }
+
+    private Sensor readSensor(int slot) {
+        int base = recordBase(slot);
+        return new Sensor(new UUID(sensorFile.getLong(base + ID_MSB), sensorFile.getLong(base + ID_LSB)),
+                readName(sensorFile.getInt(base + NAME_OFFSET)),
+                SensorCodec.sensorType(sensorFile.get(base + TYPE)),
+                sensorFile.get(base + ACTIVE) != 0);
+    }
+
+    private void countActivation(int base, int delta) {
+        if (sensorFile.get(base + ACTIVE) != 0) {
+            activeByType[sensorFile.get(base + TYPE)] += delta;
+            activeCount += delta;
+        }
+    }
+
+    private static int recordBase(int slot) {
+        return HEADER_BYTES + slot * RECORD_BYTES;
+    }
+
+    private void map(int newCapacity) {
+        try {
+            sensorFile = sensorChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) newCapacity * RECORD_BYTES);
+            capacity = newCapacity;
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to map sensor file", ioe);
+        }
+    }
+
+    /**
+     * Appends the name to the name table and points the record at it. Superseded names are left in
+     * place; the table only grows when sensors are added or renamed.
+     */
+    private void writeName(int base, String name) {
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer entry = ByteBuffer.allocate(Integer.BYTES + bytes.length);
+        entry.putInt(bytes.length).put(bytes).flip();
+        try {
+            long offset = nameChannel.size();
+            while (entry.hasRemaining()) {
+                nameChannel.write(entry, offset + entry.position());
+            }
+            sensorFile.putInt(base + NAME_OFFSET, Math.toIntExact(offset));
+            sensorFile.putInt(base + NAME_HASH, name.hashCode());
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to write sensor name table", ioe);
+        }
+    }
+
+    /**
+     * The stored hash rules out most changed names without reading the name table; an equal hash
+     * is confirmed against the stored bytes, since different names can share a hash.
+     */
+    private boolean nameMatches(int base, String name) {
+        if (sensorFile.getInt(base + NAME_HASH) != name.hashCode()) {
+            return false;
+        }
+        return readName(sensorFile.getInt(base + NAME_OFFSET)).equals(name);
+    }
+
+    private String readName(int offset) {
+        try {
+            ByteBuffer length = ByteBuffer.allocate(Integer.BYTES);
+            readFully(length, offset);
+            ByteBuffer bytes = ByteBuffer.allocate(length.flip().getInt());
+            readFully(bytes, offset + Integer.BYTES);
+            return new String(bytes.array(), StandardCharsets.UTF_8);
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to read sensor name table", ioe);
+        }
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (nameChannel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of sensor name table");
+            }
+        }
+    }
+}
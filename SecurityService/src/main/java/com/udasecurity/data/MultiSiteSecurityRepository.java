@@ -0,0 +1,110 @@
+package com.udasecurity.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+
+/**
+ * Security state for many premises in one process. Every site gets its own partition, a complete
+ * {@link SecurityRepository} with its own sensors, alarm status and arming status, and each
+ * partition guards its state with its own lock. Mutations for different sites therefore never
+ * wait on each other; only the lookup of a site goes through the shared (lock-free for reads) site
+ * map.
+ *
+ * Partitions are created on first use by the partition factory. The default factory keeps each
+ * site in memory in a {@link ColumnarSecurityRepositoryImpl}. A custom factory must return
+ * repositories that are safe to use from several threads, as the partitions are shared.
+ */
+public class MultiSiteSecurityRepository implements Flushable, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiSiteSecurityRepository.class);
+
+    private final ConcurrentMap<String, SecurityRepository> sites = new ConcurrentHashMap<>();
+    private final Function<String, ? extends SecurityRepository> partitionFactory;
+
+    public MultiSiteSecurityRepository() {
+        this(siteId -> new ColumnarSecurityRepositoryImpl());
+    }
+
+    /**
+     * @param partitionFactory Creates the repository holding the state of the given site
+     */
+    public MultiSiteSecurityRepository(Function<String, ? extends SecurityRepository> partitionFactory) {
+        this.partitionFactory = partitionFactory;
+    }
+
+    /**
+     * @return the partition of the site, created if the site is not known yet
+     */
+    public SecurityRepository site(String siteId) {
+        SecurityRepository partition = sites.get(siteId);
+        return partition != null ? partition : sites.computeIfAbsent(siteId, partitionFactory);
+    }
+
+    public Optional<SecurityRepository> findSite(String siteId) {
+        return Optional.ofNullable(sites.get(siteId));
+    }
+
+    /**
+     * Forgets the site. Its partition is closed if it holds resources.
+     */
+    public void removeSite(String siteId) throws IOException {
+        SecurityRepository partition = sites.remove(siteId);
+        if (partition instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    /**
+     * @return unmodifiable snapshot of the known site ids
+     */
+    public Set<String> getSiteIds() {
+        return Set.copyOf(sites.keySet());
+    }
+
+    public int getSiteCount() {
+        return sites.size();
+    }
+
+    @Override
+    public void flush() throws IOException {
+        for (SecurityRepository partition : sites.values()) {
+            if (partition instanceof Flushable flushable) {
+                flushable.flush();
+            }
+        }
+    }
+
+    /**
+     * Closes every partition that holds resources. A failure to close one site is logged and does
+     * not keep the others open; the first failure is rethrown at the end.
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (var site : sites.entrySet()) {
+            if (site.getValue() instanceof Closeable closeable) {
+                try {
+                    closeable.close();
+                } catch (IOException ioe) {
+                    log.error("Unable to close the repository of site {}", site.getKey(), ioe);
+                    if (failure == null) {
+                        failure = ioe;
+                    }
+                }
+            }
+        }
+        sites.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
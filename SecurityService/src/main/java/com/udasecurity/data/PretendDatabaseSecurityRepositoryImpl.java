@@ -1,11 +1,9 @@
 package com.udasecurity.data;
 
-import com.google.common.reflect.TypeToken;
-import com.google.gson.Gson;
-
-import java.lang.reflect.Type;
+import java.util.Collection;
+import java.util.Optional;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.UUID;
 import java.util.prefs.Preferences;
 
 /**
@@ -15,7 +13,7 @@ import java.util.prefs.Preferences;
  */
 public class PretendDatabaseSecurityRepositoryImpl implements SecurityRepository{
 
-    private Set<Sensor> sensors;
+    private final SensorStore sensors = new SensorStore();
     private AlarmStatus alarmStatus;
     private ArmingStatus armingStatus;
 
@@ -25,7 +23,8 @@ public class PretendDatabaseSecurityRepositoryImpl implements SecurityRepository
     private static final String ARMING_STATUS = "ARMING_STATUS";
 
     private static final Preferences prefs = Preferences.userNodeForPackage(PretendDatabaseSecurityRepositoryImpl.class);
-    private static final Gson gson = new Gson(); //used to serialize objects into JSON
+    //sensors are written as JSON by SensorCodec, one shard of the list per key
+    private final ShardedPreferencesSensorStore sensorPrefs = new ShardedPreferencesSensorStore(prefs, SENSORS);
 
     public PretendDatabaseSecurityRepositoryImpl() {
         //load system state from prefs, or else default
@@ -34,33 +33,37 @@ public class PretendDatabaseSecurityRepositoryImpl implements SecurityRepository
 
         //we've serialized our sensor objects for storage, which should be a good warning sign that
         // this is likely an impractical solution for a real system
-        String sensorString = prefs.get(SENSORS, null);
-        if(sensorString == null) {
-            sensors = new TreeSet<>();
-        } else {
-            Type type = new TypeToken<Set<Sensor>>() {
-            }.getType();
-            sensors = gson.fromJson(sensorString, type);
-        }
+        sensorPrefs.read(sensors::add);
     }
 
     @Override
     public void addSensor(Sensor sensor) {
         sensors.add(sensor);
-        prefs.put(SENSORS, gson.toJson(sensors));
+        sensorPrefs.write(sensors.sorted());
     }
 
     @Override
     public void removeSensor(Sensor sensor) {
         sensors.remove(sensor);
-        prefs.put(SENSORS, gson.toJson(sensors));
+        sensorPrefs.write(sensors.sorted());
     }
 
     @Override
     public void updateSensor(Sensor sensor) {
-        sensors.remove(sensor);
-        sensors.add(sensor);
-        prefs.put(SENSORS, gson.toJson(sensors));
+        sensors.update(sensor);
+        sensorPrefs.write(sensors.sorted());
+    }
+
+    @Override
+    public void updateSensors(Collection<Sensor> sensors) {
+        sensors.forEach(this.sensors::update);
+        sensorPrefs.write(this.sensors.sorted());
+    }
+
+    @Override
+    public void deactivateAllSensors() {
+        sensors.deactivateAll();
+        sensorPrefs.write(sensors.sorted());
     }
 
     @Override
@@ -77,7 +80,7 @@ public class PretendDatabaseSecurityRepositoryImpl implements SecurityRepository
 
     @Override
     public Set<Sensor> getSensors() {
-        return sensors;
+        return sensors.sorted();
     }
 
     @Override
@@ -89,4 +92,29 @@ public class PretendDatabaseSecurityRepositoryImpl implements SecurityRepository
     public ArmingStatus getArmingStatus() {
         return armingStatus;
     }
+
+    @Override
+    public Optional<Sensor> findById(UUID sensorId) {
+        return sensors.findById(sensorId);
+    }
+
+    @Override
+    public Set<Sensor> findByType(SensorType sensorType) {
+        return Set.copyOf(sensors.findByType(sensorType));
+    }
+
+    @Override
+    public Set<Sensor> findActive() {
+        return Set.copyOf(sensors.findActive());
+    }
+
+    @Override
+    public int getActiveSensorCount() {
+        return sensors.activeCount();
+    }
+
+    @Override
+    public int getActiveSensorCount(SensorType sensorType) {
+        return sensors.activeCount(sensorType);
+    }
 }
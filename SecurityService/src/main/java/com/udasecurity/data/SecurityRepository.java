@@ -1,6 +1,10 @@
 package com.udasecurity.data;
 
+import java.util.Collection;
+import java.util.Optional;
 import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 /**
  * Interface showing the methods our security repository will need to support
@@ -15,5 +19,55 @@ public interface SecurityRepository {
     AlarmStatus getAlarmStatus();
     ArmingStatus getArmingStatus();
 
+    /**
+     * Stores several changed sensors at once. Implementations that rewrite their whole sensor
+     * state on every change override this to do it once per call.
+     */
+    default void updateSensors(Collection<Sensor> sensors) {
+        sensors.forEach(this::updateSensor);
+    }
 
+    /**
+     * Marks every sensor inactive, as happens when the system is armed. Implementations override
+     * this to make it a single change to their stored state rather than one write per sensor.
+     */
+    default void deactivateAllSensors() {
+        Set<Sensor> active = findActive();
+        active.forEach(sensor -> sensor.setActive(false));
+        updateSensors(active);
+    }
+
+    /*
+     * Indexed lookups. The defaults scan getSensors(); implementations backed by a SensorStore
+     * answer them from its indexes instead.
+     */
+
+    default Optional<Sensor> findById(UUID sensorId) {
+        return getSensors().stream().filter(s -> s.getSensorId().equals(sensorId)).findFirst();
+    }
+
+    default Set<Sensor> findByType(SensorType sensorType) {
+        return getSensors().stream().filter(s -> s.getSensorType() == sensorType).collect(Collectors.toSet());
+    }
+
+    default Set<Sensor> findActive() {
+        return getSensors().stream().filter(Sensor::getActive).collect(Collectors.toSet());
+    }
+
+    /*
+     * Active sensor counters. Implementations that track activation as it changes answer these in
+     * constant time, which keeps alarm decisions independent of the number of sensors.
+     */
+
+    default int getActiveSensorCount() {
+        return findActive().size();
+    }
+
+    default int getActiveSensorCount(SensorType sensorType) {
+        return (int) findActive().stream().filter(s -> s.getSensorType() == sensorType).count();
+    }
+
+    default boolean hasActiveSensors() {
+        return getActiveSensorCount() > 0;
+    }
 }
@@ -1,8 +1,6 @@
 package com.udasecurity.data;
 
 
-import com.google.common.collect.ComparisonChain;
-
 import java.util.Objects;
 import java.util.UUID;
 
@@ -22,17 +20,26 @@ public class Sensor implements Comparable<Sensor> {
         this.active = Boolean.FALSE;
     }
 
+    /**
+     * Recreates a previously stored sensor without generating a new id.
+     */
+    public Sensor(UUID sensorId, String name, SensorType sensorType, Boolean active) {
+        this.sensorId = sensorId;
+        this.name = name;
+        this.sensorType = sensorType;
+        this.active = active;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
-        if (o == null || getClass() != o.getClass()) return false;
-        Sensor sensor = (Sensor) o;
-        return sensorId.equals(sensor.sensorId);
+        if (!(o instanceof Sensor sensor)) return false;
+        return getSensorId().equals(sensor.getSensorId());
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(sensorId);
+        return Objects.hash(getSensorId());
     }
 
     public String getName() {
@@ -69,10 +76,15 @@ public class Sensor implements Comparable<Sensor> {
 
     @Override
     public int compareTo(Sensor o) {
-        return ComparisonChain.start()
-                .compare(this.name, o.name)
-                .compare(this.sensorType.toString(), o.sensorType.toString())
-                .compare(this.sensorId, o.sensorId)
-                .result();
+        //same ordering as before (name, type name, id) without building a comparison chain.
+        //goes through the getters so table-backed views compare like plain sensors
+        int result = getName().compareTo(o.getName());
+        if (result == 0) {
+            result = getSensorType().name().compareTo(o.getSensorType().name());
+        }
+        if (result == 0) {
+            result = getSensorId().compareTo(o.getSensorId());
+        }
+        return result;
     }
 }
@@ -0,0 +1,105 @@
+package com.udasecurity.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * Hand-written encoders for {@link Sensor}, {@link SensorType}, {@link AlarmStatus} and
+ * {@link ArmingStatus}. Fields are read and written directly, so persistence needs neither Gson's
+ * reflective adapters nor a type token, and the data package does not have to be opened to Gson.
+ *
+ * The JSON form is the one Gson produced reflectively ({@code sensorId}, {@code name},
+ * {@code active}, {@code sensorType}), so previously stored sensors keep loading. The binary form
+ * is the record layout of the log and snapshot files. Enums are encoded by ordinal in binary and
+ * by name in JSON.
+ */
+public final class SensorCodec {
+
+    //values() clones its array on every call, so decoders index these copies instead
+    private static final SensorType[] SENSOR_TYPES = SensorType.values();
+    private static final AlarmStatus[] ALARM_STATUSES = AlarmStatus.values();
+    private static final ArmingStatus[] ARMING_STATUSES = ArmingStatus.values();
+
+    private SensorCodec() {
+    }
+
+    public static void writeJson(JsonWriter out, Sensor sensor) throws IOException {
+        out.beginObject();
+        if (sensor.getSensorId() != null) {
+            out.name("sensorId").value(sensor.getSensorId().toString());
+        }
+        if (sensor.getName() != null) {
+            out.name("name").value(sensor.getName());
+        }
+        if (sensor.getActive() != null) {
+            out.name("active").value(sensor.getActive());
+        }
+        if (sensor.getSensorType() != null) {
+            out.name("sensorType").value(sensor.getSensorType().name());
+        }
+        out.endObject();
+    }
+
+    public static Sensor readJson(JsonReader in) throws IOException {
+        UUID sensorId = null;
+        String name = null;
+        Boolean active = null;
+        SensorType sensorType = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            String field = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                continue;
+            }
+            switch (field) {
+                case "sensorId" -> sensorId = UUID.fromString(in.nextString());
+                case "name" -> name = in.nextString();
+                case "active" -> active = in.nextBoolean();
+                case "sensorType" -> sensorType = SensorType.valueOf(in.nextString());
+                default -> in.skipValue();
+            }
+        }
+        in.endObject();
+        return new Sensor(sensorId, name, sensorType, active);
+    }
+
+    /**
+     * Binary layout: long id msb, long id lsb, modified UTF-8 name, byte type ordinal, boolean
+     * active.
+     */
+    public static void writeSensor(DataOutput out, UUID sensorId, String name, SensorType sensorType, boolean active) throws IOException {
+        out.writeLong(sensorId.getMostSignificantBits());
+        out.writeLong(sensorId.getLeastSignificantBits());
+        out.writeUTF(name);
+        out.writeByte(sensorType.ordinal());
+        out.writeBoolean(active);
+    }
+
+    public static void writeSensor(DataOutput out, Sensor sensor) throws IOException {
+        writeSensor(out, sensor.getSensorId(), sensor.getName(), sensor.getSensorType(), sensor.getActive());
+    }
+
+    public static Sensor readSensor(DataInput in) throws IOException {
+        UUID sensorId = new UUID(in.readLong(), in.readLong());
+        return new Sensor(sensorId, in.readUTF(), sensorType(in.readByte()), in.readBoolean());
+    }
+
+    public static SensorType sensorType(int ordinal) {
+        return SENSOR_TYPES[ordinal];
+    }
+
+    public static AlarmStatus alarmStatus(int ordinal) {
+        return ALARM_STATUSES[ordinal];
+    }
+
+    public static ArmingStatus armingStatus(int ordinal) {
+        return ARMING_STATUSES[ordinal];
+    }
+}
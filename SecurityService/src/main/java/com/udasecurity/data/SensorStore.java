@@ -0,0 +1,180 @@
+package com.udasecurity.data;
+
+import java.util.*;
+
+/**
+ * In-memory sensor collection indexed by sensor id, by sensor type and by activation status.
+ * Lookups by id are O(1) and the type and activity views are O(k) in the number of matching
+ * sensors. The indexes are maintained incrementally as sensors are added, removed and updated,
+ * together with counters of active sensors overall and per type, so "is anything active?" never
+ * needs a scan.
+ *
+ * The name-sorted ordering used for display is only a secondary view. It is rebuilt lazily after
+ * a sensor is added, removed or renamed, so activation changes never pay for it.
+ *
+ * Not thread-safe; repositories guard it with their own lock.
+ */
+public class SensorStore {
+
+    /**
+     * Indexed attributes of a sensor as of its last add or update. Callers mutate sensor objects
+     * before handing them back, so the previous values are needed to fix up the indexes.
+     */
+    private static final class Entry {
+        private Sensor sensor;
+        private String name;
+        private SensorType type;
+        private boolean active;
+
+        private Entry(Sensor sensor) {
+            capture(sensor);
+        }
+
+        private void capture(Sensor sensor) {
+            this.sensor = sensor;
+            this.name = sensor.getName();
+            this.type = sensor.getSensorType();
+            this.active = sensor.getActive();
+        }
+    }
+
+    private final Map<UUID, Entry> byId = new HashMap<>();
+    private final Map<SensorType, Set<Sensor>> byType = new EnumMap<>(SensorType.class);
+    private final Set<Sensor> active = new HashSet<>();
+    private final int[] activeByType = new int[SensorType.values().length];
+    //null whenever membership or ordering has changed since it was built
+    private Set<Sensor> sorted;
+
+    public SensorStore() {
+        for (SensorType type : SensorType.values()) {
+            byType.put(type, new HashSet<>());
+        }
+    }
+
+    public SensorStore(Collection<Sensor> sensors) {
+        this();
+        sensors.forEach(this::add);
+    }
+
+    public void add(Sensor sensor) {
+        if (byId.containsKey(sensor.getSensorId())) {
+            update(sensor);
+            return;
+        }
+        Entry entry = new Entry(sensor);
+        byId.put(sensor.getSensorId(), entry);
+        byType.get(entry.type).add(sensor);
+        if (entry.active) {
+            active.add(sensor);
+            activeByType[entry.type.ordinal()]++;
+        }
+        sorted = null;
+    }
+
+    public void remove(Sensor sensor) {
+        remove(sensor.getSensorId());
+    }
+
+    public void remove(UUID sensorId) {
+        Entry entry = byId.remove(sensorId);
+        if (entry == null) {
+            return;
+        }
+        byType.get(entry.type).remove(entry.sensor);
+        if (active.remove(entry.sensor)) {
+            activeByType[entry.type.ordinal()]--;
+        }
+        sorted = null;
+    }
+
+    public void update(Sensor sensor) {
+        Entry entry = byId.get(sensor.getSensorId());
+        if (entry == null) {
+            add(sensor);
+            return;
+        }
+        boolean replaced = entry.sensor != sensor;
+        if (replaced || entry.type != sensor.getSensorType()) {
+            byType.get(entry.type).remove(entry.sensor);
+            byType.get(sensor.getSensorType()).add(sensor);
+        }
+        if (replaced || entry.active != sensor.getActive() || entry.type != sensor.getSensorType()) {
+            if (active.remove(entry.sensor)) {
+                activeByType[entry.type.ordinal()]--;
+            }
+            if (sensor.getActive()) {
+                active.add(sensor);
+                activeByType[sensor.getSensorType().ordinal()]++;
+            }
+        }
+        if (replaced || !entry.name.equals(sensor.getName()) || entry.type != sensor.getSensorType()) {
+            sorted = null;
+        }
+        entry.capture(sensor);
+    }
+
+    /**
+     * Marks every active sensor inactive. Only the active sensors are visited.
+     */
+    public void deactivateAll() {
+        for (Sensor sensor : active) {
+            sensor.setActive(false);
+            byId.get(sensor.getSensorId()).active = false;
+        }
+        active.clear();
+        Arrays.fill(activeByType, 0);
+    }
+
+    public void clear() {
+        byId.clear();
+        byType.values().forEach(Set::clear);
+        active.clear();
+        Arrays.fill(activeByType, 0);
+        sorted = null;
+    }
+
+    public int size() {
+        return byId.size();
+    }
+
+    public Optional<Sensor> findById(UUID sensorId) {
+        Entry entry = byId.get(sensorId);
+        return entry == null ? Optional.empty() : Optional.of(entry.sensor);
+    }
+
+    /**
+     * @return live, unmodifiable view of the sensors of the given type
+     */
+    public Set<Sensor> findByType(SensorType sensorType) {
+        return Collections.unmodifiableSet(byType.get(sensorType));
+    }
+
+    /**
+     * @return live, unmodifiable view of the currently active sensors
+     */
+    public Set<Sensor> findActive() {
+        return Collections.unmodifiableSet(active);
+    }
+
+    public int activeCount() {
+        return active.size();
+    }
+
+    public int activeCount(SensorType sensorType) {
+        return activeByType[sensorType.ordinal()];
+    }
+
+    /**
+     * @return unmodifiable, name-sorted view of all sensors as of this call. Later additions,
+     * removals and renames are not reflected, so it is safe to iterate while updating sensors.
+     */
+    public Set<Sensor> sorted() {
+        if (sorted == null) {
+            List<Sensor> all = new ArrayList<>(byId.size());
+            byId.values().forEach(entry -> all.add(entry.sensor));
+            all.sort(null);
+            sorted = Collections.unmodifiableSet(new LinkedHashSet<>(all));
+        }
+        return sorted;
+    }
+}
@@ -0,0 +1,327 @@
+package com.udasecurity.data;
+
+import java.util.*;
+
+/**
+ * Columnar sensor storage. Each sensor is a row spread over primitive columns: two longs for the
+ * id, a byte for the type ordinal, one bit of a {@code long[]} for the active flag and a reference
+ * to the name. Rows stay dense; removing a sensor moves the last row into the gap. An id index
+ * maps sensors to their rows.
+ *
+ * Sensors handed out by the table are lightweight views that carry only the id and read and
+ * write the columns on every access, so they always reflect the current state and setters take
+ * effect immediately. A view of a removed sensor throws {@link IllegalStateException}.
+ *
+ * Active sensor counts, overall and per type, are kept current on every write, so they are
+ * answered in constant time like the counters of {@link SensorStore}.
+ *
+ * Every operation, including the view accessors, synchronizes on the table.
+ */
+public class SensorTable {
+
+    private static final SensorType[] SENSOR_TYPES = SensorType.values();
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    private byte[] types;
+    private String[] names;
+    //bit (row & 63) of word (row >>> 6) is set while the sensor in that row is active
+    private long[] activeBits;
+    private final int[] activeByType = new int[SENSOR_TYPES.length];
+    private int activeCount;
+    private final UuidIntMap rows;
+    private int size;
+
+    public SensorTable() {
+        this(16);
+    }
+
+    public SensorTable(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        types = new byte[capacity];
+        names = new String[capacity];
+        activeBits = new long[(capacity + 63) >>> 6];
+        rows = new UuidIntMap(capacity);
+    }
+
+    /**
+     * Copies the sensor into the table, replacing the row of a sensor with the same id.
+     *
+     * @return a view of the stored sensor
+     */
+    public synchronized Sensor put(Sensor sensor) {
+        UUID id = sensor.getSensorId();
+        long msb = id.getMostSignificantBits();
+        long lsb = id.getLeastSignificantBits();
+        int row = rows.get(msb, lsb);
+        if (row == UuidIntMap.NO_VALUE) {
+            ensureCapacity(size + 1);
+            row = size++;
+            mostSigBits[row] = msb;
+            leastSigBits[row] = lsb;
+            rows.put(msb, lsb, row);
+        }
+        names[row] = sensor.getName();
+        setType(row, (byte) sensor.getSensorType().ordinal());
+        setActive(row, Boolean.TRUE.equals(sensor.getActive()));
+        return new SensorView(msb, lsb);
+    }
+
+    public synchronized boolean remove(UUID sensorId) {
+        int row = rows.remove(sensorId);
+        if (row == UuidIntMap.NO_VALUE) {
+            return false;
+        }
+        setActive(row, false);
+        int last = --size;
+        if (row != last) {
+            //the moved sensor keeps its activation, so the counters stay as they are
+            mostSigBits[row] = mostSigBits[last];
+            leastSigBits[row] = leastSigBits[last];
+            types[row] = types[last];
+            names[row] = names[last];
+            writeActiveBit(row, isActive(last));
+            rows.put(mostSigBits[row], leastSigBits[row], row);
+        }
+        names[last] = null;
+        writeActiveBit(last, false);
+        return true;
+    }
+
+    /**
+     * Marks every sensor inactive by clearing the activation bits, a word at a time.
+     */
+    public synchronized void deactivateAll() {
+        Arrays.fill(activeBits, 0L);
+        Arrays.fill(activeByType, 0);
+        activeCount = 0;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(names, 0, size, null);
+        deactivateAll();
+        rows.clear();
+        size = 0;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public synchronized Optional<Sensor> findById(UUID sensorId) {
+        return rows.get(sensorId) == UuidIntMap.NO_VALUE
+                ? Optional.empty()
+                : Optional.of(new SensorView(sensorId.getMostSignificantBits(), sensorId.getLeastSignificantBits()));
+    }
+
+    public synchronized List<Sensor> findByType(SensorType sensorType) {
+        byte ordinal = (byte) sensorType.ordinal();
+        List<Sensor> matches = new ArrayList<>();
+        for (int row = 0; row < size; row++) {
+            if (types[row] == ordinal) {
+                matches.add(view(row));
+            }
+        }
+        return matches;
+    }
+
+    public synchronized List<Sensor> findActive() {
+        List<Sensor> matches = new ArrayList<>();
+        for (int word = 0; word < activeBits.length; word++) {
+            for (long bits = activeBits[word]; bits != 0; bits &= bits - 1) {
+                matches.add(view((word << 6) + Long.numberOfTrailingZeros(bits)));
+            }
+        }
+        return matches;
+    }
+
+    /**
+     * @return views of every sensor, in row order
+     */
+    public synchronized List<Sensor> all() {
+        List<Sensor> all = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            all.add(view(row));
+        }
+        return all;
+    }
+
+    /**
+     * @return views of every sensor in their natural (display) order. Rows are compared on the
+     * columns directly rather than through the views.
+     */
+    public synchronized List<Sensor> sorted() {
+        Integer[] order = new Integer[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = row;
+        }
+        Arrays.sort(order, (a, b) -> {
+            int result = names[a].compareTo(names[b]);
+            if (result == 0) {
+                result = SENSOR_TYPES[types[a]].name().compareTo(SENSOR_TYPES[types[b]].name());
+            }
+            if (result == 0) {
+                result = new UUID(mostSigBits[a], leastSigBits[a]).compareTo(new UUID(mostSigBits[b], leastSigBits[b]));
+            }
+            return result;
+        });
+        List<Sensor> sorted = new ArrayList<>(size);
+        for (Integer row : order) {
+            sorted.add(view(row));
+        }
+        return sorted;
+    }
+
+    public synchronized boolean anyActive() {
+        return activeCount > 0;
+    }
+
+    public synchronized int activeCount() {
+        return activeCount;
+    }
+
+    public synchronized int activeCount(SensorType sensorType) {
+        return activeByType[sensorType.ordinal()];
+    }
+
+    private SensorView view(int row) {
+        return new SensorView(mostSigBits[row], leastSigBits[row]);
+    }
+
+    private boolean isActive(int row) {
+        return (activeBits[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * Sets the activation bit of the row and adjusts the active counters if it changed.
+     */
+    private void setActive(int row, boolean active) {
+        if (isActive(row) == active) {
+            return;
+        }
+        int delta = active ? 1 : -1;
+        activeByType[types[row]] += delta;
+        activeCount += delta;
+        writeActiveBit(row, active);
+    }
+
+    /**
+     * Sets the type of the row, moving it between the per-type counters if it is active.
+     */
+    private void setType(int row, byte ordinal) {
+        if (isActive(row) && types[row] != ordinal) {
+            activeByType[types[row]]--;
+            activeByType[ordinal]++;
+        }
+        types[row] = ordinal;
+    }
+
+    private void writeActiveBit(int row, boolean active) {
+        if (active) {
+            activeBits[row >>> 6] |= 1L << row;
+        } else {
+            activeBits[row >>> 6] &= ~(1L << row);
+        }
+    }
+
+    private void ensureCapacity(int required) {
+        if (required <= mostSigBits.length) {
+            return;
+        }
+        int capacity = Math.max(required, mostSigBits.length * 2);
+        mostSigBits = Arrays.copyOf(mostSigBits, capacity);
+        leastSigBits = Arrays.copyOf(leastSigBits, capacity);
+        types = Arrays.copyOf(types, capacity);
+        names = Arrays.copyOf(names, capacity);
+        activeBits = Arrays.copyOf(activeBits, (capacity + 63) >>> 6);
+    }
+
+    private int rowOf(long msb, long lsb) {
+        int row = rows.get(msb, lsb);
+        if (row == UuidIntMap.NO_VALUE) {
+            throw new IllegalStateException("Sensor " + new UUID(msb, lsb) + " has been removed");
+        }
+        return row;
+    }
+
+    /**
+     * Flyweight sensor: only the id lives in the object, everything else is read from the table.
+     */
+    private final class SensorView extends Sensor {
+        private final long msb;
+        private final long lsb;
+
+        private SensorView(long msb, long lsb) {
+            super(null, null, null, null);
+            this.msb = msb;
+            this.lsb = lsb;
+        }
+
+        @Override
+        public UUID getSensorId() {
+            return new UUID(msb, lsb);
+        }
+
+        @Override
+        public void setSensorId(UUID sensorId) {
+            throw new UnsupportedOperationException("The id of a stored sensor cannot change");
+        }
+
+        @Override
+        public String getName() {
+            synchronized (SensorTable.this) {
+                return names[rowOf(msb, lsb)];
+            }
+        }
+
+        @Override
+        public void setName(String name) {
+            synchronized (SensorTable.this) {
+                names[rowOf(msb, lsb)] = name;
+            }
+        }
+
+        @Override
+        public Boolean getActive() {
+            synchronized (SensorTable.this) {
+                return isActive(rowOf(msb, lsb));
+            }
+        }
+
+        @Override
+        public void setActive(Boolean active) {
+            synchronized (SensorTable.this) {
+                SensorTable.this.setActive(rowOf(msb, lsb), Boolean.TRUE.equals(active));
+            }
+        }
+
+        @Override
+        public SensorType getSensorType() {
+            synchronized (SensorTable.this) {
+                return SENSOR_TYPES[types[rowOf(msb, lsb)]];
+            }
+        }
+
+        @Override
+        public void setSensorType(SensorType sensorType) {
+            synchronized (SensorTable.this) {
+                setType(rowOf(msb, lsb), (byte) sensorType.ordinal());
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof SensorView view) {
+                return msb == view.msb && lsb == view.lsb;
+            }
+            return super.equals(o);
+        }
+
+        @Override
+        public int hashCode() {
+            return super.hashCode();
+        }
+    }
+}
@@ -0,0 +1,289 @@
+package com.udasecurity.data;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.Consumer;
+import java.util.prefs.Preferences;
+
+/**
+ * Persists a sensor collection in {@link Preferences} without ever building the whole collection
+ * as one string. Preferences values are capped at {@link Preferences#MAX_VALUE_LENGTH} characters,
+ * so sensors are streamed one at a time into JSON array shards that each stay under the cap.
+ *
+ * A sensor's shard is picked from a hash of its id, so adding, changing or removing one sensor
+ * changes only the shard holding it; shards whose content did not change are not written again.
+ * When a shard would overflow, the number of shards doubles and every shard is rewritten once.
+ *
+ * The index recording each shard's version is capped in length like any other value, so it is
+ * split into parts of a fixed number of shards ({@code SENSORS_INDEX_<part>_<generation>}), which
+ * are versioned and only rewritten when they change, just like the shards. A short head value
+ * ({@code SENSORS_INDEX}) names the current version of every part.
+ *
+ * Writes never overwrite a value the stored state still refers to. Changed shards and index parts
+ * are stored under new keys, and only then is the head replaced with one naming the new index
+ * parts. A single preference write is atomic, so a crash part way through leaves the previous
+ * state intact; at worst it leaves unreferenced values behind, which are never read.
+ */
+public class ShardedPreferencesSensorStore {
+
+    private static final int MAX_SHARD_LENGTH = Preferences.MAX_VALUE_LENGTH;
+    //shard version of a shard with no sensors, which has no stored value
+    private static final int EMPTY = -1;
+    //shard versions per index part; at up to 11 characters a version, a part stays under the cap
+    private static final int SHARDS_PER_INDEX_PART = 512;
+
+    private final Preferences prefs;
+    private final String keyPrefix;
+
+    //layout as last read or written, used to skip rewriting unchanged shards
+    private int generation;
+    private int[] shardVersions = new int[0];
+    private String[] writtenShards = new String[0];
+    private int[] indexPartVersions = new int[0];
+    private String[] writtenIndexParts = new String[0];
+    //number of shards stored under the unversioned numbered keys of the previous layout
+    private int unversionedShards;
+
+    /**
+     * @param prefs Preferences node to store the shards in
+     * @param keyPrefix Prefix of the shard keys. Sensors stored by older versions, directly under
+     *                  this key or under numbered keys with a shard count, are still read and are
+     *                  removed on the next write.
+     */
+    public ShardedPreferencesSensorStore(Preferences prefs, String keyPrefix) {
+        this.prefs = prefs;
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * Streams every stored sensor to the consumer.
+     *
+     * @throws IllegalStateException if the index refers to a shard that is not stored
+     */
+    public void read(Consumer<Sensor> sensorConsumer) {
+        generation = 0;
+        shardVersions = new int[0];
+        writtenShards = new String[0];
+        indexPartVersions = new int[0];
+        writtenIndexParts = new String[0];
+        unversionedShards = 0;
+
+        String head = prefs.get(indexKey(), null);
+        if (head != null) {
+            readIndex(head);
+            for (int i = 0; i < shardVersions.length; i++) {
+                if (shardVersions[i] == EMPTY) {
+                    continue;
+                }
+                String shard = prefs.get(shardKey(i, shardVersions[i]), null);
+                if (shard == null) {
+                    throw new IllegalStateException("Stored sensors are missing shard " + shardKey(i, shardVersions[i]));
+                }
+                writtenShards[i] = shard;
+                readShard(shard, sensorConsumer);
+            }
+            return;
+        }
+
+        unversionedShards = prefs.getInt(unversionedCountKey(), -1);
+        if (unversionedShards < 0) {
+            unversionedShards = 0;
+            //written by a version that stored all sensors under a single key
+            String legacy = prefs.get(keyPrefix, null);
+            if (legacy != null) {
+                readShard(legacy, sensorConsumer);
+            }
+            return;
+        }
+        for (int i = 0; i < unversionedShards; i++) {
+            readShard(prefs.get(keyPrefix + "_" + i, "[]"), sensorConsumer);
+        }
+    }
+
+    /**
+     * Replaces the stored sensors with the given ones.
+     */
+    public void write(Collection<Sensor> sensors) {
+        int shardCount = Math.max(1, shardVersions.length);
+        StringBuilder[] shards;
+        while ((shards = encode(sensors, shardCount)) == null) {
+            shardCount *= 2;
+        }
+
+        int nextGeneration = generation + 1;
+        boolean sameLayout = shardCount == shardVersions.length;
+        int[] versions = new int[shardCount];
+        String[] values = new String[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            if (shards[i] == null) {
+                versions[i] = EMPTY;
+                continue;
+            }
+            values[i] = shards[i].append(']').toString();
+            if (sameLayout && values[i].equals(writtenShards[i])) {
+                versions[i] = shardVersions[i];
+            } else {
+                versions[i] = nextGeneration;
+                prefs.put(shardKey(i, nextGeneration), values[i]);
+            }
+        }
+
+        int partCount = (shardCount + SHARDS_PER_INDEX_PART - 1) / SHARDS_PER_INDEX_PART;
+        int[] partVersions = new int[partCount];
+        String[] parts = new String[partCount];
+        for (int p = 0; p < partCount; p++) {
+            parts[p] = join(versions, p * SHARDS_PER_INDEX_PART, Math.min(shardCount, (p + 1) * SHARDS_PER_INDEX_PART));
+            if (p < writtenIndexParts.length && parts[p].equals(writtenIndexParts[p])) {
+                partVersions[p] = indexPartVersions[p];
+            } else {
+                partVersions[p] = nextGeneration;
+                prefs.put(indexPartKey(p, nextGeneration), parts[p]);
+            }
+        }
+        prefs.put(indexKey(), nextGeneration + ":" + join(partVersions, 0, partCount));
+
+        //the new head is in place, so the superseded values can go
+        for (int i = 0; i < shardVersions.length; i++) {
+            if (shardVersions[i] != EMPTY && (i >= shardCount || versions[i] != shardVersions[i])) {
+                prefs.remove(shardKey(i, shardVersions[i]));
+            }
+        }
+        for (int p = 0; p < indexPartVersions.length; p++) {
+            if (p >= partCount || partVersions[p] != indexPartVersions[p]) {
+                prefs.remove(indexPartKey(p, indexPartVersions[p]));
+            }
+        }
+        for (int i = 0; i < unversionedShards; i++) {
+            prefs.remove(keyPrefix + "_" + i);
+        }
+        prefs.remove(unversionedCountKey());
+        prefs.remove(keyPrefix);
+
+        generation = nextGeneration;
+        shardVersions = versions;
+        writtenShards = values;
+        indexPartVersions = partVersions;
+        writtenIndexParts = parts;
+        unversionedShards = 0;
+    }
+
+    /**
+     * Encodes the sensors into shards, each still missing its closing bracket.
+     *
+     * @return the shards, with null for shards without sensors, or null if a shard would overflow
+     */
+    private StringBuilder[] encode(Collection<Sensor> sensors, int shardCount) {
+        StringBuilder[] shards = new StringBuilder[shardCount];
+        StringWriter encoded = new StringWriter(128);
+        try {
+            for (Sensor sensor : sensors) {
+                encoded.getBuffer().setLength(0);
+                JsonWriter writer = new JsonWriter(encoded);
+                SensorCodec.writeJson(writer, sensor);
+                writer.flush();
+                CharSequence json = encoded.getBuffer();
+                if (json.length() + 2 > MAX_SHARD_LENGTH) {
+                    throw new IllegalArgumentException("Sensor " + sensor.getSensorId() + " is too large to store");
+                }
+                int i = shardOf(sensor, shardCount);
+                if (shards[i] == null) {
+                    shards[i] = new StringBuilder(json.length() + 2).append('[');
+                } else if (shards[i].length() + json.length() + 2 > MAX_SHARD_LENGTH) {
+                    //one character for the separator and one for the closing bracket
+                    return null;
+                } else {
+                    shards[i].append(',');
+                }
+                shards[i].append(json);
+            }
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to encode sensors", ioe);
+        }
+        return shards;
+    }
+
+    private static int shardOf(Sensor sensor, int shardCount) {
+        int h = sensor.getSensorId().hashCode();
+        return Math.floorMod(h ^ (h >>> 16), shardCount);
+    }
+
+    /**
+     * Reads the head and the index parts it names into the layout fields.
+     *
+     * @throws IllegalStateException if the head is unreadable or an index part is missing
+     */
+    private void readIndex(String head) {
+        int[] partVersions;
+        try {
+            int separator = head.indexOf(':');
+            generation = Integer.parseInt(head.substring(0, separator));
+            partVersions = parseVersions(head.substring(separator + 1));
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Unreadable sensor shard index: " + head, e);
+        }
+        String[] parts = new String[partVersions.length];
+        StringBuilder versions = new StringBuilder();
+        for (int p = 0; p < parts.length; p++) {
+            parts[p] = prefs.get(indexPartKey(p, partVersions[p]), null);
+            if (parts[p] == null) {
+                throw new IllegalStateException("Stored sensors are missing index part " + indexPartKey(p, partVersions[p]));
+            }
+            versions.append(p == 0 ? "" : ",").append(parts[p]);
+        }
+        try {
+            shardVersions = parseVersions(versions.toString());
+        } catch (RuntimeException e) {
+            throw new IllegalStateException("Unreadable sensor shard index: " + versions, e);
+        }
+        writtenShards = new String[shardVersions.length];
+        indexPartVersions = partVersions;
+        writtenIndexParts = parts;
+    }
+
+    private static int[] parseVersions(String versions) {
+        return Arrays.stream(versions.split(",")).mapToInt(Integer::parseInt).toArray();
+    }
+
+    private static String join(int[] versions, int from, int to) {
+        StringBuilder joined = new StringBuilder((to - from) * 3);
+        for (int i = from; i < to; i++) {
+            joined.append(i == from ? "" : ",").append(versions[i]);
+        }
+        return joined.toString();
+    }
+
+    private void readShard(String shard, Consumer<Sensor> sensorConsumer) {
+        try (JsonReader reader = new JsonReader(new StringReader(shard))) {
+            reader.beginArray();
+            while (reader.hasNext()) {
+                sensorConsumer.accept(SensorCodec.readJson(reader));
+            }
+            reader.endArray();
+        } catch (IOException ioe) {
+            throw new UncheckedIOException("Unable to decode stored sensors", ioe);
+        }
+    }
+
+    private String shardKey(int shard, int version) {
+        return keyPrefix + "_" + shard + "_" + version;
+    }
+
+    private String indexKey() {
+        return keyPrefix + "_INDEX";
+    }
+
+    private String indexPartKey(int part, int version) {
+        return keyPrefix + "_INDEX_" + part + "_" + version;
+    }
+
+    private String unversionedCountKey() {
+        return keyPrefix + "_SHARDS";
+    }
+}
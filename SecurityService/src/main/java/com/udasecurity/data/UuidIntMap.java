@@ -0,0 +1,167 @@
+package com.udasecurity.data;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+/**
+ * Open-addressing hash map from a UUID, given as its two 64-bit halves, to a non-negative int.
+ * Keys and values live in parallel primitive arrays, so an entry costs 20 bytes of heap instead
+ * of a boxed map node, key and value, and lookups never allocate.
+ *
+ * Not thread-safe; callers are expected to guard it with their own lock.
+ */
+public final class UuidIntMap {
+
+    public static final int NO_VALUE = -1;
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private long[] mostSigBits;
+    private long[] leastSigBits;
+    //value + 1, so that zero marks an empty slot
+    private int[] values;
+    private int size;
+    private int resizeAt;
+
+    public UuidIntMap() {
+        this(16);
+    }
+
+    public UuidIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(16, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int get(UUID id) {
+        return get(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * @return the value mapped to the id, or {@link #NO_VALUE} if there is none
+     */
+    public int get(long msb, long lsb) {
+        int mask = values.length - 1;
+        for (int i = indexFor(msb, lsb, mask); values[i] != 0; i = (i + 1) & mask) {
+            if (mostSigBits[i] == msb && leastSigBits[i] == lsb) {
+                return values[i] - 1;
+            }
+        }
+        return NO_VALUE;
+    }
+
+    public int put(UUID id, int value) {
+        return put(id.getMostSignificantBits(), id.getLeastSignificantBits(), value);
+    }
+
+    /**
+     * @return the value previously mapped to the id, or {@link #NO_VALUE} if there was none
+     */
+    public int put(long msb, long lsb, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must be non-negative: " + value);
+        }
+        int mask = values.length - 1;
+        int i = indexFor(msb, lsb, mask);
+        for (; values[i] != 0; i = (i + 1) & mask) {
+            if (mostSigBits[i] == msb && leastSigBits[i] == lsb) {
+                int previous = values[i] - 1;
+                values[i] = value + 1;
+                return previous;
+            }
+        }
+        mostSigBits[i] = msb;
+        leastSigBits[i] = lsb;
+        values[i] = value + 1;
+        if (++size > resizeAt) {
+            rehash(values.length << 1);
+        }
+        return NO_VALUE;
+    }
+
+    public int remove(UUID id) {
+        return remove(id.getMostSignificantBits(), id.getLeastSignificantBits());
+    }
+
+    /**
+     * @return the value that was mapped to the id, or {@link #NO_VALUE} if there was none
+     */
+    public int remove(long msb, long lsb) {
+        int mask = values.length - 1;
+        for (int i = indexFor(msb, lsb, mask); values[i] != 0; i = (i + 1) & mask) {
+            if (mostSigBits[i] == msb && leastSigBits[i] == lsb) {
+                int previous = values[i] - 1;
+                deleteSlot(i, mask);
+                size--;
+                return previous;
+            }
+        }
+        return NO_VALUE;
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    /**
+     * Backward-shift deletion: moves later entries of the same probe run into the freed slot so
+     * lookups never need tombstones.
+     */
+    private void deleteSlot(int free, int mask) {
+        int i = free;
+        while (true) {
+            i = (i + 1) & mask;
+            if (values[i] == 0) {
+                break;
+            }
+            int home = indexFor(mostSigBits[i], leastSigBits[i], mask);
+            //move the entry back only if its home slot is not between the free slot and its current slot
+            if (((i - home) & mask) >= ((i - free) & mask)) {
+                mostSigBits[free] = mostSigBits[i];
+                leastSigBits[free] = leastSigBits[i];
+                values[free] = values[i];
+                free = i;
+            }
+        }
+        values[free] = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldMsb = mostSigBits;
+        long[] oldLsb = leastSigBits;
+        int[] oldValues = values;
+        allocate(capacity);
+        int mask = capacity - 1;
+        for (int j = 0; j < oldValues.length; j++) {
+            if (oldValues[j] != 0) {
+                int i = indexFor(oldMsb[j], oldLsb[j], mask);
+                while (values[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                mostSigBits[i] = oldMsb[j];
+                leastSigBits[i] = oldLsb[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        mostSigBits = new long[capacity];
+        leastSigBits = new long[capacity];
+        values = new int[capacity];
+        resizeAt = (int) (capacity * LOAD_FACTOR);
+    }
+
+    private static int indexFor(long msb, long lsb, int mask) {
+        //murmur3 finalizer, random UUIDs are already well mixed but sequential test ids are not
+        long h = msb ^ Long.rotateLeft(lsb, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h & mask;
+    }
+}
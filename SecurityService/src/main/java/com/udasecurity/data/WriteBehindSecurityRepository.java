@@ -0,0 +1,365 @@
+package com.udasecurity.data;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decorator that makes any {@link SecurityRepository} write-behind. Mutations are applied to an
+ * in-memory copy of the state and return immediately; the delegate receives them later, in batches,
+ * from a background thread. Repeated writes to the same sensor or status are collapsed so the
+ * delegate only sees the latest value.
+ *
+ * A batch is written when the {@link FlushPolicy} delay elapses, when the number of pending writes
+ * reaches its limit, or when {@link #flush()} is called. If the delegate fails part way through a
+ * batch, the whole batch is queued again ahead of newer writes and retried on the next flush; the
+ * writes carry latest values, so handing the delegate some of them twice is harmless.
+ *
+ * Every instance registers its own shutdown hook to flush whatever is still pending when the JVM
+ * exits. {@link #close()} removes it again, so callers must close each instance they create;
+ * otherwise the hook keeps the instance and its delegate reachable until exit.
+ */
+public class WriteBehindSecurityRepository implements SecurityRepository, Flushable, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindSecurityRepository.class);
+
+    /**
+     * Describes when pending writes are handed to the delegate.
+     */
+    public static final class FlushPolicy {
+        public static final FlushPolicy DEFAULT = new FlushPolicy(100, TimeUnit.MILLISECONDS, 256);
+
+        private final long maxDelayMillis;
+        private final int maxPendingWrites;
+
+        /**
+         * @param maxDelay How long a write may stay pending
+         * @param unit Unit of maxDelay
+         * @param maxPendingWrites Number of distinct pending writes that triggers an early flush
+         */
+        public FlushPolicy(long maxDelay, TimeUnit unit, int maxPendingWrites) {
+            if (maxDelay <= 0 || maxPendingWrites <= 0) {
+                throw new IllegalArgumentException("Flush delay and pending write limit must be positive");
+            }
+            this.maxDelayMillis = unit.toMillis(maxDelay);
+            this.maxPendingWrites = maxPendingWrites;
+        }
+
+        public long getMaxDelayMillis() {
+            return maxDelayMillis;
+        }
+
+        public int getMaxPendingWrites() {
+            return maxPendingWrites;
+        }
+    }
+
+    private enum SensorWrite { ADD, UPDATE, REMOVE }
+
+    private record PendingSensorWrite(SensorWrite write, Sensor sensor) {
+    }
+
+    private final SecurityRepository delegate;
+    private final FlushPolicy flushPolicy;
+    private final ScheduledExecutorService flusher;
+    private final Thread shutdownHook = new Thread(this::flushQuietly, "security-write-behind-shutdown");
+
+    //in-memory view of the state, guarded by this
+    private final SensorStore sensors;
+    private AlarmStatus alarmStatus;
+    private ArmingStatus armingStatus;
+
+    //writes not yet handed to the delegate, guarded by this
+    private Map<UUID, PendingSensorWrite> pendingSensors = new LinkedHashMap<>();
+    //writes that must reach the delegate before a pending deactivateAllSensors, null if none is pending
+    private Map<UUID, PendingSensorWrite> pendingBeforeDeactivation;
+    private AlarmStatus pendingAlarmStatus;
+    private ArmingStatus pendingArmingStatus;
+    private boolean earlyFlushScheduled;
+
+    //serializes batches so the delegate sees them in order
+    private final Object flushLock = new Object();
+
+    public WriteBehindSecurityRepository(SecurityRepository delegate) {
+        this(delegate, FlushPolicy.DEFAULT);
+    }
+
+    public WriteBehindSecurityRepository(SecurityRepository delegate, FlushPolicy flushPolicy) {
+        this.delegate = delegate;
+        this.flushPolicy = flushPolicy;
+        this.sensors = new SensorStore(delegate.getSensors());
+        this.alarmStatus = delegate.getAlarmStatus();
+        this.armingStatus = delegate.getArmingStatus();
+
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "security-write-behind");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly,
+                flushPolicy.getMaxDelayMillis(), flushPolicy.getMaxDelayMillis(), TimeUnit.MILLISECONDS);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    @Override
+    public synchronized void addSensor(Sensor sensor) {
+        sensors.add(sensor);
+        recordSensorWrite(SensorWrite.ADD, sensor);
+    }
+
+    @Override
+    public synchronized void removeSensor(Sensor sensor) {
+        sensors.remove(sensor);
+        recordSensorWrite(SensorWrite.REMOVE, sensor);
+    }
+
+    @Override
+    public synchronized void updateSensor(Sensor sensor) {
+        sensors.update(sensor);
+        recordSensorWrite(SensorWrite.UPDATE, sensor);
+    }
+
+    /**
+     * Deactivates the sensors in memory straight away and hands the delegate a single
+     * deactivateAllSensors call, ordered after the sensor writes recorded before it.
+     */
+    @Override
+    public synchronized void deactivateAllSensors() {
+        sensors.deactivateAll();
+        if (pendingBeforeDeactivation == null) {
+            pendingBeforeDeactivation = pendingSensors;
+        } else {
+            //a second deactivation overrides the first, so everything before it can go ahead of it
+            merge(pendingBeforeDeactivation, pendingSensors);
+        }
+        pendingSensors = new LinkedHashMap<>();
+        onPendingWriteAdded();
+    }
+
+    @Override
+    public synchronized void setAlarmStatus(AlarmStatus alarmStatus) {
+        this.alarmStatus = alarmStatus;
+        boolean firstPendingWrite = pendingAlarmStatus == null;
+        pendingAlarmStatus = alarmStatus;
+        if (firstPendingWrite) {
+            onPendingWriteAdded();
+        }
+    }
+
+    @Override
+    public synchronized void setArmingStatus(ArmingStatus armingStatus) {
+        this.armingStatus = armingStatus;
+        boolean firstPendingWrite = pendingArmingStatus == null;
+        pendingArmingStatus = armingStatus;
+        if (firstPendingWrite) {
+            onPendingWriteAdded();
+        }
+    }
+
+    @Override
+    public synchronized Set<Sensor> getSensors() {
+        return sensors.sorted();
+    }
+
+    @Override
+    public synchronized AlarmStatus getAlarmStatus() {
+        return alarmStatus;
+    }
+
+    @Override
+    public synchronized ArmingStatus getArmingStatus() {
+        return armingStatus;
+    }
+
+    @Override
+    public synchronized Optional<Sensor> findById(UUID sensorId) {
+        return sensors.findById(sensorId);
+    }
+
+    @Override
+    public synchronized Set<Sensor> findByType(SensorType sensorType) {
+        return Set.copyOf(sensors.findByType(sensorType));
+    }
+
+    @Override
+    public synchronized Set<Sensor> findActive() {
+        return Set.copyOf(sensors.findActive());
+    }
+
+    @Override
+    public synchronized int getActiveSensorCount() {
+        return sensors.activeCount();
+    }
+
+    @Override
+    public synchronized int getActiveSensorCount(SensorType sensorType) {
+        return sensors.activeCount(sensorType);
+    }
+
+    /**
+     * Hands every pending write to the delegate and flushes the delegate if it buffers writes itself.
+     */
+    @Override
+    public void flush() {
+        synchronized (flushLock) {
+            Map<UUID, PendingSensorWrite> sensorWrites;
+            Map<UUID, PendingSensorWrite> beforeDeactivation;
+            AlarmStatus alarm;
+            ArmingStatus arming;
+            synchronized (this) {
+                sensorWrites = pendingSensors;
+                beforeDeactivation = pendingBeforeDeactivation;
+                alarm = pendingAlarmStatus;
+                arming = pendingArmingStatus;
+                pendingSensors = new LinkedHashMap<>();
+                pendingBeforeDeactivation = null;
+                pendingAlarmStatus = null;
+                pendingArmingStatus = null;
+                earlyFlushScheduled = false;
+            }
+            if (sensorWrites.isEmpty() && beforeDeactivation == null && alarm == null && arming == null) {
+                return;
+            }
+
+            try {
+                if (beforeDeactivation != null) {
+                    writeSensors(beforeDeactivation);
+                    delegate.deactivateAllSensors();
+                }
+                writeSensors(sensorWrites);
+                if (arming != null) {
+                    delegate.setArmingStatus(arming);
+                }
+                if (alarm != null) {
+                    delegate.setAlarmStatus(alarm);
+                }
+            } catch (RuntimeException e) {
+                requeue(sensorWrites, beforeDeactivation, alarm, arming);
+                throw e;
+            }
+            if (delegate instanceof Flushable flushable) {
+                try {
+                    flushable.flush();
+                } catch (IOException ioe) {
+                    log.error("Unable to flush delegate repository", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flusher, writes anything still pending and closes the delegate if it
+     * holds resources of its own.
+     */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException alreadyShuttingDown) {
+            //the hook is running or about to run, nothing left to remove
+        }
+        flush();
+        if (delegate instanceof Closeable closeable) {
+            closeable.close();
+        }
+    }
+
+    /**
+     * Puts a batch the delegate failed to take back in front of the writes recorded since it was
+     * taken, collapsing them as if they had never left.
+     */
+    private synchronized void requeue(Map<UUID, PendingSensorWrite> sensorWrites,
+                                      Map<UUID, PendingSensorWrite> beforeDeactivation,
+                                      AlarmStatus alarm, ArmingStatus arming) {
+        if (pendingBeforeDeactivation != null) {
+            //a newer deactivation overrides the failed one, so the whole failed batch goes ahead of it
+            Map<UUID, PendingSensorWrite> merged = beforeDeactivation == null ? new LinkedHashMap<>() : beforeDeactivation;
+            pendingBeforeDeactivation = merge(merge(merged, sensorWrites), pendingBeforeDeactivation);
+        } else {
+            pendingBeforeDeactivation = beforeDeactivation;
+            pendingSensors = merge(sensorWrites, pendingSensors);
+        }
+        if (pendingAlarmStatus == null) {
+            pendingAlarmStatus = alarm;
+        }
+        if (pendingArmingStatus == null) {
+            pendingArmingStatus = arming;
+        }
+    }
+
+    private static Map<UUID, PendingSensorWrite> merge(Map<UUID, PendingSensorWrite> older,
+                                                       Map<UUID, PendingSensorWrite> newer) {
+        newer.values().forEach(pending -> collapse(older, pending.write(), pending.sensor()));
+        return older;
+    }
+
+    private void writeSensors(Map<UUID, PendingSensorWrite> sensorWrites) {
+        //each sensor has at most one write, so updates can be handed over together
+        List<Sensor> updates = new ArrayList<>();
+        sensorWrites.values().forEach(pending -> {
+            switch (pending.write()) {
+                case ADD -> delegate.addSensor(pending.sensor());
+                case UPDATE -> updates.add(pending.sensor());
+                case REMOVE -> delegate.removeSensor(pending.sensor());
+            }
+        });
+        if (!updates.isEmpty()) {
+            delegate.updateSensors(updates);
+        }
+    }
+
+    private void recordSensorWrite(SensorWrite write, Sensor sensor) {
+        if (collapse(pendingSensors, write, sensor)) {
+            onPendingWriteAdded();
+        }
+    }
+
+    /**
+     * Collapses the write with any pending write for the same sensor, so the delegate sees at most
+     * one write per sensor per batch.
+     *
+     * @return true if the sensor had no pending write yet
+     */
+    private static boolean collapse(Map<UUID, PendingSensorWrite> writes, SensorWrite write, Sensor sensor) {
+        PendingSensorWrite previous = writes.get(sensor.getSensorId());
+        SensorWrite collapsed = write;
+        if (previous != null && write != SensorWrite.REMOVE) {
+            //a pending add stays an add, otherwise the delegate already knows the sensor and gets the latest copy
+            collapsed = previous.write() == SensorWrite.ADD ? SensorWrite.ADD : SensorWrite.UPDATE;
+        }
+        writes.put(sensor.getSensorId(), new PendingSensorWrite(collapsed, sensor));
+        return previous == null;
+    }
+
+    private void onPendingWriteAdded() {
+        int pendingWrites = pendingSensors.size()
+                + (pendingBeforeDeactivation == null ? 0 : pendingBeforeDeactivation.size() + 1)
+                + (pendingAlarmStatus == null ? 0 : 1)
+                + (pendingArmingStatus == null ? 0 : 1);
+        if (pendingWrites >= flushPolicy.getMaxPendingWrites() && !earlyFlushScheduled) {
+            earlyFlushScheduled = true;
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException closed) {
+                earlyFlushScheduled = false;
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            log.error("Write-behind flush failed", e);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.udasecurity.ingest;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Layout of the fixed-size binary sensor frame read by {@link SensorFrameServer}. All fields are
+ * big-endian:
+ * <pre>
+ *  0  long  sensor id, most significant bits
+ *  8  long  sensor id, least significant bits
+ * 16  byte  1 if the sensor is active, 0 if not
+ * 17  long  sequence number, counting up per sensor
+ * 25  long  timestamp, milliseconds since the epoch
+ * </pre>
+ * Frames follow each other on the connection with no delimiters and are not acknowledged. The
+ * sensor's type is whatever it was registered with, so frames do not carry it.
+ */
+public final class SensorFrame {
+
+    public static final int BYTES = 33;
+    public static final int SEQUENCE_OFFSET = 17;
+    public static final int TIMESTAMP_OFFSET = 25;
+
+    private SensorFrame() {
+    }
+
+    /**
+     * Writes one frame at the buffer's position, advancing it.
+     */
+    public static void put(ByteBuffer buffer, long mostSigBits, long leastSigBits, boolean active,
+                           long sequence, long timestamp) {
+        buffer.putLong(mostSigBits)
+                .putLong(leastSigBits)
+                .put(active ? (byte) 1 : (byte) 0)
+                .putLong(sequence)
+                .putLong(timestamp);
+    }
+}
@@ -0,0 +1,133 @@
+package com.udasecurity.ingest;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for {@link SensorFrameServer}. Every connection, on its own virtual thread,
+ * streams frames for its share of the sensors, toggling each sensor on every frame and numbering
+ * the frames per sensor from the given first sequence number. Connection c reports the sensors
+ * whose index is c modulo the number of connections, or a single shared sensor if there are fewer
+ * sensors than connections, in which case the server drops most of the shared sensor's frames as
+ * out of order. Repeated runs against the same server need increasing first sequence numbers too.
+ *
+ * The frames are written a buffer at a time, and the client measures how fast it could hand them
+ * to the socket; the server applies them asynchronously.
+ *
+ * Usage: {@code SensorFrameLoadClient <host> <port> <connections> <framesPerConnection> <sensorId>...}
+ */
+public class SensorFrameLoadClient {
+
+    private static final int FRAMES_PER_WRITE = 512;
+
+    public record Result(int connections, int failedConnections, long frames, Duration elapsed) {
+        public double framesPerSecond() {
+            return frames * 1e9 / Math.max(1, elapsed.toNanos());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 5) {
+            System.err.println("Usage: SensorFrameLoadClient <host> <port> <connections> <framesPerConnection> <sensorId>...");
+            System.exit(1);
+        }
+        List<UUID> sensorIds = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            sensorIds.add(UUID.fromString(args[i]));
+        }
+        Result result = run(new InetSocketAddress(args[0], Integer.parseInt(args[1])),
+                Integer.parseInt(args[2]), Long.parseLong(args[3]), sensorIds,
+                System.currentTimeMillis() * 1000);
+        System.out.printf("%d connections (%d failed), %d frames in %d ms: %.0f frames/s%n",
+                result.connections(), result.failedConnections(), result.frames(),
+                result.elapsed().toMillis(), result.framesPerSecond());
+    }
+
+    /**
+     * Sends the frames and waits until every connection has written all of its frames.
+     *
+     * @param firstSequence Sequence number of each sensor's first frame
+     */
+    public static Result run(InetSocketAddress server, int connections, long framesPerConnection, List<UUID> sensorIds,
+                             long firstSequence) throws InterruptedException {
+        if (sensorIds.isEmpty()) {
+            throw new IllegalArgumentException("At least one sensor id is needed");
+        }
+        CountDownLatch connected = new CountDownLatch(connections);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failedConnections = new AtomicInteger();
+        AtomicLong frames = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>(connections);
+        Thread.Builder builder = Thread.ofVirtual().name("frame-load-", 0);
+        for (int c = 0; c < connections; c++) {
+            List<UUID> share = share(sensorIds, c, connections);
+            threads.add(builder.start(() -> {
+                boolean counted = false;
+                try (SocketChannel channel = SocketChannel.open(server)) {
+                    connected.countDown();
+                    counted = true;
+                    start.await();
+                    long[] sequences = new long[share.size()];
+                    Arrays.fill(sequences, firstSequence);
+                    ByteBuffer buffer = ByteBuffer.allocateDirect(SensorFrame.BYTES * FRAMES_PER_WRITE);
+                    for (long sent = 0; sent < framesPerConnection; ) {
+                        int count = (int) Math.min(FRAMES_PER_WRITE, framesPerConnection - sent);
+                        buffer.clear();
+                        long now = System.currentTimeMillis();
+                        for (int i = 0; i < count; i++) {
+                            int s = (int) ((sent + i) % share.size());
+                            UUID sensorId = share.get(s);
+                            long sequence = sequences[s]++;
+                            SensorFrame.put(buffer, sensorId.getMostSignificantBits(), sensorId.getLeastSignificantBits(),
+                                    sequence % 2 == 1, sequence, now);
+                        }
+                        buffer.flip();
+                        while (buffer.hasRemaining()) {
+                            channel.write(buffer);
+                        }
+                        sent += count;
+                        frames.addAndGet(count);
+                    }
+                } catch (IOException e) {
+                    failedConnections.incrementAndGet();
+                    if (!counted) {
+                        connected.countDown();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        connected.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+        return new Result(connections, failedConnections.get(), frames.get(), elapsed);
+    }
+
+    private static List<UUID> share(List<UUID> sensorIds, int connection, int connections) {
+        if (sensorIds.size() < connections) {
+            return List.of(sensorIds.get(connection % sensorIds.size()));
+        }
+        List<UUID> share = new ArrayList<>();
+        for (int i = connection; i < sensorIds.size(); i += connections) {
+            share.add(sensorIds.get(i));
+        }
+        return share;
+    }
+}
@@ -0,0 +1,389 @@
+package com.udasecurity.ingest;
+
+import com.udasecurity.data.Sensor;
+import com.udasecurity.data.UuidIntMap;
+import com.udasecurity.service.SecurityService;
+import com.udasecurity.service.SensorSequenceTracker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Non-blocking server for high-rate sensor telemetry in the {@link SensorFrame} format. An acceptor
+ * thread hands connections round-robin to a few selector threads. Each selector thread reads
+ * whatever its readable connections have sent into pooled direct buffers, decodes the frames in
+ * place and, once per round of the selector, applies them to the {@link SecurityService} as a
+ * single batch.
+ *
+ * Nothing is allocated per frame. Every selector thread caches which ids belong to sensors in a
+ * primitive id map and drops the cache when sensors are added or removed through the service.
+ * The cached sensors only identify the reported sensors: each batch is applied to the sensors as
+ * currently stored, so it sees changes made through the service or by other selector threads, even
+ * with repositories that hand out copies.
+ * A connection only holds on to a buffer while it has a partial frame in it; otherwise the buffer
+ * goes back to the pool, so idle connections cost no buffer memory.
+ *
+ * The service checks each frame against its {@link SensorSequenceTracker} while the sensor is
+ * locked, so retried and reordered frames are dropped before they reach the alarm rules, even when
+ * they arrive on connections served by different selector threads. Frames for unknown
+ * sensors are counted and skipped. A frame with an invalid active byte
+ * means the stream is out of step, so the connection is closed.
+ */
+public class SensorFrameServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorFrameServer.class);
+
+    private static final int BUFFER_BYTES = SensorFrame.BYTES * 512;
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final int MAX_READS_PER_SELECT = 16;
+    private static final int MAX_BATCH = 4096;
+    //ids that turned out to be unknown are remembered too, up to this many cached ids in total
+    private static final int MAX_CACHED_SENSORS = 1 << 16;
+
+    private final SecurityService securityService;
+    private final ServerSocketChannel serverChannel;
+    private final FrameReader[] readers;
+    private final Thread[] readerThreads;
+    private final Thread acceptor;
+    private final AtomicLong frames = new AtomicLong();
+    private final AtomicLong unknownSensorFrames = new AtomicLong();
+    private final AtomicLong rejectedConnections = new AtomicLong();
+    private volatile boolean closed;
+
+    public SensorFrameServer(SecurityService securityService, InetSocketAddress bindAddress) throws IOException {
+        this(securityService, bindAddress, Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    }
+
+    /**
+     * Binds the server and starts accepting connections.
+     *
+     * @param securityService Service the sensor reports are applied to
+     * @param bindAddress Address to listen on; port 0 picks a free port
+     * @param selectorThreads Number of threads reading connections
+     */
+    public SensorFrameServer(SecurityService securityService, InetSocketAddress bindAddress, int selectorThreads) throws IOException {
+        if (selectorThreads <= 0) {
+            throw new IllegalArgumentException("At least one selector thread is needed");
+        }
+        this.securityService = securityService;
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(bindAddress, 4096);
+        this.readers = new FrameReader[selectorThreads];
+        this.readerThreads = new Thread[selectorThreads];
+        for (int i = 0; i < selectorThreads; i++) {
+            readers[i] = new FrameReader(Selector.open());
+            readerThreads[i] = Thread.ofPlatform().name("sensor-frame-reader-" + i).daemon().start(readers[i]);
+        }
+        this.acceptor = Thread.ofPlatform().name("sensor-frame-acceptor").daemon().start(this::acceptConnections);
+    }
+
+    public int getPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /**
+     * @return number of frames applied to the service, not counting dropped ones
+     */
+    public long getFrameCount() {
+        return frames.get();
+    }
+
+    public long getUnknownSensorFrameCount() {
+        return unknownSensorFrames.get();
+    }
+
+    /**
+     * @return number of connections closed because they sent a malformed frame
+     */
+    public long getRejectedConnectionCount() {
+        return rejectedConnections.get();
+    }
+
+    /**
+     * Stops accepting connections, applies the frames already read and closes every connection.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        serverChannel.close();
+        for (FrameReader reader : readers) {
+            reader.selector.wakeup();
+        }
+        try {
+            acceptor.join();
+            for (Thread readerThread : readerThreads) {
+                readerThread.join();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        int next = 0;
+        while (!closed) {
+            try {
+                SocketChannel channel = serverChannel.accept();
+                channel.configureBlocking(false);
+                FrameReader reader = readers[next];
+                next = (next + 1) % readers.length;
+                reader.accepted.add(channel);
+                reader.selector.wakeup();
+            } catch (ClosedChannelException e) {
+                //closed by close()
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Unable to accept sensor frame connection", e);
+                }
+            }
+        }
+    }
+
+    private static final class Connection {
+        private final SocketChannel channel;
+        //only set while a partial frame is waiting for the rest of its bytes
+        private ByteBuffer buffer;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private static class MalformedFrameException extends IOException {
+        MalformedFrameException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One selector thread. Everything in here apart from the queue of accepted connections is only
+     * touched by that thread.
+     */
+    private final class FrameReader implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> accepted = new ConcurrentLinkedQueue<>();
+        private final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+        private final Consumer<SelectionKey> onReadable = this::read;
+
+        //sensor cache: id -> slot, slot -> sensor identifying the id (null if unknown to the service)
+        private final UuidIntMap slots = new UuidIntMap(1024);
+        private Sensor[] sensorsBySlot = new Sensor[1024];
+        //batch in which each slot's sensor was last added to distinctSensors
+        private int[] batchBySlot = new int[1024];
+        private int cachedVersion;
+
+        private final Sensor[] reportedSensors = new Sensor[MAX_BATCH];
+        private final boolean[] reportedActive = new boolean[MAX_BATCH];
+        private final long[] reportedSequences = new long[MAX_BATCH];
+        private final List<Sensor> distinctSensors = new ArrayList<>();
+        private int reports;
+        private int batch = 1;
+
+        private FrameReader(Selector selector) {
+            this.selector = selector;
+            this.cachedVersion = securityService.getSensorsVersion();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (!closed) {
+                    selector.select(onReadable);
+                    applyBatch();
+                    registerAccepted();
+                }
+            } catch (IOException e) {
+                log.error("Sensor frame selector failed", e);
+            } finally {
+                shutDown();
+            }
+        }
+
+        private void registerAccepted() {
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+                } catch (IOException e) {
+                    log.warn("Unable to register sensor frame connection", e);
+                    closeQuietly(channel);
+                }
+            }
+        }
+
+        private void read(SelectionKey key) {
+            Connection connection = (Connection) key.attachment();
+            ByteBuffer buffer = connection.buffer != null ? connection.buffer : acquireBuffer();
+            try {
+                int read;
+                int rounds = 0;
+                //a bounded number of reads, so one busy connection cannot starve the others
+                while ((read = connection.channel.read(buffer)) > 0) {
+                    buffer.flip();
+                    decode(buffer);
+                    buffer.compact();
+                    if (++rounds == MAX_READS_PER_SELECT) {
+                        break;
+                    }
+                }
+                if (read < 0) {
+                    close(key, connection);
+                }
+            } catch (MalformedFrameException e) {
+                rejectedConnections.incrementAndGet();
+                log.warn("Closing sensor frame connection {}: {}", remoteAddress(connection), e.getMessage());
+                close(key, connection);
+            } catch (IOException e) {
+                close(key, connection);
+            }
+            if (buffer.position() == 0 || !key.isValid()) {
+                releaseBuffer(buffer);
+                connection.buffer = null;
+            } else {
+                connection.buffer = buffer;
+            }
+        }
+
+        private void decode(ByteBuffer buffer) throws MalformedFrameException {
+            refreshSensorCache();
+            while (buffer.remaining() >= SensorFrame.BYTES) {
+                long mostSigBits = buffer.getLong();
+                long leastSigBits = buffer.getLong();
+                int active = buffer.get();
+                long sequence = buffer.getLong();
+                buffer.getLong(); //timestamp
+                if ((active & ~1) != 0) {
+                    throw new MalformedFrameException("Invalid frame for sensor " + new UUID(mostSigBits, leastSigBits));
+                }
+                int slot = slot(mostSigBits, leastSigBits);
+                Sensor sensor = sensorsBySlot[slot];
+                if (sensor == null) {
+                    unknownSensorFrames.incrementAndGet();
+                    continue;
+                }
+                if (batchBySlot[slot] != batch) {
+                    batchBySlot[slot] = batch;
+                    distinctSensors.add(sensor);
+                }
+                reportedSensors[reports] = sensor;
+                reportedActive[reports] = active == 1;
+                reportedSequences[reports] = sequence;
+                if (++reports == MAX_BATCH) {
+                    applyBatch();
+                }
+            }
+        }
+
+        private void applyBatch() {
+            if (reports == 0) {
+                return;
+            }
+            try {
+                frames.addAndGet(securityService.changeSensorActivationStatus(
+                        reportedSensors, reportedActive, reportedSequences, reports, distinctSensors));
+            } catch (RuntimeException e) {
+                log.error("Unable to apply {} sensor frames", reports, e);
+            }
+            Arrays.fill(reportedSensors, 0, reports, null);
+            distinctSensors.clear();
+            reports = 0;
+            batch++;
+        }
+
+        /**
+         * Starts over with an empty cache if sensors were added or removed since it was filled.
+         */
+        private void refreshSensorCache() {
+            int version = securityService.getSensorsVersion();
+            if (version != cachedVersion || slots.size() >= MAX_CACHED_SENSORS) {
+                //the reports gathered so far refer to the old sensors
+                applyBatch();
+                slots.clear();
+                Arrays.fill(sensorsBySlot, null);
+                cachedVersion = version;
+            }
+        }
+
+        private int slot(long mostSigBits, long leastSigBits) {
+            int slot = slots.get(mostSigBits, leastSigBits);
+            if (slot != UuidIntMap.NO_VALUE) {
+                return slot;
+            }
+            slot = slots.size();
+            if (slot == sensorsBySlot.length) {
+                sensorsBySlot = Arrays.copyOf(sensorsBySlot, slot * 2);
+                batchBySlot = Arrays.copyOf(batchBySlot, slot * 2);
+            }
+            sensorsBySlot[slot] = securityService.findSensor(new UUID(mostSigBits, leastSigBits)).orElse(null);
+            batchBySlot[slot] = 0;
+            slots.put(mostSigBits, leastSigBits, slot);
+            return slot;
+        }
+
+        private ByteBuffer acquireBuffer() {
+            ByteBuffer buffer = bufferPool.poll();
+            return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_BYTES);
+        }
+
+        private void releaseBuffer(ByteBuffer buffer) {
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                buffer.clear();
+                bufferPool.push(buffer);
+            }
+        }
+
+        private void close(SelectionKey key, Connection connection) {
+            key.cancel();
+            closeQuietly(connection.channel);
+        }
+
+        private void shutDown() {
+            applyBatch();
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key.channel());
+            }
+            SocketChannel channel;
+            while ((channel = accepted.poll()) != null) {
+                closeQuietly(channel);
+            }
+            closeQuietly(selector);
+        }
+    }
+
+    private static Object remoteAddress(Connection connection) {
+        try {
+            return connection.channel.getRemoteAddress();
+        } catch (IOException e) {
+            return "unknown";
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            log.debug("Unable to close {}", closeable, e);
+        }
+    }
+}
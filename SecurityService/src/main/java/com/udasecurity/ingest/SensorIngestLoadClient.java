@@ -0,0 +1,126 @@
+package com.udasecurity.ingest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator for {@link SensorIngestServer}. Opens the requested number of controller
+ * connections, one virtual thread each, waits until all of them are connected, and then has every
+ * connection send its commands in pipelined windows. Given sensor ids it toggles those sensors;
+ * without any it sends PINGs.
+ *
+ * Usage: {@code SensorIngestLoadClient <host> <port> <connections> <commandsPerConnection> [sensorId...]}
+ */
+public class SensorIngestLoadClient {
+
+    //commands sent before reading their replies; small enough that neither side's buffers fill up
+    private static final int WINDOW = 64;
+
+    public record Result(int connections, int failedConnections, long commands, long errors, Duration elapsed) {
+        public double commandsPerSecond() {
+            return commands * 1e9 / Math.max(1, elapsed.toNanos());
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        if (args.length < 4) {
+            System.err.println("Usage: SensorIngestLoadClient <host> <port> <connections> <commandsPerConnection> [sensorId...]");
+            System.exit(1);
+        }
+        List<UUID> sensorIds = new ArrayList<>();
+        for (int i = 4; i < args.length; i++) {
+            sensorIds.add(UUID.fromString(args[i]));
+        }
+        Result result = run(new InetSocketAddress(args[0], Integer.parseInt(args[1])),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), sensorIds);
+        System.out.printf("%d connections (%d failed), %d commands, %d errors in %d ms: %.0f commands/s%n",
+                result.connections(), result.failedConnections(), result.commands(), result.errors(),
+                result.elapsed().toMillis(), result.commandsPerSecond());
+    }
+
+    /**
+     * Runs the load and waits for every connection to finish.
+     */
+    public static Result run(InetSocketAddress server, int connections, int commandsPerConnection, List<UUID> sensorIds)
+            throws InterruptedException {
+        CountDownLatch connected = new CountDownLatch(connections);
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicInteger failedConnections = new AtomicInteger();
+        AtomicLong commands = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+
+        List<Thread> threads = new ArrayList<>(connections);
+        Thread.Builder builder = Thread.ofVirtual().name("ingest-load-", 0);
+        for (int c = 0; c < connections; c++) {
+            int connection = c;
+            threads.add(builder.start(() -> {
+                boolean counted = false;
+                try (Socket socket = new Socket()) {
+                    socket.connect(server);
+                    socket.setTcpNoDelay(true);
+                    connected.countDown();
+                    counted = true;
+                    start.await();
+                    BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.US_ASCII), 4096);
+                    BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII), 512);
+                    for (int sent = 0; sent < commandsPerConnection; ) {
+                        int window = Math.min(WINDOW, commandsPerConnection - sent);
+                        for (int i = 0; i < window; i++) {
+                            out.write(command(sensorIds, connection, sent + i));
+                        }
+                        out.flush();
+                        for (int i = 0; i < window; i++) {
+                            String reply = in.readLine();
+                            if (reply == null) {
+                                throw new IOException("Server closed the connection");
+                            }
+                            if (!reply.equals("OK")) {
+                                errors.incrementAndGet();
+                            }
+                        }
+                        sent += window;
+                        commands.addAndGet(window);
+                    }
+                } catch (IOException e) {
+                    failedConnections.incrementAndGet();
+                    if (!counted) {
+                        connected.countDown();
+                    }
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+        }
+
+        //every connection is open before any command is sent, so the server holds all of them at once
+        connected.await();
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startTime);
+        return new Result(connections, failedConnections.get(), commands.get(), errors.get(), elapsed);
+    }
+
+    private static String command(List<UUID> sensorIds, int connection, int index) {
+        if (sensorIds.isEmpty()) {
+            return "PING\n";
+        }
+        UUID sensorId = sensorIds.get((connection + index) % sensorIds.size());
+        return "SENSOR " + sensorId + (index % 2 == 0 ? " ACTIVE\n" : " INACTIVE\n");
+    }
+}
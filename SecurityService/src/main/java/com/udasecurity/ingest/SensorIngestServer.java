@@ -0,0 +1,374 @@
+package com.udasecurity.ingest;
+
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.Sensor;
+import com.udasecurity.service.SecurityService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Embedded server through which controllers on the LAN push events into a {@link SecurityService}.
+ * Every connection is served by its own virtual thread with plain blocking IO, so tens of thousands
+ * of mostly idle controller connections cost little more than their socket buffers.
+ *
+ * The protocol is line based ASCII. Each command is answered with {@code OK} or
+ * {@code ERR <reason>}, in order, so controllers may pipeline commands; replies are flushed
+ * whenever the server has caught up with the input.
+ * <pre>
+ * SENSOR &lt;sensor id&gt; ACTIVE|INACTIVE [sequence]
+ * ARM DISARMED|ARMED_HOME|ARMED_AWAY
+ * IMAGE &lt;base64 encoded image file&gt; [camera id]   (answered when queued for analysis)
+ * AUTH &lt;shared secret&gt;
+ * PING
+ * </pre>
+ * The server trusts whoever can reach it unless it is given a shared secret. With a secret, a
+ * connection must send a matching AUTH command first; until then every command but PING is
+ * answered with {@code ERR Not authenticated}. A wrong secret is answered and the connection
+ * closed, so secrets cannot be guessed at line rate. Listen on loopback only unless a secret is set.
+ *
+ * Lines are limited to {@link #MAX_LINE_LENGTH} characters. Lines longer than a short command
+ * additionally draw on a budget shared by all connections until their command has been handled, so
+ * the memory many connections sending images at once hold stays within a small multiple of the
+ * budget. A connection whose line would exceed the budget is closed.
+ * An IMAGE command with a camera id is only classified if the scene changed since that camera's
+ * last classified image; see {@link com.udasecurity.service.MotionGate}.
+ * A SENSOR command with a sequence number that is not higher than the last one accepted for the
+ * sensor is a retry or arrived late. It is answered with OK but otherwise ignored.
+ */
+public class SensorIngestServer implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SensorIngestServer.class);
+
+    //a base64 encoded camera frame of up to 768 KB
+    public static final int MAX_LINE_LENGTH = 1024 * 1024;
+    //characters buffered for long lines across all connections
+    public static final long DEFAULT_MAX_BUFFERED_CHARS = 64L * 1024 * 1024;
+    //lines up to this length are buffered without drawing on the shared budget
+    private static final int UNBUDGETED_LINE_LENGTH = 4096;
+    //budget is reserved in chunks of this many characters
+    private static final int BUDGET_CHUNK = 64 * 1024;
+    private static final int DEFAULT_BACKLOG = 4096;
+    private static final byte[] OK = "OK\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] BUSY = "ERR Image analysis is busy\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_AUTHENTICATED = "ERR Not authenticated\n".getBytes(StandardCharsets.US_ASCII);
+
+    private final SecurityService securityService;
+    private final ServerSocket serverSocket;
+    private final byte[] secret;
+    private final long maxBufferedChars;
+    private final AtomicLong bufferedChars = new AtomicLong();
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final AtomicLong commands = new AtomicLong();
+    private final Thread acceptor;
+    private volatile boolean closed;
+
+    /**
+     * Binds a server that accepts commands from any connection.
+     *
+     * @param securityService Service the events are fed to
+     * @param bindAddress Address to listen on; port 0 picks a free port
+     */
+    public SensorIngestServer(SecurityService securityService, InetSocketAddress bindAddress) throws IOException {
+        this(securityService, bindAddress, null, DEFAULT_MAX_BUFFERED_CHARS);
+    }
+
+    /**
+     * Binds the server and starts accepting connections.
+     *
+     * @param securityService Service the events are fed to
+     * @param bindAddress Address to listen on; port 0 picks a free port
+     * @param secret Secret connections must send with AUTH before other commands, or null to
+     *               accept commands from any connection
+     * @param maxBufferedChars Characters all connections together may buffer for long lines
+     */
+    public SensorIngestServer(SecurityService securityService, InetSocketAddress bindAddress, String secret,
+                              long maxBufferedChars) throws IOException {
+        this.securityService = securityService;
+        this.secret = secret == null ? null : secret.getBytes(StandardCharsets.UTF_8);
+        this.maxBufferedChars = maxBufferedChars;
+        this.serverSocket = new ServerSocket();
+        serverSocket.bind(bindAddress, DEFAULT_BACKLOG);
+        this.acceptor = Thread.ofPlatform().name("sensor-ingest-acceptor").daemon().start(this::acceptConnections);
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public int getConnectionCount() {
+        return connections.size();
+    }
+
+    /**
+     * @return number of commands handled since the server started, including rejected ones
+     */
+    public long getCommandCount() {
+        return commands.get();
+    }
+
+    /**
+     * @return characters currently buffered for long lines, across all connections
+     */
+    public long getBufferedChars() {
+        return bufferedChars.get();
+    }
+
+    /**
+     * Stops accepting connections and closes the open ones.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        serverSocket.close();
+        for (Socket connection : connections) {
+            closeQuietly(connection);
+        }
+        try {
+            acceptor.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void acceptConnections() {
+        Thread.Builder connectionThreads = Thread.ofVirtual().name("sensor-ingest-", 0);
+        while (!closed) {
+            try {
+                Socket connection = serverSocket.accept();
+                connections.add(connection);
+                if (closed) {
+                    //close() may already have gone through the connections
+                    connections.remove(connection);
+                    closeQuietly(connection);
+                    break;
+                }
+                connectionThreads.start(() -> serve(connection));
+            } catch (IOException e) {
+                if (!closed) {
+                    log.error("Unable to accept controller connection", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket connection) {
+        Session session = new Session(secret == null);
+        try (connection) {
+            connection.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(connection.getInputStream(), 512);
+            OutputStream out = connection.getOutputStream();
+            while (readLine(in, session)) {
+                //the reservation also covers the copy of the line while the command is handled
+                out.write(handle(session.line.toString(), session));
+                release(session);
+                if (session.rejected) {
+                    out.flush();
+                    log.warn("Closing controller connection {} after a wrong secret", connection.getRemoteSocketAddress());
+                    break;
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+        } catch (LineTooLongException e) {
+            log.warn("Closing controller connection {}: {}", connection.getRemoteSocketAddress(), e.getMessage());
+        } catch (SocketException e) {
+            //closed by the controller or by close()
+        } catch (IOException e) {
+            log.warn("Controller connection {} failed", connection.getRemoteSocketAddress(), e);
+        } finally {
+            release(session);
+            connections.remove(connection);
+        }
+    }
+
+    /**
+     * Handles a command of an authenticated connection.
+     *
+     * @return the reply to the command
+     */
+    byte[] handle(String command) {
+        return handle(command, new Session(true));
+    }
+
+    private byte[] handle(String command, Session session) {
+        commands.incrementAndGet();
+        try {
+            String[] parts = command.split(" ", 4);
+            if (!session.authenticated && !parts[0].equals("AUTH") && !parts[0].equals("PING")) {
+                return NOT_AUTHENTICATED;
+            }
+            switch (parts[0]) {
+                case "SENSOR" -> {
+                    requireArguments(parts, 3);
+                    UUID sensorId = UUID.fromString(parts[1]);
+                    Sensor sensor = securityService.findSensor(sensorId)
+                            .orElseThrow(() -> new IllegalArgumentException("Unknown sensor " + sensorId));
+                    boolean active = parseActive(parts[2]);
+                    if (parts.length == 4) {
+                        securityService.changeSensorActivationStatus(sensor, active, Long.parseLong(parts[3]));
+                    } else {
+                        securityService.changeSensorActivationStatus(sensor, active);
+                    }
+                }
+                case "ARM" -> {
+                    requireArguments(parts, 2);
+                    securityService.setArmingStatus(ArmingStatus.valueOf(parts[1]));
+                }
+                case "IMAGE" -> {
+                    requireArguments(parts, 2);
+                    BufferedImage image = ImageIO.read(new ByteArrayInputStream(Base64.getDecoder().decode(parts[1])));
+                    if (image == null) {
+                        throw new IllegalArgumentException("Unreadable image");
+                    }
+                    //answered once the analysis is queued, so the connection never waits for a classifier
+                    String cameraId = parts.length > 2 ? parts[2] : null;
+                    CompletableFuture<Boolean> analysis = securityService.processImageAsync(cameraId, image);
+                    if (analysis.isCompletedExceptionally()) {
+                        return BUSY;
+                    }
+                }
+                case "AUTH" -> {
+                    requireArguments(parts, 2);
+                    if (secret != null) {
+                        //the whole line after the command, compared in constant time
+                        byte[] presented = command.substring("AUTH ".length()).getBytes(StandardCharsets.UTF_8);
+                        if (!MessageDigest.isEqual(secret, presented)) {
+                            session.rejected = true;
+                            throw new IllegalArgumentException("Wrong secret");
+                        }
+                        session.authenticated = true;
+                    }
+                }
+                case "PING" -> {
+                }
+                default -> throw new IllegalArgumentException("Unknown command " + parts[0]);
+            }
+            return OK;
+        } catch (IllegalArgumentException | IOException e) {
+            return ("ERR " + e.getMessage() + "\n").getBytes(StandardCharsets.US_ASCII);
+        } catch (RuntimeException e) {
+            log.error("Unable to handle controller command {}", command, e);
+            return ("ERR " + e + "\n").getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private static void requireArguments(String[] parts, int count) {
+        if (parts.length < count) {
+            throw new IllegalArgumentException(parts[0] + " needs " + (count - 1) + " argument(s)");
+        }
+    }
+
+    private static boolean parseActive(String value) {
+        return switch (value) {
+            case "ACTIVE" -> true;
+            case "INACTIVE" -> false;
+            default -> throw new IllegalArgumentException("Expected ACTIVE or INACTIVE but got " + value);
+        };
+    }
+
+    /**
+     * Reads the next line into the session's line, without its terminator. Characters beyond
+     * {@link #UNBUDGETED_LINE_LENGTH} are reserved from the shared budget until
+     * {@link #release(Session)}.
+     *
+     * @return false at the end of the stream
+     */
+    private boolean readLine(InputStream in, Session session) throws IOException {
+        StringBuilder line = session.line;
+        line.setLength(0);
+        int b;
+        while ((b = in.read()) != -1) {
+            if (b == '\n') {
+                if (!line.isEmpty() && line.charAt(line.length() - 1) == '\r') {
+                    line.setLength(line.length() - 1);
+                }
+                return true;
+            }
+            int length = line.length();
+            if (length == MAX_LINE_LENGTH) {
+                throw new LineTooLongException("Line longer than " + MAX_LINE_LENGTH + " characters");
+            }
+            if (length >= UNBUDGETED_LINE_LENGTH + session.reserved) {
+                reserve(session);
+            }
+            line.append((char) b);
+        }
+        return !line.isEmpty();
+    }
+
+    private void reserve(Session session) throws LineTooLongException {
+        long total = bufferedChars.addAndGet(BUDGET_CHUNK);
+        if (total > maxBufferedChars) {
+            bufferedChars.addAndGet(-BUDGET_CHUNK);
+            throw new LineTooLongException("Connections are buffering more than " + maxBufferedChars + " characters");
+        }
+        session.reserved += BUDGET_CHUNK;
+    }
+
+    /**
+     * Returns the session's reservation to the shared budget and drops the large line buffer
+     * along with it.
+     */
+    private void release(Session session) {
+        if (session.reserved > 0) {
+            bufferedChars.addAndGet(-session.reserved);
+            session.reserved = 0;
+            session.line = new StringBuilder(128);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.debug("Unable to close controller connection", e);
+        }
+    }
+
+    /**
+     * State of one controller connection.
+     */
+    private static final class Session {
+        private StringBuilder line = new StringBuilder(128);
+        //characters of the shared budget held by the line
+        private int reserved;
+        private boolean authenticated;
+        //set by a wrong secret; the connection is closed once the reply is sent
+        private boolean rejected;
+
+        private Session(boolean authenticated) {
+            this.authenticated = authenticated;
+        }
+    }
+
+    private static class LineTooLongException extends IOException {
+        LineTooLongException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.udasecurity.service;
+
+import com.udasecurity.service.image.BrightnessGrid;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides, per camera, whether a frame needs to be classified at all. Each frame is reduced to a
+ * small grid of average brightness and compared with the camera's last classified frame; if few
+ * enough cells changed, the scene is the same and that frame's result still holds. Most frames
+ * from a fixed camera show an unchanged scene, so the classifier only sees the ones in which
+ * something moved, plus one every now and then so that a wrong result does not stick.
+ *
+ * Comparing against the last classified frame rather than the previous one means that a slow
+ * change, spread over many frames that each differ only a little, is still noticed once it adds
+ * up. Checking a frame costs a few thousand pixel reads and never waits for a classification
+ * that is in progress, so a frame that did change is not held up.
+ */
+public class MotionGate {
+
+    /**
+     * @param enabled Whether frames of the camera are compared at all; if not, every frame is classified
+     * @param cellThreshold Change in average brightness, out of 255, for a cell to count as changed
+     * @param changedFraction Fraction of the cells that must change for the scene to count as changed
+     * @param maxReuse Longest time a result is reused before a frame is classified again regardless
+     */
+    public record Settings(boolean enabled, int cellThreshold, double changedFraction, Duration maxReuse) {
+        public static final Settings DEFAULT = new Settings(true, 16, 0.01, Duration.ofMinutes(1));
+        public static final Settings DISABLED = new Settings(false, 0, 0, Duration.ZERO);
+    }
+
+    private static final int COLUMNS = 32;
+    private static final int ROWS = 24;
+    private static final int SAMPLES_PER_CELL = 4;
+
+    private volatile Settings defaultSettings = Settings.DEFAULT;
+    private final Map<String, Settings> cameraSettings = new ConcurrentHashMap<>();
+    private final Map<String, Reference> references = new ConcurrentHashMap<>();
+    private final LongAdder skippedFrames = new LongAdder();
+    private final LongAdder classifiedFrames = new LongAdder();
+
+    /**
+     * Sets the settings of cameras that have none of their own.
+     */
+    public void setDefaultSettings(Settings settings) {
+        defaultSettings = settings;
+    }
+
+    public void configure(String cameraId, Settings settings) {
+        cameraSettings.put(cameraId, settings);
+        references.remove(cameraId);
+    }
+
+    public Settings getSettings(String cameraId) {
+        return cameraSettings.getOrDefault(cameraId, defaultSettings);
+    }
+
+    /**
+     * Forgets the camera's settings and last classified frame.
+     */
+    public void forget(String cameraId) {
+        cameraSettings.remove(cameraId);
+        references.remove(cameraId);
+    }
+
+    /**
+     * @return number of frames whose classification was skipped because the scene had not changed
+     */
+    public long getSkippedFrameCount() {
+        return skippedFrames.sum();
+    }
+
+    /**
+     * @return number of frames of gated cameras that were passed on to the classifier
+     */
+    public long getClassifiedFrameCount() {
+        return classifiedFrames.sum();
+    }
+
+    /**
+     * @return the brightness grid of the frame, or null if frames of the camera are not gated
+     */
+    byte[] luminance(String cameraId, BufferedImage image) {
+        return cameraId != null && getSettings(cameraId).enabled() ? luminance(image) : null;
+    }
+
+    /**
+     * @return the result of the camera's last classified frame if the scene has not changed
+     * since, or null if this frame needs to be classified
+     */
+    Boolean unchangedResult(String cameraId, byte[] luminance) {
+        Settings settings = getSettings(cameraId);
+        Reference reference = references.get(cameraId);
+        if (reference == null || System.nanoTime() - reference.classifiedAt() > settings.maxReuse().toNanos()
+                || changed(reference.luminance(), luminance, settings)) {
+            classifiedFrames.increment();
+            return null;
+        }
+        skippedFrames.increment();
+        return reference.containsCat();
+    }
+
+    /**
+     * Makes the frame the one later frames of the camera are compared with.
+     */
+    void classified(String cameraId, byte[] luminance, boolean containsCat) {
+        references.put(cameraId, new Reference(luminance, containsCat, System.nanoTime()));
+    }
+
+    private static boolean changed(byte[] reference, byte[] luminance, Settings settings) {
+        int allowed = (int) (settings.changedFraction() * reference.length);
+        int changedCells = 0;
+        for (int i = 0; i < reference.length; i++) {
+            if (Math.abs((reference[i] & 0xff) - (luminance[i] & 0xff)) > settings.cellThreshold()
+                    && ++changedCells > allowed) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] luminance(BufferedImage image) {
+        int[] sums = BrightnessGrid.sums(image, COLUMNS, ROWS, SAMPLES_PER_CELL);
+        byte[] luminance = new byte[sums.length];
+        for (int i = 0; i < sums.length; i++) {
+            luminance[i] = (byte) (sums[i] / (SAMPLES_PER_CELL * SAMPLES_PER_CELL));
+        }
+        return luminance;
+    }
+
+    private record Reference(byte[] luminance, boolean containsCat, long classifiedAt) {
+    }
+}
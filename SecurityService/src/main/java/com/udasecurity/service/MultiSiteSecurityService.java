@@ -0,0 +1,101 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.MultiSiteSecurityRepository;
+import com.udasecurity.service.image.ImageService;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Hands out one {@link SecurityService} per site, each working on that site's partition of a
+ * {@link MultiSiteSecurityRepository}. Services of different sites share nothing but the image
+ * service and one image analysis executor, so they can be driven from different threads without
+ * contending and the number of analysis threads does not grow with the number of sites. Calls for
+ * the same site follow the threading rules of a single {@link SecurityService}.
+ */
+public class MultiSiteSecurityService implements Closeable {
+
+    private static final int IMAGE_ANALYSIS_THREADS = Math.max(2, Runtime.getRuntime().availableProcessors());
+    private static final int IMAGE_ANALYSIS_QUEUE = 16 * IMAGE_ANALYSIS_THREADS;
+
+    private final MultiSiteSecurityRepository repository;
+    private final ImageService imageService;
+    private final ExecutorService imageAnalysisExecutor;
+    private final boolean ownsImageAnalysisExecutor;
+    private final ConcurrentMap<String, SecurityService> services = new ConcurrentHashMap<>();
+
+    public MultiSiteSecurityService(MultiSiteSecurityRepository repository, ImageService imageService) {
+        this(repository, imageService, SecurityService.newImageAnalysisExecutor(IMAGE_ANALYSIS_THREADS, IMAGE_ANALYSIS_QUEUE), true);
+    }
+
+    /**
+     * @param imageAnalysisExecutor Executor shared by the services of all sites, which is left
+     *                              running when this service is closed
+     */
+    public MultiSiteSecurityService(MultiSiteSecurityRepository repository, ImageService imageService,
+                                    ExecutorService imageAnalysisExecutor) {
+        this(repository, imageService, imageAnalysisExecutor, false);
+    }
+
+    private MultiSiteSecurityService(MultiSiteSecurityRepository repository, ImageService imageService,
+                                     ExecutorService imageAnalysisExecutor, boolean ownsImageAnalysisExecutor) {
+        this.repository = repository;
+        this.imageService = imageService;
+        this.imageAnalysisExecutor = imageAnalysisExecutor;
+        this.ownsImageAnalysisExecutor = ownsImageAnalysisExecutor;
+    }
+
+    /**
+     * @return the service of the site, created together with the site's partition on first use
+     */
+    public SecurityService site(String siteId) {
+        SecurityService service = services.get(siteId);
+        return service != null
+                ? service
+                : services.computeIfAbsent(siteId, id -> new SecurityService(repository.site(id), imageService, imageAnalysisExecutor));
+    }
+
+    /**
+     * Closes and drops the site's service and drops its partition. All of it happens while the
+     * site's entry is locked, so a concurrent {@link #site(String)} for the same site either still
+     * gets the old service or starts over with a new partition; it never gets a new service over
+     * the partition being removed.
+     */
+    public void removeSite(String siteId) throws IOException {
+        try {
+            services.compute(siteId, (id, service) -> {
+                if (service != null) {
+                    service.close();
+                }
+                try {
+                    repository.removeSite(id);
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(ioe);
+                }
+                return null;
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    public int getSiteCount() {
+        return services.size();
+    }
+
+    /**
+     * Closes the services of all sites and stops the shared analysis threads, unless the executor
+     * was passed in. The repository is left open.
+     */
+    @Override
+    public void close() {
+        services.values().forEach(SecurityService::close);
+        if (ownsImageAnalysisExecutor) {
+            imageAnalysisExecutor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.Sensor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event-loop front end for a {@link SecurityService}. Any number of producer threads submit
+ * sensor changes, camera results and arming commands into a bounded queue, and a single thread
+ * drains them in batches. The loop applies every event of a batch to the service's state first,
+ * then stores the changed sensors and the resulting status, flushes the repository once, and
+ * runs one round of listener notifications. Under bursty traffic most events therefore cost only
+ * a state transition.
+ *
+ * Producers block while the queue is full, which pushes back on sources that outrun the loop.
+ * Classifying camera images is left to the producers; only the result is queued.
+ *
+ * Every event that {@link #submit} or {@link #offer} accepts is applied before the loop thread
+ * exits, including events that got in while {@link #close()} was stopping the loop. Once the loop
+ * is closed, producers are turned away, including those still waiting for space. Only an interrupt of
+ * the loop thread leaves queued events unapplied, and their number is logged.
+ */
+public class SecurityEventLoop implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SecurityEventLoop.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 4096;
+    public static final int DEFAULT_MAX_BATCH = 512;
+    //how often producers waiting for space, and close() waiting to queue the stop marker, check whether the loop is gone
+    private static final long CLOSED_CHECK_MILLIS = 100;
+
+    /**
+     * Something that happened to the security system, applied by the loop thread.
+     */
+    public interface SecurityEvent {
+    }
+
+    public record SensorChanged(Sensor sensor, boolean active) implements SecurityEvent {
+    }
+
+    public record ImageProcessed(boolean catDetected) implements SecurityEvent {
+    }
+
+    public record ArmingCommand(ArmingStatus armingStatus) implements SecurityEvent {
+    }
+
+    //queued by close() so the loop wakes up and exits once everything before it is applied
+    private record Stop() implements SecurityEvent {
+    }
+
+    private final SecurityService securityService;
+    private final BlockingQueue<SecurityEvent> events;
+    private final int maxBatch;
+    private final Thread loop;
+    private volatile boolean closed;
+
+    public SecurityEventLoop(SecurityService securityService) {
+        this(securityService, DEFAULT_QUEUE_CAPACITY, DEFAULT_MAX_BATCH);
+    }
+
+    /**
+     * @param securityService Service whose state the events are applied to
+     * @param queueCapacity Number of events that may wait before producers block
+     * @param maxBatch Largest number of events applied before publishing
+     */
+    public SecurityEventLoop(SecurityService securityService, int queueCapacity, int maxBatch) {
+        if (queueCapacity <= 0 || maxBatch <= 0) {
+            throw new IllegalArgumentException("Queue capacity and batch size must be positive");
+        }
+        this.securityService = securityService;
+        this.events = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatch = maxBatch;
+        this.loop = new Thread(this::run, "security-event-loop");
+        loop.setDaemon(true);
+        loop.start();
+    }
+
+    public void sensorChanged(Sensor sensor, boolean active) throws InterruptedException {
+        submit(new SensorChanged(sensor, active));
+    }
+
+    public void imageProcessed(boolean catDetected) throws InterruptedException {
+        submit(new ImageProcessed(catDetected));
+    }
+
+    public void setArmingStatus(ArmingStatus armingStatus) throws InterruptedException {
+        submit(new ArmingCommand(armingStatus));
+    }
+
+    /**
+     * Queues the event, waiting for space if the queue is full.
+     *
+     * @throws IllegalStateException if the loop has been closed, also while waiting for space
+     */
+    public void submit(SecurityEvent event) throws InterruptedException {
+        while (!closed) {
+            if (events.offer(event, CLOSED_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (withdrawnAfterClose(event)) {
+                    break;
+                }
+                return;
+            }
+        }
+        throw new IllegalStateException("Security event loop is closed");
+    }
+
+    /**
+     * Queues the event if there is space right now.
+     *
+     * @return false if the queue is full or the loop has been closed
+     */
+    public boolean offer(SecurityEvent event) {
+        return !closed && events.offer(event) && !withdrawnAfterClose(event);
+    }
+
+    /**
+     * Takes back an event queued while the loop was closing. If the loop already took it, it
+     * is applied like any other.
+     *
+     * @return true if the event was taken back and will not be applied
+     */
+    private boolean withdrawnAfterClose(SecurityEvent event) {
+        return closed && events.remove(event);
+    }
+
+    /**
+     * Applies every event submitted so far, then stops the loop thread.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            //the loop may be gone already, leaving a full queue nobody drains
+            boolean stopQueued = false;
+            while (!stopQueued && loop.isAlive()) {
+                stopQueued = events.offer(new Stop(), CLOSED_CHECK_MILLIS, TimeUnit.MILLISECONDS);
+            }
+            loop.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            loop.interrupt();
+        }
+    }
+
+    private void run() {
+        List<SecurityEvent> batch = new ArrayList<>(maxBatch);
+        try {
+            boolean running = true;
+            while (running) {
+                batch.add(events.take());
+                events.drainTo(batch, maxBatch - 1);
+                running = applyBatch(batch);
+                batch.clear();
+            }
+            //events that producers queued after the stop marker, before they saw the loop closed
+            while (events.drainTo(batch, maxBatch) > 0) {
+                applyBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException ie) {
+            if (!events.isEmpty()) {
+                log.warn("Security event loop interrupted with {} events still queued; they are not applied", events.size());
+            }
+        } finally {
+            closed = true;
+        }
+    }
+
+    /**
+     * @return false once the stop marker has been reached
+     */
+    private boolean applyBatch(List<SecurityEvent> batch) {
+        boolean running = true;
+        boolean sensorsChanged = false;
+        Boolean lastCat = null;
+        //stored together at the end of the batch, or before an event that reads the active sensor
+        //count; a sensor reported several times in between is stored once
+        Set<Sensor> changedSensors = new LinkedHashSet<>();
+        for (SecurityEvent event : batch) {
+            try {
+                switch (event) {
+                    case SensorChanged changed -> {
+                        securityService.applySensorTransition(changed.sensor(), changed.active());
+                        changedSensors.add(changed.sensor());
+                        sensorsChanged = true;
+                    }
+                    case ImageProcessed image -> {
+                        storeChangedSensors(changedSensors);
+                        securityService.applyImageResult(image.catDetected());
+                        lastCat = image.catDetected();
+                    }
+                    case ArmingCommand arming -> {
+                        storeChangedSensors(changedSensors);
+                        securityService.applyArmingStatus(arming.armingStatus());
+                        sensorsChanged = true;
+                    }
+                    case Stop stop -> running = false;
+                    default -> log.warn("Ignoring unknown security event {}", event);
+                }
+            } catch (RuntimeException e) {
+                log.error("Unable to apply security event {}", event, e);
+            }
+        }
+
+        try {
+            storeChangedSensors(changedSensors);
+            securityService.publish();
+            securityService.flushRepository();
+        } catch (IOException | RuntimeException e) {
+            log.error("Unable to persist a batch of {} security events", batch.size(), e);
+        }
+        if (lastCat != null) {
+            securityService.notifyCatDetected(lastCat);
+        }
+        if (sensorsChanged) {
+            securityService.notifySensorStatusChanged();
+        }
+        return running;
+    }
+
+    /**
+     * Stores the sensors changed so far in the batch. Camera results and arming commands decide on
+     * the repository's active sensor count, so the sensor changes queued before them are stored first.
+     */
+    private void storeChangedSensors(Set<Sensor> changedSensors) {
+        if (!changedSensors.isEmpty()) {
+            securityService.storeSensors(List.copyOf(changedSensors));
+            changedSensors.clear();
+        }
+    }
+}
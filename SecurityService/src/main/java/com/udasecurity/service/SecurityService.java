@@ -5,11 +5,31 @@ import com.udasecurity.data.AlarmStatus;
 import com.udasecurity.data.ArmingStatus;
 import com.udasecurity.data.SecurityRepository;
 import com.udasecurity.data.Sensor;
-import com.udasecurity.service.image.FakeImageService;
+import com.udasecurity.data.SensorType;
+import com.udasecurity.service.image.ImageService;
 
 import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.time.Duration;
 import java.util.*;
-import java.util.function.Consumer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntSupplier;
+import java.util.function.UnaryOperator;
 
 /**
  * Service that receives information about changes to the security system. Responsible for
@@ -17,18 +37,101 @@ import java.util.function.Consumer;
  *
  * This is the class that should contain most of the business logic for our system, and it is the
  * class you will be writing unit tests for.
+ *
+ * The service may be called from any number of threads. Alarm status, arming status and the last
+ * camera result are held together in one immutable {@link SecurityState} that every transition
+ * replaces with compare-and-set, so concurrent sensor events, image results and arming commands
+ * never lose each other's updates. A sensor report also depends on the sensor's previous
+ * activation, so reports for the same sensor are applied one at a time under a lock striped by
+ * sensor id; reports for different sensors still run in parallel. Arming commands and camera
+ * results depend on whether any sensor is active, so they exclude sensor reports while they are
+ * applied. The state is read from the repository on first use; afterwards the service is the
+ * source of truth and writes status changes back in the order they happened.
+ *
+ * Camera frames are numbered as they arrive. Analyses finish in any order, so the result of a
+ * frame is only applied if no later frame's result has been applied yet.
+ *
+ * Status changes reach {@link StatusListener}s synchronously, on the thread that made the change.
+ * Listeners that may be slow should subscribe to {@link #getStatusEvents()} instead, which
+ * delivers the same changes asynchronously with a bounded buffer per subscriber.
  */
-public class SecurityService {
+public class SecurityService implements Closeable {
 
-    private FakeImageService imageService;
+    public static final Duration DEFAULT_IMAGE_ANALYSIS_TIMEOUT = Duration.ofSeconds(10);
+    private static final int IMAGE_ANALYSIS_THREADS = 2;
+    private static final int IMAGE_ANALYSIS_QUEUE = 8;
+    private static final float CAT_CONFIDENCE_THRESHOLD = 50.0f;
+    //at most 64, so a set of stripes fits in a long
+    private static final int SENSOR_LOCK_STRIPES = 64;
+
+    private ImageService imageService;
     private SecurityRepository securityRepository;
-    private Set<StatusListener> statusListeners = new HashSet<>();
-    // Section 4: Fix Any Bugs You Find With Your Unit Tests!
-    private static Boolean flagDetectionStatus = false;
+    private final Set<StatusListener> statusListeners = new CopyOnWriteArraySet<>();
+    private final StatusEventPublisher statusEvents = new StatusEventPublisher();
+    //bumped whenever a sensor is added or removed, so callers caching sensors know to look them up again
+    private final AtomicInteger sensorsVersion = new AtomicInteger();
+    private final SensorSequenceTracker sequenceTracker = new SensorSequenceTracker();
+    //classification can take a remote round trip, so it runs on a few threads with a short queue,
+    //either the service's own or shared with other services
+    private final ExecutorService imageAnalysisExecutor;
+    private final boolean ownsImageAnalysisExecutor;
+    //numbers camera frames in arrival order
+    private final AtomicLong imageFrames = new AtomicLong();
+    //frame whose result was applied last; guarded by the write lock of sensorsLock
+    private long appliedImageFrame;
+    private volatile boolean closed;
+    private final MotionGate motionGate = new MotionGate();
+    //null until first loaded from the repository
+    private final AtomicReference<SecurityState> state = new AtomicReference<>();
+    //sensor reports share the read side; transitions that read the active sensor count take the
+    //write side, so no report lands between reading the count and acting on it
+    private final ReadWriteLock sensorsLock = new ReentrantReadWriteLock();
+    //held while a report reads and changes its sensor, so reports for one sensor never interleave
+    private final Object[] sensorLocks = new Object[SENSOR_LOCK_STRIPES];
+
+    //status last written to the repository. Only touched by the thread that currently owns
+    //publishWip, whose increments and decrements also make the fields visible to the next owner
+    private final AtomicInteger publishWip = new AtomicInteger();
+    private boolean publishedLoaded;
+    private AlarmStatus publishedAlarmStatus;
+    private ArmingStatus publishedArmingStatus;
+
+    public SecurityService(SecurityRepository securityRepository, ImageService imageService) {
+        this.securityRepository = securityRepository;
+        this.imageService = imageService;
+        this.imageAnalysisExecutor = newImageAnalysisExecutor(IMAGE_ANALYSIS_THREADS, IMAGE_ANALYSIS_QUEUE);
+        this.ownsImageAnalysisExecutor = true;
+        Arrays.setAll(sensorLocks, i -> new Object());
+    }
 
-    public SecurityService(SecurityRepository securityRepository, FakeImageService imageService) {
+    /**
+     * Creates a service that analyses images on the given executor, which it does not shut down.
+     * Many services, such as one per site, can share one executor this way.
+     *
+     * @param imageAnalysisExecutor Runs the classifier for {@link #processImageAsync(BufferedImage)};
+     *                              see {@link #newImageAnalysisExecutor(int, int)}
+     */
+    public SecurityService(SecurityRepository securityRepository, ImageService imageService, ExecutorService imageAnalysisExecutor) {
         this.securityRepository = securityRepository;
         this.imageService = imageService;
+        this.imageAnalysisExecutor = imageAnalysisExecutor;
+        this.ownsImageAnalysisExecutor = false;
+        Arrays.setAll(sensorLocks, i -> new Object());
+    }
+
+    /**
+     * Creates an executor for image analysis. Requests beyond the queue are rejected rather than
+     * waiting, and idle threads exit, so an unused executor holds none.
+     *
+     * @param threads Number of analyses run at once
+     * @param queueCapacity Number of analyses waiting for a thread
+     */
+    public static ThreadPoolExecutor newImageAnalysisExecutor(int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+                30, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity),
+                Thread.ofPlatform().name("image-analysis-", 0).daemon().factory());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
     }
 
     /**
@@ -38,23 +141,10 @@ public class SecurityService {
      * @param armingStatus
      */
     public void setArmingStatus(ArmingStatus armingStatus) {
-        Runnable updateAlarmStatus = determineAlarmStatusUpdate(armingStatus);
-
-        updateAlarmStatus.run();
-
-        securityRepository.setArmingStatus(armingStatus);
+        applyArmingStatus(armingStatus);
+        publish();
 
-        statusListeners.forEach(StatusListener::sensorStatusChanged);
-    }
-
-    private Runnable determineAlarmStatusUpdate(ArmingStatus armingStatus) {
-        if (armingStatus == ArmingStatus.ARMED_HOME && flagDetectionStatus) {
-            return () -> setAlarmStatus(AlarmStatus.ALARM);
-        } else if (armingStatus == ArmingStatus.DISARMED) {
-            return () -> setAlarmStatus(AlarmStatus.NO_ALARM);
-        } else {
-            return () -> getSensors().forEach(sensor -> changeSensorActivationStatus(sensor, false));
-        }
+        notifySensorStatusChanged();
     }
 
     /**
@@ -62,20 +152,17 @@ public class SecurityService {
      * the camera currently shows a cat.
      *
      * @param cat True if a cat is detected, otherwise false.
+     * @param frame Number of the frame the result is for
+     * @return false if the result was dropped because a later frame's result was applied first
      */
-    private void catDetected(Boolean cat) {
-
-        flagDetectionStatus = cat;
-
-        Runnable updateAlarmStatus = () -> setAlarmStatus(cat && getArmingStatus() == ArmingStatus.ARMED_HOME
-                ? AlarmStatus.ALARM
-                : getSensors().stream().anyMatch(Sensor::getActive)
-                ? getAlarmStatus()
-                : AlarmStatus.NO_ALARM);
-
-        updateAlarmStatus.run();
+    private boolean catDetected(boolean cat, long frame) {
+        if (!applyImageResult(cat, frame)) {
+            return false;
+        }
+        publish();
 
-        statusListeners.forEach(sl -> sl.catDetected(cat));
+        notifyCatDetected(cat);
+        return true;
     }
 
     /**
@@ -91,69 +178,376 @@ public class SecurityService {
         statusListeners.remove(statusListener);
     }
 
+    /**
+     * @return publisher of every status change, for subscribers that should not run on the
+     * threads that change the status
+     */
+    public StatusEventPublisher getStatusEvents() {
+        return statusEvents;
+    }
+
     /**
      * Change the alarm status of the system and notify all listeners.
      *
      * @param status
      */
     public void setAlarmStatus(AlarmStatus status) {
-        securityRepository.setAlarmStatus(status);
-        statusListeners.forEach(sl -> sl.notify(status));
+        transition(s -> s.withAlarmStatus(status));
+    }
+
+    /**
+     * Internal method for updating the alarm status when a sensor has been deactivated
+     */
+    void handleSensorDeactivated() {
+        transition(SecurityState::sensorDeactivated);
     }
 
     /**
-     * Internal method for updating the alarm status when a sensor has been activated.
+     * Change the activation status for the specified sensor and update alarm status if necessary.
+     *
+     * @param sensor
+     * @param active
      */
-    private void handleSensorActivated() {
-        if (securityRepository.getArmingStatus() == ArmingStatus.DISARMED) {
-            return; //no problem if the system is disarmed
+    public void changeSensorActivationStatus(Sensor sensor, Boolean active) {
+        Lock lock = sensorsLock.readLock();
+        lock.lock();
+        try {
+            synchronized (sensorLock(sensor)) {
+                transitionSensor(sensor, active);
+                securityRepository.updateSensor(sensor);
+            }
+        } finally {
+            lock.unlock();
         }
-        switch (securityRepository.getAlarmStatus()) {
-            case NO_ALARM -> setAlarmStatus(AlarmStatus.PENDING_ALARM);
-            case PENDING_ALARM -> setAlarmStatus(AlarmStatus.ALARM);
+        publish();
+    }
+
+    /**
+     * Changes the activation status of the sensor if the report is the newest one from its
+     * controller. Controllers retry, so the same report can arrive twice or after a later one;
+     * those are dropped before they reach the alarm rules and counted by {@link #getSequenceTracker()}.
+     * The report is checked and applied under the sensor's lock, so of two reports racing on
+     * different threads the older one can never be applied after the newer one.
+     *
+     * @param sequence Number the controller gave the report, counting up per sensor
+     * @return false if the report was dropped
+     */
+    public boolean changeSensorActivationStatus(Sensor sensor, Boolean active, long sequence) {
+        Lock lock = sensorsLock.readLock();
+        lock.lock();
+        try {
+            synchronized (sensorLock(sensor)) {
+                if (!sequenceTracker.accept(sensor.getSensorId(), sequence)) {
+                    return false;
+                }
+                transitionSensor(sensor, active);
+                securityRepository.updateSensor(sensor);
+            }
+        } finally {
+            lock.unlock();
         }
+        publish();
+        return true;
     }
 
     /**
-     * Internal method for updating the alarm status when a sensor has been deactivated
+     * Changes the activation status of several sensors at once, for example everything a door
+     * controller reports in one message. The alarm status goes through the same transitions as
+     * it would for one call per sensor, in the map's iteration order, but the sensors are stored
+     * in one repository call and the resulting status is written and announced once.
+     *
+     * @param activations Requested activation status per sensor
      */
-    void handleSensorDeactivated() {
-        switch (securityRepository.getAlarmStatus()) {
-            case PENDING_ALARM -> setAlarmStatus(AlarmStatus.NO_ALARM);
-            case ALARM -> setAlarmStatus(AlarmStatus.PENDING_ALARM);
+    public void changeSensorActivationStatus(Map<Sensor, Boolean> activations) {
+        if (activations.isEmpty()) {
+            return;
+        }
+        Lock lock = sensorsLock.readLock();
+        lock.lock();
+        try {
+            activations.forEach(this::lockedTransitionSensor);
+            securityRepository.updateSensors(activations.keySet());
+        } finally {
+            lock.unlock();
         }
+        publish();
+
+        notifySensorStatusChanged();
     }
 
     /**
-     * Change the activation status for the specified sensor and update alarm status if necessary.
+     * Applies sensor reports that the caller has batched itself, such as a network server that
+     * decodes a buffer full of frames into reused arrays. The reports go through the same
+     * transitions as one {@link #changeSensorActivationStatus(Sensor, Boolean, long)} call each,
+     * in order, but only the distinct sensors are stored and the resulting status is written and
+     * announced once. Each report's sequence number is checked while its sensor is locked, so
+     * reports for one sensor in batches from different threads are applied newest last.
      *
-     * @param sensor
-     * @param active
+     * Callers may hold on to the sensors they report across batches, and some repositories hand
+     * out copies, so the given instances only identify the sensors. Each batch looks the sensors
+     * up in the repository and keeps their locks until they are stored, so batches applied from
+     * several threads never read a sensor another batch has changed but not yet stored. Reports
+     * for sensors that have been removed are skipped.
+     *
+     * @param sensors Reported sensors, which may repeat; only the first count entries are used
+     * @param active Reported activation status, parallel to sensors
+     * @param sequences Number the controller gave each report, parallel to sensors
+     * @param count Number of reports
+     * @param distinctSensors The distinct sensors among the reports, the same instances as in sensors
+     * @return number of reports applied, leaving out retried, late and removed sensors' reports
      */
-    public void changeSensorActivationStatus(Sensor sensor, Boolean active) {
+    public int changeSensorActivationStatus(Sensor[] sensors, boolean[] active, long[] sequences, int count,
+                                            Collection<Sensor> distinctSensors) {
+        if (count == 0) {
+            return 0;
+        }
+        long stripes = 0;
+        for (Sensor sensor : distinctSensors) {
+            stripes |= 1L << sensorStripe(sensor);
+        }
+        int applied;
+        Lock lock = sensorsLock.readLock();
+        lock.lock();
+        try {
+            applied = withSensorLocks(stripes, () -> transitionStoredSensors(sensors, active, sequences, count, distinctSensors));
+        } finally {
+            lock.unlock();
+        }
+        if (applied > 0) {
+            publish();
 
-        EnumMap<AlarmStatus, Consumer<Sensor>> statusHandlers = new EnumMap<>(AlarmStatus.class);
+            notifySensorStatusChanged();
+        }
+        return applied;
+    }
+
+    private int transitionStoredSensors(Sensor[] sensors, boolean[] active, long[] sequences, int count,
+                                        Collection<Sensor> distinctSensors) {
+        Map<Sensor, Sensor> stored = new IdentityHashMap<>(distinctSensors.size());
+        for (Sensor sensor : distinctSensors) {
+            securityRepository.findById(sensor.getSensorId()).ifPresent(current -> stored.put(sensor, current));
+        }
+        int applied = 0;
+        for (int i = 0; i < count; i++) {
+            Sensor current = stored.get(sensors[i]);
+            if (current != null && sequenceTracker.accept(current.getSensorId(), sequences[i])) {
+                transitionSensor(current, active[i]);
+                applied++;
+            }
+        }
+        if (applied > 0) {
+            securityRepository.updateSensors(stored.values());
+        }
+        return applied;
+    }
+
+    /**
+     * Runs the action holding every sensor lock stripe whose bit is set, taken in ascending
+     * order so that two callers never wait for each other.
+     */
+    private int withSensorLocks(long stripes, IntSupplier action) {
+        if (stripes == 0) {
+            return action.getAsInt();
+        }
+        synchronized (sensorLocks[Long.numberOfTrailingZeros(stripes)]) {
+            return withSensorLocks(stripes & (stripes - 1), action);
+        }
+    }
+
+    /*
+     * The apply methods change the state and the sensors without writing statuses to the repository
+     * or notifying listeners. The public methods follow each of them with a publish; the event loop
+     * applies a whole batch of events first and then publishes and notifies once.
+     */
+
+    void applyArmingStatus(ArmingStatus armingStatus) {
+        Lock lock = sensorsLock.writeLock();
+        lock.lock();
+        try {
+            SecurityState previous = apply(s -> s.armingChanged(armingStatus));
+
+            boolean alarmDecided = armingStatus == ArmingStatus.DISARMED
+                    || (armingStatus == ArmingStatus.ARMED_HOME && previous.catDetected());
+            if (!alarmDecided && securityRepository.hasActiveSensors()) {
+                //however many sensors were active, resetting them moves the alarm exactly like the
+                //first active sensor going inactive would; the others find it already moved
+                apply(s -> s.sensorChanged(true, false));
+                securityRepository.deactivateAllSensors();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void applyImageResult(boolean cat) {
+        applyImageResult(cat, imageFrames.incrementAndGet());
+    }
+
+    /**
+     * @return false if a later frame's result has been applied already, in which case nothing changes
+     */
+    private boolean applyImageResult(boolean cat, long frame) {
+        Lock lock = sensorsLock.writeLock();
+        lock.lock();
+        try {
+            if (frame < appliedImageFrame) {
+                return false;
+            }
+            appliedImageFrame = frame;
+            boolean anySensorActive = securityRepository.hasActiveSensors();
+            apply(s -> s.imageProcessed(cat, anySensorActive));
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Applies the sensor report to the alarm state and the sensor. Storing the sensor is left to
+     * the caller, so that several sensors can be stored together.
+     */
+    void applySensorTransition(Sensor sensor, boolean active) {
+        Lock lock = sensorsLock.readLock();
+        lock.lock();
+        try {
+            lockedTransitionSensor(sensor, active);
+        } finally {
+            lock.unlock();
+        }
+    }
 
-        statusHandlers.put(AlarmStatus.NO_ALARM, s -> handleSensorUpdate(s, active));
-        statusHandlers.put(AlarmStatus.PENDING_ALARM, s -> handleSensorUpdate(s, active));
+    private void lockedTransitionSensor(Sensor sensor, boolean active) {
+        synchronized (sensorLock(sensor)) {
+            transitionSensor(sensor, active);
+        }
+    }
 
-        // Xử lý mặc định nếu trạng thái không phải NO_ALARM hoặc PENDING_ALARM
-        statusHandlers.getOrDefault(securityRepository.getAlarmStatus(), s -> {}).accept(sensor);
+    /**
+     * Reads the sensor's previous activation, moves the state and updates the sensor. The caller
+     * holds the sensor's lock, so no other report for the sensor reads it in between.
+     */
+    private void transitionSensor(Sensor sensor, boolean active) {
+        boolean wasActive = sensor.getActive();
+        //the hottest path, so it has its own loop instead of a capturing lambda for apply
+        SecurityState previous;
+        SecurityState next;
+        do {
+            previous = getState();
+            next = previous.sensorChanged(wasActive, active);
+        } while (previous != next && !state.compareAndSet(previous, next));
 
         sensor.setActive(active);
-        securityRepository.updateSensor(sensor);
     }
 
-    private void handleSensorUpdate(Sensor sensor, Boolean isActive) {
-        boolean isSensorCurrentlyActive = sensor.getActive();
+    private Object sensorLock(Sensor sensor) {
+        return sensorLocks[sensorStripe(sensor)];
+    }
+
+    private static int sensorStripe(Sensor sensor) {
+        int h = sensor.getSensorId().hashCode();
+        return (h ^ (h >>> 16)) & (SENSOR_LOCK_STRIPES - 1);
+    }
+
+    void storeSensors(Collection<Sensor> sensors) {
+        securityRepository.updateSensors(sensors);
+    }
+
+    void notifyCatDetected(boolean cat) {
+        statusListeners.forEach(sl -> sl.catDetected(cat));
+        statusEvents.catDetected(cat);
+    }
+
+    void notifySensorStatusChanged() {
+        statusListeners.forEach(StatusListener::sensorStatusChanged);
+        statusEvents.sensorStatusChanged();
+    }
+
+    /**
+     * Hands buffered repository writes to storage, for repositories that buffer them.
+     */
+    void flushRepository() throws IOException {
+        if (securityRepository instanceof Flushable flushable) {
+            flushable.flush();
+        }
+    }
 
-        if ((isSensorCurrentlyActive && isActive) || (!isSensorCurrentlyActive && isActive)) {
-            handleSensorActivated();
-        } else if (isSensorCurrentlyActive && !isActive) {
-            handleSensorDeactivated();
+    /**
+     * @return the current alarm, arming and camera state as one consistent snapshot
+     */
+    public SecurityState getState() {
+        SecurityState current = state.get();
+        if (current != null) {
+            return current;
         }
+        SecurityState loaded = SecurityState.of(securityRepository.getAlarmStatus(), securityRepository.getArmingStatus(), false);
+        current = state.compareAndExchange(null, loaded);
+        return current != null ? current : loaded;
+    }
+
+    /**
+     * Applies the transition with compare-and-set and then publishes the outcome.
+     */
+    private void transition(UnaryOperator<SecurityState> transition) {
+        apply(transition);
+        publish();
+    }
+
+    /**
+     * Applies the transition with compare-and-set, retrying against the latest state if another
+     * thread got there first.
+     *
+     * @return the state the transition was applied to
+     */
+    private SecurityState apply(UnaryOperator<SecurityState> transition) {
+        SecurityState previous;
+        SecurityState next;
+        do {
+            previous = getState();
+            next = transition.apply(previous);
+        } while (previous != next && !state.compareAndSet(previous, next));
+        return previous;
     }
 
+    /**
+     * Writes the latest state to the repository and tells the listeners about a new alarm status.
+     * Only one thread publishes at a time; a thread that finds another one publishing leaves its
+     * change for that thread to pick up, so the repository always ends up with the latest state
+     * and never sees an older status after a newer one.
+     */
+    void publish() {
+        if (publishWip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        try {
+            do {
+                if (!publishedLoaded) {
+                    //the repository still holds the status the state was loaded from
+                    publishedAlarmStatus = securityRepository.getAlarmStatus();
+                    publishedArmingStatus = securityRepository.getArmingStatus();
+                    publishedLoaded = true;
+                }
+                SecurityState current = getState();
+                if (current.armingStatus() != publishedArmingStatus) {
+                    securityRepository.setArmingStatus(current.armingStatus());
+                    publishedArmingStatus = current.armingStatus();
+                }
+                if (current.alarmStatus() != publishedAlarmStatus) {
+                    securityRepository.setAlarmStatus(current.alarmStatus());
+                    publishedAlarmStatus = current.alarmStatus();
+                    for (StatusListener statusListener : statusListeners) {
+                        statusListener.notify(current.alarmStatus());
+                    }
+                    statusEvents.alarmStatusChanged(current.alarmStatus());
+                }
+                missed = publishWip.addAndGet(-missed);
+            } while (missed != 0);
+        } catch (RuntimeException e) {
+            //let the next transition publish again instead of leaving the counter stuck
+            publishWip.set(0);
+            throw e;
+        }
+    }
 
     /**
      * Send an image to the SecurityService for processing. The securityService will use its provided
@@ -162,26 +556,182 @@ public class SecurityService {
      * @param currentCameraImage
      */
     public void processImage(BufferedImage currentCameraImage) {
-        catDetected(imageService.imageContainsCat(currentCameraImage, 50.0f));
+        processImage(null, currentCameraImage);
+    }
+
+    /**
+     * Like {@link #processImage(BufferedImage)}, but a frame that shows the same scene as the
+     * camera's last classified frame reuses that frame's result instead of being classified again.
+     *
+     * @param cameraId Camera that took the image, whose {@link MotionGate} settings apply; null to always classify
+     */
+    public void processImage(String cameraId, BufferedImage currentCameraImage) {
+        long frame = imageFrames.incrementAndGet();
+        byte[] luminance = motionGate.luminance(cameraId, currentCameraImage);
+        Boolean unchanged = luminance == null ? null : motionGate.unchangedResult(cameraId, luminance);
+        if (unchanged != null) {
+            catDetected(unchanged, frame);
+            return;
+        }
+        boolean cat = imageService.imageContainsCat(currentCameraImage, CAT_CONFIDENCE_THRESHOLD);
+        if (catDetected(cat, frame) && luminance != null) {
+            motionGate.classified(cameraId, luminance, cat);
+        }
+    }
+
+    public CompletableFuture<Boolean> processImageAsync(BufferedImage currentCameraImage) {
+        return processImageAsync(null, currentCameraImage, DEFAULT_IMAGE_ANALYSIS_TIMEOUT);
+    }
+
+    public CompletableFuture<Boolean> processImageAsync(String cameraId, BufferedImage currentCameraImage) {
+        return processImageAsync(cameraId, currentCameraImage, DEFAULT_IMAGE_ANALYSIS_TIMEOUT);
+    }
+
+    public CompletableFuture<Boolean> processImageAsync(BufferedImage currentCameraImage, Duration timeout) {
+        return processImageAsync(null, currentCameraImage, timeout);
+    }
+
+    /**
+     * Sends the image for analysis on the service's image analysis threads and returns straight
+     * away. When the result arrives in time, the cat detection transition is applied and the
+     * listeners are notified before the returned future completes with it.
+     *
+     * If the analysis takes longer than the timeout, or the returned future is cancelled, the
+     * analysis is interrupted and its result ignored. While all analysis threads are busy and the
+     * queue is full, or once the service is closed, the returned future fails at once with a
+     * {@link RejectedExecutionException}. A result that arrives after the result of a later frame
+     * has been applied is not applied; the returned future still completes with it.
+     *
+     * A frame the camera's {@link MotionGate} finds unchanged is not sent for analysis; the reused
+     * result is applied on the calling thread and the returned future is already complete.
+     *
+     * @param cameraId Camera that took the image, whose {@link MotionGate} settings apply; null to always classify
+     * @param timeout Longest time to wait for the analysis, including time spent queued
+     * @return future completed with whether the image contains a cat
+     */
+    public CompletableFuture<Boolean> processImageAsync(String cameraId, BufferedImage currentCameraImage, Duration timeout) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("The security service is closed"));
+        }
+        long frame = imageFrames.incrementAndGet();
+        //gating is cheap, so it runs here and unchanged frames never take a place in the queue
+        byte[] luminance = motionGate.luminance(cameraId, currentCameraImage);
+        Boolean unchanged = luminance == null ? null : motionGate.unchangedResult(cameraId, luminance);
+        if (unchanged != null) {
+            catDetected(unchanged, frame);
+            return CompletableFuture.completedFuture(unchanged);
+        }
+
+        CompletableFuture<Boolean> analysis = new CompletableFuture<>();
+        Future<?> task;
+        try {
+            task = imageAnalysisExecutor.submit(() -> {
+                if (closed) {
+                    //queued on a shared executor before the service was closed
+                    analysis.cancel(false);
+                    return;
+                }
+                try {
+                    analysis.complete(imageService.imageContainsCat(currentCameraImage, CAT_CONFIDENCE_THRESHOLD));
+                } catch (RuntimeException e) {
+                    analysis.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        analysis.orTimeout(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                .whenComplete((cat, error) -> {
+                    if (error != null) {
+                        task.cancel(true);
+                    }
+                });
+
+        //only a result that beat the timeout gets here
+        CompletableFuture<Boolean> result = analysis.thenApply(cat -> {
+            if (!closed && catDetected(cat, frame) && luminance != null) {
+                motionGate.classified(cameraId, luminance, cat);
+            }
+            return cat;
+        });
+        result.whenComplete((cat, error) -> {
+            if (result.isCancelled()) {
+                analysis.cancel(true);
+            }
+        });
+        return result;
     }
 
     public AlarmStatus getAlarmStatus() {
-        return securityRepository.getAlarmStatus();
+        return getState().alarmStatus();
     }
 
     public Set<Sensor> getSensors() {
         return securityRepository.getSensors();
     }
 
+    public Optional<Sensor> findSensor(UUID sensorId) {
+        return securityRepository.findById(sensorId);
+    }
+
     public void addSensor(Sensor sensor) {
         securityRepository.addSensor(sensor);
+        sensorsVersion.incrementAndGet();
     }
 
     public void removeSensor(Sensor sensor) {
         securityRepository.removeSensor(sensor);
+        sequenceTracker.forget(sensor.getSensorId());
+        sensorsVersion.incrementAndGet();
+    }
+
+    /**
+     * @return the gate that decides which camera frames are classified, for configuring cameras
+     */
+    public MotionGate getMotionGate() {
+        return motionGate;
+    }
+
+    /**
+     * @return the tracker that drops repeated and out-of-order sensor reports, with its drop counts
+     */
+    public SensorSequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
+    /**
+     * @return a number that changes whenever a sensor is added or removed through this service
+     */
+    public int getSensorsVersion() {
+        return sensorsVersion.get();
     }
 
     public ArmingStatus getArmingStatus() {
-        return securityRepository.getArmingStatus();
+        return getState().armingStatus();
+    }
+
+    /**
+     * @return number of currently active sensors, answered without scanning the sensors
+     */
+    public int getActiveSensorCount() {
+        return securityRepository.getActiveSensorCount();
+    }
+
+    public int getActiveSensorCount(SensorType sensorType) {
+        return securityRepository.getActiveSensorCount(sensorType);
+    }
+
+    /**
+     * Stops image analysis and completes the status event subscribers. Results of analyses still
+     * running are not applied, and later calls to processImageAsync fail. The service's own
+     * analysis threads are stopped; an executor passed to the constructor is left to its owner.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        if (ownsImageAnalysisExecutor) {
+            imageAnalysisExecutor.shutdownNow();
+        }
+        statusEvents.close();
     }
 }
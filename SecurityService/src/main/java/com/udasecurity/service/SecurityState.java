@@ -0,0 +1,187 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.AlarmStatus;
+import com.udasecurity.data.ArmingStatus;
+
+/**
+ * Immutable snapshot of everything the alarm decisions depend on, apart from the sensors
+ * themselves. {@link SecurityService} swaps whole snapshots with compare-and-set, so the three
+ * values always change together and concurrent transitions cannot overwrite each other.
+ *
+ * There are only eighteen complete states, so they are created once and every transition is a
+ * lookup in a table computed from the rules below when the class loads. Transitions therefore
+ * never allocate, and return {@code this} when nothing changes. States with a missing status, as
+ * read from a repository that has none, are not in the table and apply the rules directly.
+ */
+public record SecurityState(AlarmStatus alarmStatus, ArmingStatus armingStatus, boolean catDetected) {
+
+    private static final AlarmStatus[] ALARM_STATUSES = AlarmStatus.values();
+    private static final ArmingStatus[] ARMING_STATUSES = ArmingStatus.values();
+    private static final int STATE_COUNT = ALARM_STATUSES.length * ARMING_STATUSES.length * 2;
+
+    private static final SecurityState[] STATES = new SecurityState[STATE_COUNT];
+    //next state, indexed by state index and then by the event's inputs as given in the comments
+    private static final SecurityState[] SENSOR_CHANGED = new SecurityState[STATE_COUNT * 4]; //wasActive, active
+    private static final SecurityState[] IMAGE_PROCESSED = new SecurityState[STATE_COUNT * 4]; //cat, anySensorActive
+    private static final SecurityState[] ARMING_CHANGED = new SecurityState[STATE_COUNT * ARMING_STATUSES.length];
+    private static final SecurityState[] SENSOR_ACTIVATED = new SecurityState[STATE_COUNT];
+    private static final SecurityState[] SENSOR_DEACTIVATED = new SecurityState[STATE_COUNT];
+
+    static {
+        for (AlarmStatus alarm : ALARM_STATUSES) {
+            for (ArmingStatus arming : ARMING_STATUSES) {
+                for (boolean cat : new boolean[]{false, true}) {
+                    STATES[index(alarm, arming, cat)] = new SecurityState(alarm, arming, cat);
+                }
+            }
+        }
+        //the rules only ever produce states through of(), so every entry is a shared instance
+        for (int i = 0; i < STATE_COUNT; i++) {
+            SecurityState state = STATES[i];
+            for (int inputs = 0; inputs < 4; inputs++) {
+                boolean first = (inputs & 2) != 0;
+                boolean second = (inputs & 1) != 0;
+                SENSOR_CHANGED[i * 4 + inputs] = state.computeSensorChanged(first, second);
+                IMAGE_PROCESSED[i * 4 + inputs] = state.computeImageProcessed(first, second);
+            }
+            for (ArmingStatus arming : ARMING_STATUSES) {
+                ARMING_CHANGED[i * ARMING_STATUSES.length + arming.ordinal()] = state.computeArmingChanged(arming);
+            }
+            SENSOR_ACTIVATED[i] = state.computeSensorActivated();
+            SENSOR_DEACTIVATED[i] = state.computeSensorDeactivated();
+        }
+    }
+
+    /**
+     * @return the shared instance for a complete state, or a new one if a status is missing
+     */
+    public static SecurityState of(AlarmStatus alarmStatus, ArmingStatus armingStatus, boolean catDetected) {
+        if (alarmStatus == null || armingStatus == null) {
+            return new SecurityState(alarmStatus, armingStatus, catDetected);
+        }
+        return STATES[index(alarmStatus, armingStatus, catDetected)];
+    }
+
+    public SecurityState withAlarmStatus(AlarmStatus alarmStatus) {
+        return alarmStatus == this.alarmStatus ? this : of(alarmStatus, armingStatus, catDetected);
+    }
+
+    public SecurityState withArmingStatus(ArmingStatus armingStatus) {
+        return armingStatus == this.armingStatus ? this : of(alarmStatus, armingStatus, catDetected);
+    }
+
+    public SecurityState withCatDetected(boolean catDetected) {
+        return catDetected == this.catDetected ? this : of(alarmStatus, armingStatus, catDetected);
+    }
+
+    /**
+     * A sensor became (or was reported again as) active.
+     */
+    public SecurityState sensorActivated() {
+        return isComplete() ? SENSOR_ACTIVATED[index()] : computeSensorActivated();
+    }
+
+    /**
+     * An active sensor became inactive.
+     */
+    public SecurityState sensorDeactivated() {
+        return isComplete() ? SENSOR_DEACTIVATED[index()] : computeSensorDeactivated();
+    }
+
+    /**
+     * Applies a sensor report. While the alarm is sounding, sensor changes do not affect it.
+     */
+    public SecurityState sensorChanged(boolean wasActive, boolean active) {
+        return isComplete()
+                ? SENSOR_CHANGED[index() * 4 + (wasActive ? 2 : 0) + (active ? 1 : 0)]
+                : computeSensorChanged(wasActive, active);
+    }
+
+    /**
+     * Applies a camera result. A cat while armed-home sounds the alarm; otherwise the alarm is
+     * cleared unless a sensor is still active.
+     */
+    public SecurityState imageProcessed(boolean cat, boolean anySensorActive) {
+        return isComplete()
+                ? IMAGE_PROCESSED[index() * 4 + (cat ? 2 : 0) + (anySensorActive ? 1 : 0)]
+                : computeImageProcessed(cat, anySensorActive);
+    }
+
+    /**
+     * Applies an arming command. Arming home while a cat is in view sounds the alarm and disarming
+     * clears it; resetting the sensors for the other cases is left to the caller.
+     */
+    public SecurityState armingChanged(ArmingStatus armingStatus) {
+        return isComplete()
+                ? ARMING_CHANGED[index() * ARMING_STATUSES.length + armingStatus.ordinal()]
+                : computeArmingChanged(armingStatus);
+    }
+
+    /*
+     * The rules themselves. They build the tables above and handle incomplete states.
+     */
+
+    private SecurityState computeSensorActivated() {
+        if (armingStatus == ArmingStatus.DISARMED) {
+            return this; //no problem if the system is disarmed
+        }
+        if (alarmStatus == AlarmStatus.NO_ALARM) {
+            return withAlarmStatus(AlarmStatus.PENDING_ALARM);
+        }
+        if (alarmStatus == AlarmStatus.PENDING_ALARM) {
+            return withAlarmStatus(AlarmStatus.ALARM);
+        }
+        return this;
+    }
+
+    private SecurityState computeSensorDeactivated() {
+        if (alarmStatus == AlarmStatus.PENDING_ALARM) {
+            return withAlarmStatus(AlarmStatus.NO_ALARM);
+        }
+        if (alarmStatus == AlarmStatus.ALARM) {
+            return withAlarmStatus(AlarmStatus.PENDING_ALARM);
+        }
+        return this;
+    }
+
+    private SecurityState computeSensorChanged(boolean wasActive, boolean active) {
+        if (alarmStatus != AlarmStatus.NO_ALARM && alarmStatus != AlarmStatus.PENDING_ALARM) {
+            return this;
+        }
+        if (active) {
+            return computeSensorActivated();
+        }
+        return wasActive ? computeSensorDeactivated() : this;
+    }
+
+    private SecurityState computeImageProcessed(boolean cat, boolean anySensorActive) {
+        SecurityState next = withCatDetected(cat);
+        if (cat && armingStatus == ArmingStatus.ARMED_HOME) {
+            return next.withAlarmStatus(AlarmStatus.ALARM);
+        }
+        return anySensorActive ? next : next.withAlarmStatus(AlarmStatus.NO_ALARM);
+    }
+
+    private SecurityState computeArmingChanged(ArmingStatus armingStatus) {
+        SecurityState next = withArmingStatus(armingStatus);
+        if (armingStatus == ArmingStatus.ARMED_HOME && catDetected) {
+            return next.withAlarmStatus(AlarmStatus.ALARM);
+        }
+        if (armingStatus == ArmingStatus.DISARMED) {
+            return next.withAlarmStatus(AlarmStatus.NO_ALARM);
+        }
+        return next;
+    }
+
+    private boolean isComplete() {
+        return alarmStatus != null && armingStatus != null;
+    }
+
+    private int index() {
+        return index(alarmStatus, armingStatus, catDetected);
+    }
+
+    private static int index(AlarmStatus alarmStatus, ArmingStatus armingStatus, boolean catDetected) {
+        return (alarmStatus.ordinal() * ARMING_STATUSES.length + armingStatus.ordinal()) * 2 + (catDetected ? 1 : 0);
+    }
+}
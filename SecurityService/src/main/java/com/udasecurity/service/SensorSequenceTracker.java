@@ -0,0 +1,149 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.UuidIntMap;
+
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Remembers the highest sequence number seen per sensor, so retried and reordered sensor reports
+ * can be dropped before they reach the alarm rules. A report is accepted only if its sequence
+ * number is higher than every earlier one for the same sensor; an equal number is counted as a
+ * duplicate and a lower one as stale. Without this a retried activation would count as a second
+ * activation and escalate a pending alarm.
+ *
+ * Sequence numbers live in primitive arrays behind a {@link UuidIntMap}, split over a few
+ * independently locked stripes, so checking a report is a hash lookup that never allocates and
+ * rarely waits. A controller that restarts its numbering needs its sensors {@linkplain #forget
+ * forgotten} first.
+ */
+public class SensorSequenceTracker {
+
+    private static final int STRIPES = 16;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    private final LongAdder duplicates = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    public SensorSequenceTracker() {
+        this(256);
+    }
+
+    /**
+     * @param expectedSensors Number of sensors to size the tracker for up front
+     */
+    public SensorSequenceTracker(int expectedSensors) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(Math.max(16, expectedSensors / STRIPES));
+        }
+    }
+
+    public boolean accept(UUID sensorId, long sequence) {
+        return accept(sensorId.getMostSignificantBits(), sensorId.getLeastSignificantBits(), sequence);
+    }
+
+    /**
+     * Records the sequence number if it is the newest for the sensor.
+     *
+     * @return false if the report is a duplicate or older than one already accepted
+     */
+    public boolean accept(long mostSigBits, long leastSigBits, long sequence) {
+        Stripe stripe = stripe(mostSigBits, leastSigBits);
+        long previous;
+        synchronized (stripe) {
+            previous = stripe.getAndAdvance(mostSigBits, leastSigBits, sequence);
+        }
+        if (previous < sequence) {
+            return true;
+        }
+        if (previous == sequence) {
+            duplicates.increment();
+        } else {
+            stale.increment();
+        }
+        return false;
+    }
+
+    /**
+     * Forgets the sensor, so that its next report is accepted whatever its sequence number.
+     */
+    public void forget(UUID sensorId) {
+        long mostSigBits = sensorId.getMostSignificantBits();
+        long leastSigBits = sensorId.getLeastSignificantBits();
+        Stripe stripe = stripe(mostSigBits, leastSigBits);
+        synchronized (stripe) {
+            stripe.remove(mostSigBits, leastSigBits);
+        }
+    }
+
+    /**
+     * @return number of reports dropped because their sequence number had already been accepted
+     */
+    public long getDuplicateCount() {
+        return duplicates.sum();
+    }
+
+    /**
+     * @return number of reports dropped because a newer one had already been accepted
+     */
+    public long getStaleCount() {
+        return stale.sum();
+    }
+
+    public long getDroppedCount() {
+        return getDuplicateCount() + getStaleCount();
+    }
+
+    private Stripe stripe(long mostSigBits, long leastSigBits) {
+        long hash = mostSigBits ^ leastSigBits;
+        int h = (int) (hash ^ (hash >>> 32));
+        return stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /**
+     * Slots are handed out densely; a removed sensor's slot goes on a free list for the next one.
+     */
+    private static final class Stripe {
+        private final UuidIntMap slots;
+        private long[] sequences;
+        private int[] freeSlots = new int[8];
+        private int freeCount;
+
+        private Stripe(int expectedSensors) {
+            slots = new UuidIntMap(expectedSensors);
+            sequences = new long[expectedSensors];
+        }
+
+        /**
+         * @return the previous highest sequence number, or Long.MIN_VALUE for a new sensor
+         */
+        private long getAndAdvance(long mostSigBits, long leastSigBits, long sequence) {
+            int slot = slots.get(mostSigBits, leastSigBits);
+            if (slot == UuidIntMap.NO_VALUE) {
+                slot = freeCount > 0 ? freeSlots[--freeCount] : slots.size();
+                if (slot == sequences.length) {
+                    sequences = Arrays.copyOf(sequences, slot * 2);
+                }
+                slots.put(mostSigBits, leastSigBits, slot);
+                sequences[slot] = sequence;
+                return Long.MIN_VALUE;
+            }
+            long previous = sequences[slot];
+            if (sequence > previous) {
+                sequences[slot] = sequence;
+            }
+            return previous;
+        }
+
+        private void remove(long mostSigBits, long leastSigBits) {
+            int slot = slots.remove(mostSigBits, leastSigBits);
+            if (slot != UuidIntMap.NO_VALUE) {
+                if (freeCount == freeSlots.length) {
+                    freeSlots = Arrays.copyOf(freeSlots, freeCount * 2);
+                }
+                freeSlots[freeCount++] = slot;
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.AlarmStatus;
+
+/**
+ * A change to the system status, as delivered by {@link StatusEventPublisher}. There is one
+ * event type per {@link com.udasecurity.application.StatusListener} callback.
+ */
+public sealed interface StatusEvent {
+
+    record AlarmStatusChanged(AlarmStatus alarmStatus) implements StatusEvent {
+    }
+
+    record CatDetected(boolean catDetected) implements StatusEvent {
+    }
+
+    record SensorStatusChanged() implements StatusEvent {
+    }
+}
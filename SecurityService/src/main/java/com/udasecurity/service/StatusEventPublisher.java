@@ -0,0 +1,308 @@
+package com.udasecurity.service;
+
+import com.udasecurity.application.StatusListener;
+import com.udasecurity.data.AlarmStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Publishes {@link StatusEvent}s to any number of subscribers without letting a slow one hold up
+ * the alarm pipeline. Every subscriber gets its own {@link SubmissionPublisher}, so it has its own
+ * bounded buffer, receives events only as fast as it requests them, and runs on the executor
+ * rather than on the thread that changed the status. What happens when a subscriber's buffer is
+ * full is decided per subscriber by its {@link OverflowPolicy}.
+ *
+ * Consumers that only care about one kind of event can subscribe to that topic alone with
+ * {@link #on(Class, Consumer)}, or with {@link #onLatest(Class, Executor, Consumer)} if they only
+ * need the newest value: a UI label under load then skips the intermediate alarm statuses instead
+ * of painting each of them.
+ *
+ * Events reach each subscriber in the order they were published. Publishing with no subscribers
+ * costs a check of an empty list, and the events themselves are shared instances.
+ */
+public class StatusEventPublisher implements Flow.Publisher<StatusEvent>, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusEventPublisher.class);
+
+    public enum OverflowPolicy {
+        /** Wait for the subscriber to make room, holding up the thread that publishes. */
+        BLOCK,
+        /** Skip the event for this subscriber only, counting it in {@link #getDroppedEvents()}. */
+        DROP,
+        /** Give up on the subscriber: it receives onError and gets no further events. */
+        CANCEL
+    }
+
+    private static final StatusEvent[] ALARM_STATUS_CHANGED;
+    private static final StatusEvent CAT_DETECTED = new StatusEvent.CatDetected(true);
+    private static final StatusEvent NO_CAT_DETECTED = new StatusEvent.CatDetected(false);
+    private static final StatusEvent SENSOR_STATUS_CHANGED = new StatusEvent.SensorStatusChanged();
+
+    static {
+        AlarmStatus[] alarmStatuses = AlarmStatus.values();
+        ALARM_STATUS_CHANGED = new StatusEvent[alarmStatuses.length];
+        for (AlarmStatus alarmStatus : alarmStatuses) {
+            ALARM_STATUS_CHANGED[alarmStatus.ordinal()] = new StatusEvent.AlarmStatusChanged(alarmStatus);
+        }
+    }
+
+    /**
+     * Handle for a topic subscription. Closing it stops further events.
+     */
+    public interface TopicSubscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static final int ALARM_TOPIC = 0;
+    private static final int CAT_TOPIC = 1;
+    private static final int SENSOR_TOPIC = 2;
+
+    private record Channel(SubmissionPublisher<StatusEvent> publisher, OverflowPolicy overflowPolicy) {
+    }
+
+    private final Executor executor;
+    private final int bufferCapacity;
+    private final OverflowPolicy overflowPolicy;
+    private final List<Channel> channels = new CopyOnWriteArrayList<>();
+    private final List<List<Consumer<StatusEvent>>> topics = List.of(
+            new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>(), new CopyOnWriteArrayList<>());
+    private final LongAdder droppedEvents = new LongAdder();
+    private volatile boolean closed;
+
+    public StatusEventPublisher() {
+        this(defaultExecutor(), Flow.defaultBufferSize(), OverflowPolicy.DROP);
+    }
+
+    /**
+     * @param executor Runs the subscribers
+     * @param bufferCapacity Default number of events buffered per subscriber
+     * @param overflowPolicy Default policy for a subscriber whose buffer is full
+     */
+    public StatusEventPublisher(Executor executor, int bufferCapacity, OverflowPolicy overflowPolicy) {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        this.executor = executor;
+        this.bufferCapacity = bufferCapacity;
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super StatusEvent> subscriber) {
+        subscribe(subscriber, bufferCapacity, overflowPolicy);
+    }
+
+    /**
+     * Subscribes with a buffer size and overflow policy of its own. Buffer sizes are rounded up
+     * to a power of two.
+     */
+    public synchronized void subscribe(Flow.Subscriber<? super StatusEvent> subscriber, int bufferCapacity, OverflowPolicy overflowPolicy) {
+        SubmissionPublisher<StatusEvent> publisher = new SubmissionPublisher<>(executor, bufferCapacity);
+        if (closed) {
+            //a closed publisher completes the subscriber straight away
+            publisher.close();
+            publisher.subscribe(subscriber);
+            return;
+        }
+        publisher.subscribe(subscriber);
+        channels.add(new Channel(publisher, overflowPolicy));
+    }
+
+    /**
+     * Delivers the listener's callbacks on the executor instead of the alarm pipeline's threads.
+     */
+    public void subscribe(StatusListener statusListener) {
+        subscribe(new StatusListenerSubscriber(statusListener));
+    }
+
+    /**
+     * Calls the handler with every event of the given type, on the thread that publishes it. An
+     * exception from the handler is logged and does not reach the publishing thread. A handler
+     * registered after the publisher is closed is never called.
+     *
+     * @param eventType One of the {@link StatusEvent} record types
+     */
+    public synchronized <E extends StatusEvent> TopicSubscription on(Class<E> eventType, Consumer<? super E> handler) {
+        List<Consumer<StatusEvent>> topic = topics.get(topic(eventType));
+        if (closed) {
+            return () -> {
+            };
+        }
+        Consumer<StatusEvent> consumer = event -> handler.accept(eventType.cast(event));
+        topic.add(consumer);
+        return () -> topic.remove(consumer);
+    }
+
+    /**
+     * Calls the handler on the executor with the newest event of the given type. Events published
+     * while an earlier one is still waiting for the executor replace it, and the handler is never
+     * run for two events at once. Pass {@code SwingUtilities::invokeLater} to update a UI.
+     *
+     * @param eventType One of the {@link StatusEvent} record types
+     */
+    public <E extends StatusEvent> TopicSubscription onLatest(Class<E> eventType, Executor executor, Consumer<? super E> handler) {
+        return on(eventType, new LatestValue<E>(executor, handler));
+    }
+
+    public void alarmStatusChanged(AlarmStatus alarmStatus) {
+        if (hasSubscribers(ALARM_TOPIC)) {
+            submit(alarmStatus == null ? new StatusEvent.AlarmStatusChanged(null) : ALARM_STATUS_CHANGED[alarmStatus.ordinal()]);
+        }
+    }
+
+    public void catDetected(boolean catDetected) {
+        if (hasSubscribers(CAT_TOPIC)) {
+            submit(catDetected ? CAT_DETECTED : NO_CAT_DETECTED);
+        }
+    }
+
+    public void sensorStatusChanged() {
+        if (hasSubscribers(SENSOR_TOPIC)) {
+            submit(SENSOR_STATUS_CHANGED);
+        }
+    }
+
+    /**
+     * Hands the event to the handlers of its topic and to every subscriber, applying each
+     * subscriber's overflow policy if its buffer is full. Subscribers that have cancelled are let go.
+     */
+    public void submit(StatusEvent event) {
+        for (Consumer<StatusEvent> handler : topics.get(topic(event.getClass()))) {
+            //the status change has happened already, so a failing handler must not fail the publisher
+            try {
+                handler.accept(event);
+            } catch (RuntimeException e) {
+                log.error("Status event handler failed on {}", event, e);
+            }
+        }
+        for (Channel channel : channels) {
+            SubmissionPublisher<StatusEvent> publisher = channel.publisher();
+            if (!publisher.hasSubscribers()) {
+                channels.remove(channel);
+                publisher.close();
+                continue;
+            }
+            try {
+                switch (channel.overflowPolicy()) {
+                    case BLOCK -> publisher.submit(event);
+                    case DROP -> {
+                        if (publisher.offer(event, null) < 0) {
+                            droppedEvents.increment();
+                        }
+                    }
+                    case CANCEL -> {
+                        if (publisher.offer(event, null) < 0) {
+                            channels.remove(channel);
+                            publisher.closeExceptionally(new IllegalStateException("Status event buffer overflowed"));
+                        }
+                    }
+                }
+            } catch (IllegalStateException closedMeanwhile) {
+                channels.remove(channel);
+            }
+        }
+    }
+
+    /**
+     * @return number of events skipped for subscribers with the {@link OverflowPolicy#DROP} policy
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.sum();
+    }
+
+    /**
+     * @return number of Flow subscribers; topic subscriptions are not counted
+     */
+    public int getSubscriberCount() {
+        return channels.size();
+    }
+
+    /**
+     * Completes every subscriber once it has received the events already buffered for it, and
+     * ends every topic subscription.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (Channel channel : channels) {
+            channel.publisher().close();
+        }
+        channels.clear();
+        topics.forEach(List::clear);
+    }
+
+    private boolean hasSubscribers(int topic) {
+        return !channels.isEmpty() || !topics.get(topic).isEmpty();
+    }
+
+    private static int topic(Class<?> eventType) {
+        if (eventType == StatusEvent.AlarmStatusChanged.class) {
+            return ALARM_TOPIC;
+        }
+        if (eventType == StatusEvent.CatDetected.class) {
+            return CAT_TOPIC;
+        }
+        if (eventType == StatusEvent.SensorStatusChanged.class) {
+            return SENSOR_TOPIC;
+        }
+        throw new IllegalArgumentException("Not a status event type: " + eventType);
+    }
+
+    private static Executor defaultExecutor() {
+        //the same choice SubmissionPublisher makes for itself
+        return ForkJoinPool.getCommonPoolParallelism() > 1 ? ForkJoinPool.commonPool() : runnable -> new Thread(runnable).start();
+    }
+
+    /**
+     * Keeps only the newest event until the executor gets round to it. Whichever thread finds
+     * the counter at zero schedules a drain; the drain runs until no newer event has arrived.
+     */
+    private static final class LatestValue<E> implements Consumer<E>, Runnable {
+        private final Executor executor;
+        private final Consumer<? super E> handler;
+        private final AtomicReference<E> latest = new AtomicReference<>();
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private LatestValue(Executor executor, Consumer<? super E> handler) {
+            this.executor = executor;
+            this.handler = handler;
+        }
+
+        @Override
+        public void accept(E event) {
+            latest.set(event);
+            if (wip.getAndIncrement() == 0) {
+                executor.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            int missed = 1;
+            do {
+                E event = latest.getAndSet(null);
+                if (event != null) {
+                    try {
+                        handler.accept(event);
+                    } catch (RuntimeException e) {
+                        log.error("Status event handler failed on {}", event, e);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
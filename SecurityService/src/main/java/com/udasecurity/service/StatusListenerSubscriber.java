@@ -0,0 +1,46 @@
+package com.udasecurity.service;
+
+import com.udasecurity.application.StatusListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.Flow;
+
+/**
+ * Adapts a {@link StatusListener} to a subscriber of {@link StatusEvent}s, so existing listeners
+ * can be moved off the alarm pipeline's threads without changing them. Every event is requested
+ * up front; the buffer in front of the listener is bounded by the publisher.
+ */
+public class StatusListenerSubscriber implements Flow.Subscriber<StatusEvent> {
+
+    private static final Logger log = LoggerFactory.getLogger(StatusListenerSubscriber.class);
+
+    private final StatusListener statusListener;
+
+    public StatusListenerSubscriber(StatusListener statusListener) {
+        this.statusListener = statusListener;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(StatusEvent event) {
+        switch (event) {
+            case StatusEvent.AlarmStatusChanged alarm -> statusListener.notify(alarm.alarmStatus());
+            case StatusEvent.CatDetected cat -> statusListener.catDetected(cat.catDetected());
+            case StatusEvent.SensorStatusChanged changed -> statusListener.sensorStatusChanged();
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        log.warn("Status events for {} stopped", statusListener, throwable);
+    }
+
+    @Override
+    public void onComplete() {
+    }
+}
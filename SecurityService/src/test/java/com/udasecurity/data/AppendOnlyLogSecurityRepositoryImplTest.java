@@ -0,0 +1,118 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AppendOnlyLogSecurityRepositoryImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reopenedRepository_ReplaysEveryMutation() throws IOException {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+
+        try (AppendOnlyLogSecurityRepositoryImpl repository = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            repository.addSensor(window);
+            door.setActive(true);
+            repository.updateSensor(door);
+            repository.removeSensor(window);
+            repository.setArmingStatus(ArmingStatus.ARMED_AWAY);
+            repository.setAlarmStatus(AlarmStatus.PENDING_ALARM);
+        }
+
+        try (AppendOnlyLogSecurityRepositoryImpl reopened = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            assertEquals(1, reopened.getSensors().size());
+            Sensor replayed = reopened.getSensors().iterator().next();
+            assertEquals(door.getSensorId(), replayed.getSensorId());
+            assertEquals("FrontDoor", replayed.getName());
+            assertTrue(replayed.getActive());
+            assertEquals(ArmingStatus.ARMED_AWAY, reopened.getArmingStatus());
+            assertEquals(AlarmStatus.PENDING_ALARM, reopened.getAlarmStatus());
+        }
+    }
+
+    @Test
+    void deactivateAllSensors_IsOneRecordAndReplays() throws IOException {
+        Path logFile = tempDir.resolve("security-0.log");
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        door.setActive(true);
+        window.setActive(true);
+
+        try (AppendOnlyLogSecurityRepositoryImpl repository = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            repository.addSensor(window);
+            repository.flush();
+            long lengthBefore = Files.size(logFile);
+            repository.deactivateAllSensors();
+            repository.flush();
+            assertFalse(repository.hasActiveSensors());
+            // frame header plus the record type byte
+            assertEquals(lengthBefore + 9, Files.size(logFile));
+        }
+
+        try (AppendOnlyLogSecurityRepositoryImpl reopened = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            assertEquals(2, reopened.getSensors().size());
+            assertFalse(reopened.hasActiveSensors());
+        }
+    }
+
+    @Test
+    void tornRecordAtTail_IsDiscardedOnReplay() throws IOException {
+        Path logFile = tempDir.resolve("security-0.log");
+        Sensor motion = new Sensor("Hallway", SensorType.MOTION);
+
+        try (AppendOnlyLogSecurityRepositoryImpl repository = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(motion);
+        }
+        long intactLength = Files.size(logFile);
+
+        // simulate a crash in the middle of a commit
+        Files.write(logFile, new byte[]{0, 0, 0, 40, 1, 2}, StandardOpenOption.APPEND);
+
+        try (AppendOnlyLogSecurityRepositoryImpl reopened = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            assertEquals(1, reopened.getSensors().size());
+            reopened.setAlarmStatus(AlarmStatus.ALARM);
+        }
+        assertTrue(Files.size(logFile) > intactLength);
+
+        try (AppendOnlyLogSecurityRepositoryImpl reopened = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            assertEquals(AlarmStatus.ALARM, reopened.getAlarmStatus());
+            assertFalse(reopened.getSensors().isEmpty());
+        }
+    }
+
+    @Test
+    void compaction_WritesSnapshotAndReplaysOnlyLaterLog() throws IOException {
+        Sensor door = new Sensor("BackDoor", SensorType.DOOR);
+        Sensor window = new Sensor("BedroomWindow", SensorType.WINDOW);
+
+        try (AppendOnlyLogSecurityRepositoryImpl repository = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            repository.setArmingStatus(ArmingStatus.ARMED_HOME);
+            repository.compact();
+            repository.addSensor(window);
+            window.setActive(true);
+            repository.updateSensor(window);
+        }
+
+        assertTrue(Files.exists(tempDir.resolve("security-1.snapshot")));
+        assertFalse(Files.exists(tempDir.resolve("security-0.log")));
+
+        try (AppendOnlyLogSecurityRepositoryImpl reopened = new AppendOnlyLogSecurityRepositoryImpl(tempDir)) {
+            assertEquals(2, reopened.getSensors().size());
+            assertTrue(reopened.getSensors().stream().anyMatch(s -> s.getSensorId().equals(window.getSensorId()) && s.getActive()));
+            assertEquals(ArmingStatus.ARMED_HOME, reopened.getArmingStatus());
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedFileSecurityRepositoryImplTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void storedSensor_RoundTrips() throws IOException {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        door.setActive(true);
+
+        try (MappedFileSecurityRepositoryImpl repository = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            repository.setArmingStatus(ArmingStatus.ARMED_HOME);
+            repository.setAlarmStatus(AlarmStatus.PENDING_ALARM);
+
+            Sensor stored = repository.findById(door.getSensorId()).orElseThrow();
+            assertEquals("FrontDoor", stored.getName());
+            assertEquals(SensorType.DOOR, stored.getSensorType());
+            assertTrue(stored.getActive());
+            assertEquals(ArmingStatus.ARMED_HOME, repository.getArmingStatus());
+            assertEquals(AlarmStatus.PENDING_ALARM, repository.getAlarmStatus());
+        }
+    }
+
+    @Test
+    void reopenedRepository_RestoresSensorsAndCounters() throws IOException {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+
+        try (MappedFileSecurityRepositoryImpl repository = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            repository.addSensor(window);
+            window.setActive(true);
+            window.setName("BayWindow");
+            repository.updateSensor(window);
+            repository.setArmingStatus(ArmingStatus.ARMED_AWAY);
+        }
+
+        try (MappedFileSecurityRepositoryImpl reopened = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            assertEquals(Set.of(door, window), reopened.getSensors());
+            assertEquals("BayWindow", reopened.findById(window.getSensorId()).orElseThrow().getName());
+            assertEquals(1, reopened.getActiveSensorCount());
+            assertEquals(1, reopened.getActiveSensorCount(SensorType.WINDOW));
+            assertEquals(Set.of(window), reopened.findActive());
+            assertEquals(ArmingStatus.ARMED_AWAY, reopened.getArmingStatus());
+        }
+    }
+
+    @Test
+    void renameToNameWithSameHash_IsStored() throws IOException {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        Sensor door = new Sensor("Aa", SensorType.DOOR);
+
+        try (MappedFileSecurityRepositoryImpl repository = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            door.setName("BB");
+            repository.updateSensor(door);
+
+            assertEquals("BB", repository.findById(door.getSensorId()).orElseThrow().getName());
+        }
+    }
+
+    @Test
+    void removeSensor_MovesLastRecordIntoFreedSlot() throws IOException {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        Sensor motion = new Sensor("Hallway", SensorType.MOTION);
+        motion.setActive(true);
+
+        try (MappedFileSecurityRepositoryImpl repository = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            repository.addSensor(window);
+            repository.addSensor(motion);
+
+            repository.removeSensor(door);
+
+            assertEquals(Set.of(window, motion), repository.getSensors());
+            Sensor moved = repository.findById(motion.getSensorId()).orElseThrow();
+            assertEquals("Hallway", moved.getName());
+            assertTrue(moved.getActive());
+            assertEquals(1, repository.getActiveSensorCount(SensorType.MOTION));
+            assertTrue(repository.findById(door.getSensorId()).isEmpty());
+        }
+
+        try (MappedFileSecurityRepositoryImpl reopened = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            assertEquals(Set.of(window, motion), reopened.getSensors());
+        }
+    }
+
+    @Test
+    void growingPastInitialCapacity_RemapsAndKeepsRecords() throws IOException {
+        int sensorCount = 3000;
+        Sensor first = null;
+        try (MappedFileSecurityRepositoryImpl repository = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            for (int i = 0; i < sensorCount; i++) {
+                Sensor sensor = new Sensor("Sensor " + i, SensorType.values()[i % SensorType.values().length]);
+                sensor.setActive(i % 2 == 0);
+                repository.addSensor(sensor);
+                if (first == null) {
+                    first = sensor;
+                }
+            }
+            assertEquals(sensorCount, repository.getSensors().size());
+            assertEquals("Sensor 0", repository.findById(first.getSensorId()).orElseThrow().getName());
+            assertEquals(sensorCount / 2, repository.getActiveSensorCount());
+        }
+
+        try (MappedFileSecurityRepositoryImpl reopened = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            assertEquals(sensorCount, reopened.getSensors().size());
+            assertEquals(sensorCount / 2, reopened.findActive().size());
+            assertEquals(sensorCount / 3, reopened.findByType(SensorType.MOTION).size());
+        }
+    }
+
+    @Test
+    void deactivateAllSensors_ClearsFlagsAndCounters() throws IOException {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        door.setActive(true);
+        window.setActive(true);
+
+        try (MappedFileSecurityRepositoryImpl repository = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            repository.addSensor(door);
+            repository.addSensor(window);
+
+            repository.deactivateAllSensors();
+
+            assertFalse(repository.hasActiveSensors());
+            assertTrue(repository.findActive().isEmpty());
+            assertEquals(Set.of(door), repository.findByType(SensorType.DOOR));
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiSiteSecurityRepositoryTest {
+
+    /**
+     * Partition that records being closed and can be told to fail doing so.
+     */
+    private static class CloseablePartition extends ColumnarSecurityRepositoryImpl implements Closeable {
+        boolean closed;
+        boolean failOnClose;
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            if (failOnClose) {
+                throw new IOException("cannot close");
+            }
+        }
+    }
+
+    @Test
+    void sites_KeepSeparateState() {
+        MultiSiteSecurityRepository repository = new MultiSiteSecurityRepository();
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+
+        repository.site("home").addSensor(door);
+        repository.site("home").setArmingStatus(ArmingStatus.ARMED_AWAY);
+
+        assertSame(repository.site("home"), repository.site("home"));
+        assertEquals(Set.of(door), repository.site("home").getSensors());
+        assertTrue(repository.site("office").getSensors().isEmpty());
+        assertEquals(ArmingStatus.DISARMED, repository.site("office").getArmingStatus());
+        assertEquals(Set.of("home", "office"), repository.getSiteIds());
+    }
+
+    @Test
+    void removeSite_ClosesAndForgetsThePartition() throws IOException {
+        List<CloseablePartition> partitions = new ArrayList<>();
+        MultiSiteSecurityRepository repository = new MultiSiteSecurityRepository(siteId -> {
+            CloseablePartition partition = new CloseablePartition();
+            partitions.add(partition);
+            return partition;
+        });
+        repository.site("home").addSensor(new Sensor("FrontDoor", SensorType.DOOR));
+
+        repository.removeSite("home");
+
+        assertTrue(partitions.get(0).closed);
+        assertTrue(repository.findSite("home").isEmpty());
+        assertTrue(repository.site("home").getSensors().isEmpty());
+        assertEquals(2, partitions.size());
+    }
+
+    @Test
+    void close_ClosesEverySiteAndRethrowsFirstFailure() {
+        List<CloseablePartition> partitions = new ArrayList<>();
+        MultiSiteSecurityRepository repository = new MultiSiteSecurityRepository(siteId -> {
+            CloseablePartition partition = new CloseablePartition();
+            partition.failOnClose = siteId.equals("broken");
+            partitions.add(partition);
+            return partition;
+        });
+        repository.site("home");
+        repository.site("broken");
+        repository.site("office");
+
+        assertThrows(IOException.class, repository::close);
+
+        assertTrue(partitions.stream().allMatch(partition -> partition.closed));
+        assertEquals(0, repository.getSiteCount());
+    }
+}
@@ -0,0 +1,112 @@
+package com.udasecurity.data;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.*;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Compares encode and decode throughput of the reflective Gson path the preferences store used to
+ * take with the hand-written JSON and binary codecs. Run the main method directly; the first
+ * rounds include JIT warm-up, which is part of what the cold-start numbers are about.
+ */
+public class SensorCodecBenchmark {
+
+    private static final int SENSORS = 10_000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) throws IOException {
+        List<Sensor> sensors = new ArrayList<>(SENSORS);
+        SensorType[] types = SensorType.values();
+        for (int i = 0; i < SENSORS; i++) {
+            Sensor sensor = new Sensor("Sensor " + i, types[i % types.length]);
+            sensor.setActive(i % 3 == 0);
+            sensors.add(sensor);
+        }
+
+        Gson gson = new Gson();
+        Type setType = new TypeToken<Set<Sensor>>() {}.getType();
+        for (int round = 1; round <= ROUNDS; round++) {
+            long start = System.nanoTime();
+            String reflectiveJson = gson.toJson(sensors);
+            long reflectiveEncode = System.nanoTime() - start;
+            start = System.nanoTime();
+            Set<Sensor> reflectiveRead = gson.fromJson(reflectiveJson, setType);
+            long reflectiveDecode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            String codecJson = encodeJson(sensors);
+            long codecEncode = System.nanoTime() - start;
+            start = System.nanoTime();
+            List<Sensor> codecRead = decodeJson(codecJson);
+            long codecDecode = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            byte[] binary = encodeBinary(sensors);
+            long binaryEncode = System.nanoTime() - start;
+            start = System.nanoTime();
+            List<Sensor> binaryRead = decodeBinary(binary);
+            long binaryDecode = System.nanoTime() - start;
+
+            if (reflectiveRead.size() != SENSORS || codecRead.size() != SENSORS || binaryRead.size() != SENSORS) {
+                throw new IllegalStateException("Decoded sensor count mismatch");
+            }
+            System.out.printf("round %2d  gson %s / %s  codec json %s / %s  codec binary %s / %s (encode / decode, sensors per ms)%n",
+                    round, rate(reflectiveEncode), rate(reflectiveDecode), rate(codecEncode), rate(codecDecode),
+                    rate(binaryEncode), rate(binaryDecode));
+        }
+    }
+
+    private static String encodeJson(List<Sensor> sensors) throws IOException {
+        StringWriter json = new StringWriter(SENSORS * 128);
+        JsonWriter writer = new JsonWriter(json);
+        writer.beginArray();
+        for (Sensor sensor : sensors) {
+            SensorCodec.writeJson(writer, sensor);
+        }
+        writer.endArray();
+        writer.flush();
+        return json.toString();
+    }
+
+    private static List<Sensor> decodeJson(String json) throws IOException {
+        List<Sensor> sensors = new ArrayList<>(SENSORS);
+        JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginArray();
+        while (reader.hasNext()) {
+            sensors.add(SensorCodec.readJson(reader));
+        }
+        reader.endArray();
+        return sensors;
+    }
+
+    private static byte[] encodeBinary(List<Sensor> sensors) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(SENSORS * 48);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(sensors.size());
+        for (Sensor sensor : sensors) {
+            SensorCodec.writeSensor(out, sensor);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static List<Sensor> decodeBinary(byte[] binary) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(binary));
+        int count = in.readInt();
+        List<Sensor> sensors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sensors.add(SensorCodec.readSensor(in));
+        }
+        return sensors;
+    }
+
+    private static String rate(long nanos) {
+        return String.format("%6d", SENSORS * 1_000_000L / Math.max(nanos, 1));
+    }
+}
@@ -0,0 +1,52 @@
+package com.udasecurity.data;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import org.junit.jupiter.api.Test;
+
+import java.io.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorCodecTest {
+
+    @Test
+    void readJson_AcceptsSensorsWrittenByReflectiveGson() throws IOException {
+        Sensor stored = new Sensor("FrontDoor", SensorType.DOOR);
+        stored.setActive(true);
+        String legacy = new Gson().toJson(stored);
+
+        Sensor read = SensorCodec.readJson(new JsonReader(new StringReader(legacy)));
+
+        assertSameFields(stored, read);
+    }
+
+    @Test
+    void writeJson_IsReadableByReflectiveGson() throws IOException {
+        Sensor sensor = new Sensor("Hallway", SensorType.MOTION);
+        StringWriter json = new StringWriter();
+        SensorCodec.writeJson(new JsonWriter(json), sensor);
+
+        assertSameFields(sensor, new Gson().fromJson(json.toString(), Sensor.class));
+    }
+
+    @Test
+    void binaryRoundTrip_KeepsAllFields() throws IOException {
+        Sensor sensor = new Sensor("KitchenWindow", SensorType.WINDOW);
+        sensor.setActive(true);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SensorCodec.writeSensor(new DataOutputStream(bytes), sensor);
+
+        Sensor read = SensorCodec.readSensor(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertSameFields(sensor, read);
+    }
+
+    private static void assertSameFields(Sensor expected, Sensor actual) {
+        assertEquals(expected.getSensorId(), actual.getSensorId());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getSensorType(), actual.getSensorType());
+        assertEquals(expected.getActive(), actual.getActive());
+    }
+}
@@ -0,0 +1,114 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorStoreTest {
+
+    @Test
+    void typeChange_MovesSensorBetweenTypeIndexesAndCounters() {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        door.setActive(true);
+        SensorStore store = new SensorStore(List.of(door));
+
+        door.setSensorType(SensorType.WINDOW);
+        store.update(door);
+
+        assertTrue(store.findByType(SensorType.DOOR).isEmpty());
+        assertEquals(Set.of(door), store.findByType(SensorType.WINDOW));
+        assertEquals(0, store.activeCount(SensorType.DOOR));
+        assertEquals(1, store.activeCount(SensorType.WINDOW));
+        assertEquals(1, store.activeCount());
+    }
+
+    @Test
+    void activityChange_UpdatesActiveIndexAndCounters() {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        SensorStore store = new SensorStore(List.of(door, window));
+
+        door.setActive(true);
+        store.update(door);
+        assertEquals(Set.of(door), store.findActive());
+        assertEquals(1, store.activeCount(SensorType.DOOR));
+
+        door.setActive(false);
+        store.update(door);
+        assertTrue(store.findActive().isEmpty());
+        assertEquals(0, store.activeCount());
+        assertEquals(0, store.activeCount(SensorType.DOOR));
+    }
+
+    @Test
+    void replacedInstance_IsTheOneTheIndexesReturn() {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        door.setActive(true);
+        SensorStore store = new SensorStore(List.of(door));
+        Sensor copy = new Sensor(door.getSensorId(), "BackDoor", SensorType.DOOR, true);
+
+        store.update(copy);
+
+        assertSame(copy, store.findById(door.getSensorId()).orElseThrow());
+        assertSame(copy, store.findByType(SensorType.DOOR).iterator().next());
+        assertSame(copy, store.findActive().iterator().next());
+        assertSame(copy, store.sorted().iterator().next());
+        assertEquals(1, store.activeCount(SensorType.DOOR));
+        assertEquals(1, store.size());
+    }
+
+    @Test
+    void remove_ClearsEveryIndex() {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        door.setActive(true);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        SensorStore store = new SensorStore(List.of(door, window));
+
+        store.remove(door);
+        store.remove(door);
+
+        assertEquals(1, store.size());
+        assertTrue(store.findById(door.getSensorId()).isEmpty());
+        assertTrue(store.findByType(SensorType.DOOR).isEmpty());
+        assertTrue(store.findActive().isEmpty());
+        assertEquals(0, store.activeCount(SensorType.DOOR));
+        assertEquals(Set.of(window), store.sorted());
+    }
+
+    @Test
+    void deactivateAll_ClearsActiveSensorsAndLaterUpdatesSeeThem() {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        door.setActive(true);
+        window.setActive(true);
+        SensorStore store = new SensorStore(List.of(door, window));
+
+        store.deactivateAll();
+
+        assertFalse(door.getActive());
+        assertEquals(0, store.activeCount());
+        door.setActive(true);
+        store.update(door);
+        assertEquals(Set.of(door), store.findActive());
+        assertEquals(1, store.activeCount(SensorType.DOOR));
+        assertEquals(0, store.activeCount(SensorType.WINDOW));
+    }
+
+    @Test
+    void sorted_FollowsRenamesButNotLaterAdditions() {
+        Sensor door = new Sensor("B", SensorType.DOOR);
+        Sensor window = new Sensor("C", SensorType.WINDOW);
+        SensorStore store = new SensorStore(List.of(door, window));
+        Set<Sensor> before = store.sorted();
+
+        store.add(new Sensor("A", SensorType.MOTION));
+        window.setName("0");
+        store.update(window);
+
+        assertEquals(List.of(door, window), List.copyOf(before));
+        assertEquals(List.of("0", "A", "B"), store.sorted().stream().map(Sensor::getName).toList());
+    }
+}
@@ -0,0 +1,80 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorTableTest {
+
+    @Test
+    void removingARow_KeepsViewsOfOtherSensorsPointingAtTheirOwnData() {
+        SensorTable table = new SensorTable();
+        Sensor door = table.put(new Sensor("FrontDoor", SensorType.DOOR));
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        window.setActive(true);
+        Sensor windowView = table.put(window);
+        Sensor motion = table.put(new Sensor("Hallway", SensorType.MOTION));
+
+        assertTrue(table.remove(door.getSensorId()));
+
+        assertEquals(2, table.size());
+        assertEquals("KitchenWindow", windowView.getName());
+        assertTrue(windowView.getActive());
+        assertEquals(SensorType.MOTION, motion.getSensorType());
+        assertFalse(motion.getActive());
+        assertEquals(window, windowView);
+        assertThrows(IllegalStateException.class, door::getName);
+    }
+
+    @Test
+    void viewSetters_UpdateActivationBits() {
+        SensorTable table = new SensorTable(1);
+        for (int i = 0; i < 100; i++) {
+            table.put(new Sensor("Sensor " + i, SensorType.DOOR));
+        }
+        Sensor last = table.sorted().get(99);
+        assertFalse(table.anyActive());
+
+        last.setActive(true);
+
+        assertTrue(table.anyActive());
+        assertEquals(1, table.activeCount());
+        assertEquals(1, table.activeCount(SensorType.DOOR));
+        assertEquals(0, table.activeCount(SensorType.WINDOW));
+        assertEquals(last, table.findActive().get(0));
+    }
+
+    @Test
+    void activeCounters_FollowTypeChangesRemovalsAndDeactivation() {
+        SensorTable table = new SensorTable();
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        door.setActive(true);
+        Sensor doorView = table.put(door);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        window.setActive(true);
+        table.put(window);
+        Sensor motion = table.put(new Sensor("Hallway", SensorType.MOTION));
+
+        doorView.setSensorType(SensorType.MOTION);
+        assertEquals(0, table.activeCount(SensorType.DOOR));
+        assertEquals(1, table.activeCount(SensorType.MOTION));
+
+        window.setSensorType(SensorType.DOOR);
+        table.put(window);
+        assertEquals(0, table.activeCount(SensorType.WINDOW));
+        assertEquals(1, table.activeCount(SensorType.DOOR));
+
+        table.remove(door.getSensorId());
+        assertEquals(1, table.activeCount());
+        assertEquals(0, table.activeCount(SensorType.MOTION));
+
+        motion.setActive(true);
+        motion.setActive(true);
+        assertEquals(2, table.activeCount());
+
+        table.deactivateAll();
+        assertFalse(table.anyActive());
+        assertEquals(0, table.activeCount(SensorType.DOOR));
+        assertEquals(0, table.activeCount(SensorType.MOTION));
+    }
+}
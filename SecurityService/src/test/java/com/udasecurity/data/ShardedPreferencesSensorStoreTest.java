@@ -0,0 +1,193 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.prefs.AbstractPreferences;
+import java.util.prefs.Preferences;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ShardedPreferencesSensorStoreTest {
+
+    /**
+     * In-memory preferences node that can be told to fail writes to one key, standing in for a
+     * crash part way through a write.
+     */
+    private static class MemoryPreferences extends AbstractPreferences {
+        final Map<String, String> values = new HashMap<>();
+        String failingKey;
+
+        MemoryPreferences() {
+            super(null, "");
+        }
+
+        @Override
+        protected void putSpi(String key, String value) {
+            if (key.equals(failingKey)) {
+                throw new IllegalStateException("crashed writing " + key);
+            }
+            values.put(key, value);
+        }
+
+        @Override
+        protected String getSpi(String key) {
+            return values.get(key);
+        }
+
+        @Override
+        protected void removeSpi(String key) {
+            values.remove(key);
+        }
+
+        @Override
+        protected void removeNodeSpi() {
+        }
+
+        @Override
+        protected String[] keysSpi() {
+            return values.keySet().toArray(new String[0]);
+        }
+
+        @Override
+        protected String[] childrenNamesSpi() {
+            return new String[0];
+        }
+
+        @Override
+        protected AbstractPreferences childSpi(String name) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        protected void syncSpi() {
+        }
+
+        @Override
+        protected void flushSpi() {
+        }
+    }
+
+    private final MemoryPreferences prefs = new MemoryPreferences();
+
+    private static List<Sensor> sensors(int count) {
+        List<Sensor> sensors = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sensors.add(new Sensor("Sensor " + i, SensorType.values()[i % SensorType.values().length]));
+        }
+        return sensors;
+    }
+
+    private Set<Sensor> reload() {
+        Set<Sensor> loaded = new HashSet<>();
+        new ShardedPreferencesSensorStore(prefs, "SENSORS").read(loaded::add);
+        return loaded;
+    }
+
+    @Test
+    void sensorsSpreadOverSeveralShards_RoundTrip() {
+        List<Sensor> sensors = sensors(500);
+        sensors.get(7).setActive(true);
+
+        new ShardedPreferencesSensorStore(prefs, "SENSORS").write(sensors);
+
+        assertTrue(prefs.values.values().stream().allMatch(v -> v.length() <= Preferences.MAX_VALUE_LENGTH));
+        assertTrue(prefs.values.size() > 2);
+        Set<Sensor> loaded = reload();
+        assertEquals(new HashSet<>(sensors), loaded);
+        assertTrue(loaded.stream().filter(Sensor::getActive).allMatch(sensors.get(7)::equals));
+    }
+
+    @Test
+    void addingOneSensor_RewritesOnlyItsShard() {
+        List<Sensor> sensors = sensors(500);
+        ShardedPreferencesSensorStore store = new ShardedPreferencesSensorStore(prefs, "SENSORS");
+        store.write(sensors);
+        Map<String, String> before = new HashMap<>(prefs.values);
+
+        //sorts ahead of every other sensor, which used to shift every shard
+        sensors.add(0, new Sensor("A first sensor", SensorType.DOOR));
+        store.write(sensors);
+
+        Set<String> changedShards = new HashSet<>(prefs.values.keySet());
+        changedShards.removeAll(before.keySet());
+        changedShards.removeIf(key -> key.startsWith("SENSORS_INDEX"));
+        assertEquals(1, changedShards.size());
+        assertEquals(before.size(), prefs.values.size());
+        assertEquals(new HashSet<>(sensors), reload());
+    }
+
+    @Test
+    void indexLongerThanOneValue_IsSplitIntoParts() {
+        //a few sensors fill a shard, so skew pushes the shard count past what one index value can list
+        List<Sensor> sensors = sensors(1500);
+        sensors.forEach(sensor -> sensor.setName(sensor.getName() + " " + "x".repeat(2000)));
+        ShardedPreferencesSensorStore store = new ShardedPreferencesSensorStore(prefs, "SENSORS");
+
+        store.write(sensors);
+
+        assertTrue(prefs.values.values().stream().allMatch(v -> v.length() <= Preferences.MAX_VALUE_LENGTH));
+        String index = prefs.values.entrySet().stream()
+                .filter(e -> e.getKey().startsWith("SENSORS_INDEX_"))
+                .map(Map.Entry::getValue)
+                .reduce("", String::concat);
+        assertTrue(index.length() > Preferences.MAX_VALUE_LENGTH);
+        assertEquals(new HashSet<>(sensors), reload());
+
+        sensors.get(0).setActive(true);
+        store.write(sensors);
+        assertEquals(new HashSet<>(sensors), reload());
+    }
+
+    @Test
+    void writeInterruptedBeforeIndex_LeavesPreviousSensorsReadable() {
+        List<Sensor> sensors = sensors(500);
+        ShardedPreferencesSensorStore store = new ShardedPreferencesSensorStore(prefs, "SENSORS");
+        store.write(sensors);
+        Set<Sensor> stored = new HashSet<>(sensors);
+
+        sensors.forEach(sensor -> sensor.setName(sensor.getName() + " renamed"));
+        prefs.failingKey = "SENSORS_INDEX";
+        assertThrows(IllegalStateException.class, () -> store.write(sensors));
+        prefs.failingKey = null;
+
+        Set<Sensor> loaded = reload();
+        assertEquals(stored, loaded);
+        assertTrue(loaded.stream().noneMatch(sensor -> sensor.getName().endsWith("renamed")));
+    }
+
+    @Test
+    void missingShard_IsReportedInsteadOfLoadingPartially() {
+        new ShardedPreferencesSensorStore(prefs, "SENSORS").write(sensors(10));
+        prefs.values.keySet().removeIf(key -> !key.equals("SENSORS_INDEX"));
+
+        assertThrows(IllegalStateException.class, this::reload);
+    }
+
+    @Test
+    void olderLayouts_AreReadAndRemovedOnNextWrite() {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        ShardedPreferencesSensorStore store = new ShardedPreferencesSensorStore(prefs, "SENSORS");
+        store.write(List.of(door));
+        String shard = prefs.values.values().stream().filter(v -> v.startsWith("[")).findFirst().orElseThrow();
+        prefs.values.clear();
+        prefs.put("SENSORS_SHARDS", "2");
+        prefs.put("SENSORS_0", shard);
+        prefs.put("SENSORS_1", "[]");
+
+        Set<Sensor> loaded = new HashSet<>();
+        store.read(loaded::add);
+        assertEquals(Set.of(door), loaded);
+
+        store.write(List.of(door, window));
+        assertFalse(prefs.values.containsKey("SENSORS_SHARDS"));
+        assertFalse(prefs.values.containsKey("SENSORS_0"));
+        assertFalse(prefs.values.containsKey("SENSORS_1"));
+        assertEquals(Set.of(door, window), reload());
+
+        prefs.values.clear();
+        prefs.put("SENSORS", shard);
+        assertEquals(Set.of(door), reload());
+    }
+}
@@ -0,0 +1,69 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class UuidIntMapTest {
+
+    @Test
+    void putGetRemove_BehaveLikeAMap() {
+        UuidIntMap map = new UuidIntMap();
+        UUID id = UUID.randomUUID();
+
+        assertEquals(UuidIntMap.NO_VALUE, map.put(id, 7));
+        assertEquals(7, map.put(id, 8));
+        assertEquals(8, map.get(id));
+        assertEquals(1, map.size());
+
+        assertEquals(8, map.remove(id));
+        assertEquals(UuidIntMap.NO_VALUE, map.get(id));
+        assertEquals(UuidIntMap.NO_VALUE, map.remove(id));
+        assertEquals(0, map.size());
+    }
+
+    @Test
+    void negativeValue_IsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new UuidIntMap().put(UUID.randomUUID(), -1));
+    }
+
+    @Test
+    void sequentialIds_SurviveGrowthAndRemovalInsideProbeRuns() {
+        //sequential ids cluster in the table, so removals exercise the backward shift
+        UuidIntMap map = new UuidIntMap(4);
+        Map<UUID, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 5000; i++) {
+            UUID id = new UUID(0, i);
+            map.put(id, i);
+            expected.put(id, i);
+        }
+        Random random = new Random(42);
+        for (int i = 0; i < 2500; i++) {
+            UUID id = new UUID(0, random.nextInt(5000));
+            assertEquals(expected.containsKey(id) ? expected.remove(id) : UuidIntMap.NO_VALUE, map.remove(id));
+        }
+
+        assertEquals(expected.size(), map.size());
+        for (int i = 0; i < 5000; i++) {
+            UUID id = new UUID(0, i);
+            assertEquals(expected.getOrDefault(id, UuidIntMap.NO_VALUE), map.get(id));
+        }
+    }
+
+    @Test
+    void clear_RemovesEveryEntry() {
+        UuidIntMap map = new UuidIntMap();
+        UUID id = UUID.randomUUID();
+        map.put(id, 1);
+
+        map.clear();
+
+        assertEquals(0, map.size());
+        assertEquals(UuidIntMap.NO_VALUE, map.get(id));
+    }
+}
@@ -0,0 +1,169 @@
+package com.udasecurity.data;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class WriteBehindSecurityRepositoryTest {
+
+    /**
+     * Delegate that records the calls it receives, in order, and can be told to fail.
+     */
+    private static class RecordingRepository implements SecurityRepository {
+        final List<String> calls = Collections.synchronizedList(new ArrayList<>());
+        volatile boolean failing;
+
+        private void record(String call) {
+            if (failing) {
+                throw new IllegalStateException("delegate unavailable");
+            }
+            calls.add(call);
+        }
+
+        @Override
+        public void addSensor(Sensor sensor) {
+            record("add " + sensor.getName() + (sensor.getActive() ? " active" : ""));
+        }
+
+        @Override
+        public void removeSensor(Sensor sensor) {
+            record("remove " + sensor.getName());
+        }
+
+        @Override
+        public void updateSensor(Sensor sensor) {
+            record("update " + sensor.getName());
+        }
+
+        @Override
+        public void updateSensors(Collection<Sensor> sensors) {
+            record("update " + sensors.stream().map(Sensor::getName).toList());
+        }
+
+        @Override
+        public void deactivateAllSensors() {
+            record("deactivateAll");
+        }
+
+        @Override
+        public void setAlarmStatus(AlarmStatus alarmStatus) {
+            record("alarm " + alarmStatus);
+        }
+
+        @Override
+        public void setArmingStatus(ArmingStatus armingStatus) {
+            record("arming " + armingStatus);
+        }
+
+        @Override
+        public Set<Sensor> getSensors() {
+            return new TreeSet<>();
+        }
+
+        @Override
+        public AlarmStatus getAlarmStatus() {
+            return AlarmStatus.NO_ALARM;
+        }
+
+        @Override
+        public ArmingStatus getArmingStatus() {
+            return ArmingStatus.DISARMED;
+        }
+    }
+
+    private static final WriteBehindSecurityRepository.FlushPolicy MANUAL_FLUSH =
+            new WriteBehindSecurityRepository.FlushPolicy(1, TimeUnit.HOURS, 1000);
+
+    private final RecordingRepository delegate = new RecordingRepository();
+    private WriteBehindSecurityRepository repository;
+
+    @AfterEach
+    void close() throws IOException {
+        delegate.failing = false;
+        if (repository != null) {
+            repository.close();
+        }
+    }
+
+    @Test
+    void repeatedWritesToOneSensor_CollapseToTheLatest() {
+        repository = new WriteBehindSecurityRepository(delegate, MANUAL_FLUSH);
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        Sensor motion = new Sensor("Hallway", SensorType.MOTION);
+        repository.addSensor(door);
+        door.setActive(true);
+        repository.updateSensor(door);
+        repository.addSensor(window);
+        repository.removeSensor(window);
+        repository.updateSensor(motion);
+        repository.updateSensor(motion);
+        repository.setAlarmStatus(AlarmStatus.PENDING_ALARM);
+        repository.setAlarmStatus(AlarmStatus.ALARM);
+
+        repository.flush();
+
+        assertEquals(List.of("add FrontDoor active", "remove KitchenWindow", "update [Hallway]", "alarm ALARM"),
+                delegate.calls);
+        assertTrue(repository.findActive().contains(door));
+    }
+
+    @Test
+    void repeatedDeactivations_ReachDelegateOnceAfterEarlierWrites() {
+        repository = new WriteBehindSecurityRepository(delegate, MANUAL_FLUSH);
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        Sensor motion = new Sensor("Hallway", SensorType.MOTION);
+        repository.updateSensor(door);
+        repository.deactivateAllSensors();
+        repository.updateSensor(window);
+        repository.deactivateAllSensors();
+        repository.updateSensor(motion);
+
+        repository.flush();
+
+        assertEquals(List.of("update [FrontDoor, KitchenWindow]", "deactivateAll", "update [Hallway]"), delegate.calls);
+    }
+
+    @Test
+    void reachingPendingWriteLimit_FlushesBeforeTheDelay() {
+        repository = new WriteBehindSecurityRepository(delegate,
+                new WriteBehindSecurityRepository.FlushPolicy(1, TimeUnit.HOURS, 2));
+        repository.addSensor(new Sensor("FrontDoor", SensorType.DOOR));
+        assertTrue(delegate.calls.isEmpty());
+
+        repository.addSensor(new Sensor("KitchenWindow", SensorType.WINDOW));
+
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (delegate.calls.size() < 2 && System.nanoTime() < deadline) {
+            Thread.onSpinWait();
+        }
+        assertEquals(List.of("add FrontDoor", "add KitchenWindow"), delegate.calls);
+    }
+
+    @Test
+    void failedFlush_RequeuesBatchAheadOfNewerWrites() {
+        repository = new WriteBehindSecurityRepository(delegate, MANUAL_FLUSH);
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        repository.addSensor(door);
+        repository.deactivateAllSensors();
+        repository.setArmingStatus(ArmingStatus.ARMED_HOME);
+        delegate.failing = true;
+
+        assertThrows(IllegalStateException.class, repository::flush);
+
+        delegate.failing = false;
+        repository.addSensor(window);
+        repository.setArmingStatus(ArmingStatus.ARMED_AWAY);
+        repository.flush();
+
+        assertEquals(List.of("add FrontDoor", "deactivateAll", "add KitchenWindow", "arming ARMED_AWAY"),
+                delegate.calls);
+    }
+}
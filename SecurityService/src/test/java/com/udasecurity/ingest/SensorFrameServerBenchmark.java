@@ -0,0 +1,59 @@
+package com.udasecurity.ingest;
+
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.ColumnarSecurityRepositoryImpl;
+import com.udasecurity.data.Sensor;
+import com.udasecurity.data.SensorType;
+import com.udasecurity.service.SecurityService;
+import com.udasecurity.service.image.FakeImageService;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Measures how many sensor frames per second {@link SensorFrameServer} applies to a
+ * {@link SecurityService} over loopback, from the first frame sent until the server has applied
+ * the last one. The repository is the in-memory columnar one, so the figure covers decoding,
+ * the alarm transitions and storing the sensors. Run the main method directly; the optional
+ * arguments are the number of connections and the frames each one sends.
+ */
+public class SensorFrameServerBenchmark {
+
+    private static final int SENSORS = 1024;
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int connections = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long framesPerConnection = args.length > 1 ? Long.parseLong(args[1]) : 1_000_000;
+
+        SecurityService service = new SecurityService(new ColumnarSecurityRepositoryImpl(SENSORS), new FakeImageService());
+        service.setArmingStatus(ArmingStatus.ARMED_AWAY);
+        List<UUID> sensorIds = new ArrayList<>();
+        for (int i = 0; i < SENSORS; i++) {
+            Sensor sensor = new Sensor("Sensor " + i, SensorType.DOOR);
+            service.addSensor(sensor);
+            sensorIds.add(sensor.getSensorId());
+        }
+
+        try (SensorFrameServer server = new SensorFrameServer(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+            for (int round = 1; round <= ROUNDS; round++) {
+                long expected = server.getFrameCount() + connections * framesPerConnection;
+                long start = System.nanoTime();
+                //each round numbers its frames after the previous round's, so none are dropped as retries
+                long firstSequence = (round - 1) * framesPerConnection + 1;
+                SensorFrameLoadClient.Result sent = SensorFrameLoadClient.run(address, connections, framesPerConnection, sensorIds, firstSequence);
+                while (server.getFrameCount() < expected) {
+                    Thread.onSpinWait();
+                }
+                long nanos = System.nanoTime() - start;
+                System.out.printf("round %d  %d connections  %d frames  %.2f M frames/s applied  (client %.2f M/s)  alarm %s%n",
+                        round, connections, sent.frames(), sent.frames() * 1e3 / nanos, sent.framesPerSecond() / 1e6,
+                        service.getAlarmStatus());
+            }
+        }
+    }
+}
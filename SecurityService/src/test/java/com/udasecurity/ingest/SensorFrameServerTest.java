@@ -0,0 +1,147 @@
+package com.udasecurity.ingest;
+
+import com.udasecurity.data.AlarmStatus;
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.ColumnarSecurityRepositoryImpl;
+import com.udasecurity.data.MappedFileSecurityRepositoryImpl;
+import com.udasecurity.data.Sensor;
+import com.udasecurity.data.SensorType;
+import com.udasecurity.service.SecurityService;
+import com.udasecurity.service.image.FakeImageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorFrameServerTest {
+
+    private SecurityService securityService;
+    private SensorFrameServer server;
+    private InetSocketAddress address;
+
+    @BeforeEach
+    void init() throws IOException {
+        securityService = new SecurityService(new ColumnarSecurityRepositoryImpl(), new FakeImageService());
+        server = new SensorFrameServer(securityService, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 2);
+        address = new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort());
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void frames_AreAppliedToTheService() throws Exception {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        securityService.addSensor(door);
+        securityService.addSensor(window);
+        securityService.setArmingStatus(ArmingStatus.ARMED_AWAY);
+
+        ByteBuffer frames = ByteBuffer.allocate(SensorFrame.BYTES * 4);
+        put(frames, door.getSensorId(), true, 1);
+        put(frames, UUID.randomUUID(), true, 1);
+        //a retry would otherwise escalate the pending alarm
+        put(frames, door.getSensorId(), true, 1);
+        //split the last frame over two writes
+        put(frames, window.getSensorId(), true, 1);
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            frames.flip().limit(SensorFrame.BYTES * 3 + 5);
+            channel.write(frames);
+            awaitTrue(() -> server.getFrameCount() == 1 && server.getUnknownSensorFrameCount() == 1
+                    && securityService.getSequenceTracker().getDuplicateCount() == 1);
+            assertEquals(AlarmStatus.PENDING_ALARM, securityService.getAlarmStatus());
+
+            frames.limit(frames.capacity());
+            channel.write(frames);
+            awaitTrue(() -> server.getFrameCount() == 2);
+        }
+        assertEquals(AlarmStatus.ALARM, securityService.getAlarmStatus());
+        assertTrue(securityService.findSensor(door.getSensorId()).orElseThrow().getActive());
+        assertTrue(securityService.findSensor(window.getSensorId()).orElseThrow().getActive());
+    }
+
+    @Test
+    void malformedFrame_ClosesTheConnection() throws Exception {
+        ByteBuffer frame = ByteBuffer.allocate(SensorFrame.BYTES);
+        put(frame, UUID.randomUUID(), true, 1);
+        frame.put(16, (byte) 99);
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            channel.write(frame.flip());
+            awaitTrue(() -> server.getRejectedConnectionCount() == 1);
+            assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+        }
+    }
+
+    @Test
+    void frames_SeeChangesMadeThroughTheServiceToRepositoryCopies(@TempDir Path tempDir) throws Exception {
+        try (MappedFileSecurityRepositoryImpl repository = new MappedFileSecurityRepositoryImpl(tempDir)) {
+            SecurityService service = new SecurityService(repository, new FakeImageService());
+            Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+            service.addSensor(door);
+            service.setArmingStatus(ArmingStatus.ARMED_AWAY);
+            try (SensorFrameServer copies = new SensorFrameServer(service, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1);
+                 SocketChannel channel = SocketChannel.open(new InetSocketAddress(InetAddress.getLoopbackAddress(), copies.getPort()))) {
+                channel.write(put(door.getSensorId(), true, 1));
+                awaitTrue(() -> copies.getFrameCount() == 1);
+                assertEquals(AlarmStatus.PENDING_ALARM, service.getAlarmStatus());
+
+                //the repository hands out copies, so the server's sensor does not see this
+                service.changeSensorActivationStatus(service.findSensor(door.getSensorId()).orElseThrow(), false);
+                assertEquals(AlarmStatus.NO_ALARM, service.getAlarmStatus());
+
+                channel.write(put(door.getSensorId(), true, 2));
+                awaitTrue(() -> copies.getFrameCount() == 2);
+                assertEquals(AlarmStatus.PENDING_ALARM, service.getAlarmStatus());
+                assertEquals(1, service.getActiveSensorCount());
+            }
+        }
+    }
+
+    @Test
+    void loadClient_FramesFromManyConnectionsAreAllApplied() throws Exception {
+        List<UUID> sensorIds = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Sensor motion = new Sensor("Motion " + i, SensorType.MOTION);
+            securityService.addSensor(motion);
+            sensorIds.add(motion.getSensorId());
+        }
+
+        SensorFrameLoadClient.Result result = SensorFrameLoadClient.run(address, 50, 2_000, sensorIds, 1);
+
+        assertEquals(0, result.failedConnections());
+        awaitTrue(() -> server.getFrameCount() == 50 * 2_000);
+    }
+
+    private static void put(ByteBuffer buffer, UUID sensorId, boolean active, long sequence) {
+        SensorFrame.put(buffer, sensorId.getMostSignificantBits(), sensorId.getLeastSignificantBits(), active, sequence, System.currentTimeMillis());
+    }
+
+    private static ByteBuffer put(UUID sensorId, boolean active, long sequence) {
+        ByteBuffer frame = ByteBuffer.allocate(SensorFrame.BYTES);
+        put(frame, sensorId, active, sequence);
+        return frame.flip();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the server");
+            Thread.sleep(10);
+        }
+    }
+}
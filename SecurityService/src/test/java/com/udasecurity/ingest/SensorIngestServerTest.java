@@ -0,0 +1,155 @@
+package com.udasecurity.ingest;
+
+import com.udasecurity.data.AlarmStatus;
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.ColumnarSecurityRepositoryImpl;
+import com.udasecurity.data.Sensor;
+import com.udasecurity.data.SensorType;
+import com.udasecurity.service.SecurityService;
+import com.udasecurity.service.image.FakeImageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorIngestServerTest {
+
+    private SecurityService securityService;
+    private SensorIngestServer server;
+
+    @BeforeEach
+    void init() throws IOException {
+        securityService = new SecurityService(new ColumnarSecurityRepositoryImpl(), new FakeImageService());
+        server = new SensorIngestServer(securityService, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+    }
+
+    @AfterEach
+    void close() throws IOException {
+        server.close();
+    }
+
+    @Test
+    void commands_AreAppliedToTheService() {
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        securityService.addSensor(door);
+
+        assertEquals("OK\n", reply("ARM ARMED_AWAY"));
+        assertEquals("OK\n", reply("SENSOR " + door.getSensorId() + " ACTIVE"));
+        assertTrue(securityService.findSensor(door.getSensorId()).orElseThrow().getActive());
+        assertEquals(AlarmStatus.PENDING_ALARM, securityService.getAlarmStatus());
+        assertEquals(ArmingStatus.ARMED_AWAY, securityService.getArmingStatus());
+
+        assertTrue(reply("SENSOR " + UUID.randomUUID() + " ACTIVE").startsWith("ERR"));
+        assertTrue(reply("SENSOR " + door.getSensorId() + " OPEN").startsWith("ERR"));
+        assertTrue(reply("ARM").startsWith("ERR"));
+        assertTrue(reply("IMAGE bm90IGFuIGltYWdl").startsWith("ERR"));
+        assertTrue(reply("SELF_DESTRUCT").startsWith("ERR"));
+    }
+
+    @Test
+    void loadClient_ManyConcurrentConnectionsOverLoopback() throws InterruptedException {
+        Sensor window = new Sensor("KitchenWindow", SensorType.WINDOW);
+        securityService.addSensor(window);
+
+        SensorIngestLoadClient.Result result = SensorIngestLoadClient.run(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), server.getPort()), 500, 40, List.of(window.getSensorId()));
+
+        assertEquals(0, result.failedConnections());
+        assertEquals(0, result.errors());
+        assertEquals(500 * 40, result.commands());
+        assertEquals(500 * 40, server.getCommandCount());
+    }
+
+    @Test
+    void secret_IsRequiredBeforeCommands() throws IOException {
+        try (SensorIngestServer guarded = new SensorIngestServer(securityService,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), "s3cret", SensorIngestServer.DEFAULT_MAX_BUFFERED_CHARS)) {
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), guarded.getPort())) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.US_ASCII);
+
+                out.print("PING\nARM ARMED_AWAY\n");
+                out.flush();
+                assertEquals("OK", in.readLine());
+                assertEquals("ERR Not authenticated", in.readLine());
+
+                out.print("AUTH s3cret\nARM ARMED_AWAY\n");
+                out.flush();
+                assertEquals("OK", in.readLine());
+                assertEquals("OK", in.readLine());
+                assertEquals(ArmingStatus.ARMED_AWAY, securityService.getArmingStatus());
+            }
+
+            //a wrong secret ends the connection, so the next guess needs a new one
+            try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), guarded.getPort())) {
+                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+                PrintStream out = new PrintStream(socket.getOutputStream(), true, StandardCharsets.US_ASCII);
+
+                out.print("AUTH wrong\n");
+                out.flush();
+                assertEquals("ERR Wrong secret", in.readLine());
+                assertNull(in.readLine());
+                assertEquals(ArmingStatus.ARMED_AWAY, securityService.getArmingStatus());
+            }
+        }
+    }
+
+    @Test
+    void longLines_BeyondTheSharedBudget_CloseTheConnection() throws IOException {
+        try (SensorIngestServer small = new SensorIngestServer(securityService,
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null, 128 * 1024);
+             Socket first = new Socket(InetAddress.getLoopbackAddress(), small.getPort());
+             Socket second = new Socket(InetAddress.getLoopbackAddress(), small.getPort())) {
+            //each unfinished line holds 64K characters of the budget
+            OutputStream firstOut = first.getOutputStream();
+            firstOut.write(("IMAGE " + "A".repeat(64 * 1024)).getBytes(StandardCharsets.US_ASCII));
+            firstOut.flush();
+            awaitBuffered(small, 64 * 1024);
+            OutputStream secondOut = second.getOutputStream();
+            secondOut.write(("IMAGE " + "A".repeat(64 * 1024)).getBytes(StandardCharsets.US_ASCII));
+            secondOut.flush();
+            awaitBuffered(small, 128 * 1024);
+
+            //a third long line does not fit and its connection is closed
+            try (Socket third = new Socket(InetAddress.getLoopbackAddress(), small.getPort())) {
+                OutputStream thirdOut = third.getOutputStream();
+                thirdOut.write(("IMAGE " + "A".repeat(64 * 1024)).getBytes(StandardCharsets.US_ASCII));
+                thirdOut.flush();
+                assertEquals(-1, third.getInputStream().read());
+            }
+            assertEquals(128 * 1024, small.getBufferedChars());
+
+            //finishing a line returns its share of the budget
+            firstOut.write('\n');
+            firstOut.flush();
+            assertTrue(new BufferedReader(new InputStreamReader(first.getInputStream(), StandardCharsets.US_ASCII))
+                    .readLine().startsWith("ERR"));
+            awaitBuffered(small, 64 * 1024);
+        }
+    }
+
+    private static void awaitBuffered(SensorIngestServer server, long chars) {
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (server.getBufferedChars() != chars) {
+            assertTrue(System.nanoTime() < deadline, "buffered " + server.getBufferedChars() + " instead of " + chars);
+            Thread.onSpinWait();
+        }
+    }
+
+    private String reply(String command) {
+        return new String(server.handle(command), StandardCharsets.US_ASCII);
+    }
+}
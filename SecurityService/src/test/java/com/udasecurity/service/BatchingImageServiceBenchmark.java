@@ -0,0 +1,91 @@
+package com.udasecurity.service;
+
+import com.udasecurity.service.image.BatchingImageService;
+import com.udasecurity.service.image.StubImageService;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+
+/**
+ * Measures throughput and latency of {@link BatchingImageService} in front of a
+ * {@link StubImageService} that takes as long as a remote classifier, for a range of batching
+ * windows and in-flight limits. Every camera is a virtual thread that sends its next frame as
+ * soon as the previous one is answered. Run the main method directly; the optional arguments are
+ * the number of cameras, the classifier latency in milliseconds and the seconds per setting.
+ */
+public class BatchingImageServiceBenchmark {
+
+    private static final int[] MAX_WAIT_MILLIS = {0, 5, 20};
+    private static final int[] MAX_IN_FLIGHT = {4, 16, 64};
+
+    public static void main(String[] args) throws Exception {
+        int cameras = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        Duration latency = Duration.ofMillis(args.length > 1 ? Long.parseLong(args[1]) : 50);
+        Duration runTime = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 2);
+        BufferedImage frame = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+
+        for (int maxWait : MAX_WAIT_MILLIS) {
+            for (int maxInFlight : MAX_IN_FLIGHT) {
+                StubImageService classifier = new StubImageService(latency, latency.dividedBy(5), image -> false);
+                try (BatchingImageService batching = new BatchingImageService(classifier, 16, Duration.ofMillis(maxWait),
+                        maxInFlight, cameras * 2)) {
+                    run(batching, classifier, frame, cameras, runTime, maxWait, maxInFlight);
+                }
+            }
+        }
+    }
+
+    private static void run(BatchingImageService batching, StubImageService classifier, BufferedImage frame,
+                            int cameras, Duration runTime, int maxWait, int maxInFlight) throws InterruptedException {
+        long end = System.nanoTime() + runTime.toNanos();
+        AtomicLong rejected = new AtomicLong();
+        long[][] latencies = new long[cameras][100_000];
+        int[] counts = new int[cameras];
+        List<Thread> threads = new ArrayList<>();
+        for (int c = 0; c < cameras; c++) {
+            long[] cameraLatencies = latencies[c];
+            int camera = c;
+            threads.add(Thread.ofVirtual().start(() -> {
+                int count = 0;
+                while (System.nanoTime() < end && count < cameraLatencies.length) {
+                    long start = System.nanoTime();
+                    CompletableFuture<Boolean> result = batching.submit(frame, 50.0f);
+                    try {
+                        result.get();
+                        cameraLatencies[count++] = System.nanoTime() - start;
+                    } catch (ExecutionException e) {
+                        rejected.incrementAndGet();
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+                counts[camera] = count;
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        long[] all = IntStream.range(0, cameras)
+                .mapToObj(c -> Arrays.stream(latencies[c], 0, counts[c]))
+                .flatMapToLong(l -> l)
+                .sorted()
+                .toArray();
+        System.out.printf("wait %2d ms  in-flight %2d  %7.0f images/s  p50 %5.1f ms  p99 %5.1f ms  avg batch %4.1f  max concurrent %2d  rejected %d%n",
+                maxWait, maxInFlight, all.length / (runTime.toNanos() / 1e9),
+                percentile(all, 0.50) / 1e6, percentile(all, 0.99) / 1e6,
+                (double) batching.getImageCount() / Math.max(1, batching.getBatchCount()),
+                classifier.getMaxConcurrentCalls(), rejected.get());
+    }
+
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted.length == 0 ? 0 : sorted[(int) Math.min(sorted.length - 1, sorted.length * fraction)];
+    }
+}
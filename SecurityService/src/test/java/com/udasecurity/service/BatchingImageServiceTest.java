@@ -0,0 +1,80 @@
+package com.udasecurity.service;
+
+import com.udasecurity.service.image.BatchingImageService;
+import com.udasecurity.service.image.StubImageService;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchingImageServiceTest {
+
+    @Test
+    void results_ReachTheirOwnCallers_WithinInFlightWindow() throws Exception {
+        StubImageService classifier = new StubImageService(Duration.ofMillis(20), Duration.ofMillis(10), image -> image.getWidth() % 2 == 1);
+        try (BatchingImageService batching = new BatchingImageService(classifier, 8, Duration.ofMillis(20), 4, 64)) {
+            List<CompletableFuture<Boolean>> results = new ArrayList<>();
+            for (int width = 1; width <= 32; width++) {
+                results.add(batching.submit(new BufferedImage(width, 1, BufferedImage.TYPE_INT_RGB), 50.0f));
+            }
+
+            for (int width = 1; width <= 32; width++) {
+                assertEquals(width % 2 == 1, results.get(width - 1).get(5, TimeUnit.SECONDS));
+            }
+            assertTrue(batching.imageContainsCat(new BufferedImage(3, 1, BufferedImage.TYPE_INT_RGB), 50.0f));
+            assertEquals(33, classifier.getCallCount());
+            assertTrue(classifier.getMaxConcurrentCalls() <= 4);
+            assertTrue(batching.getBatchCount() >= 4);
+        }
+    }
+
+    @Test
+    void fullQueue_AndClose_RejectImages() throws Exception {
+        StubImageService classifier = new StubImageService(Duration.ofSeconds(1));
+        BatchingImageService batching = new BatchingImageService(classifier, 1, Duration.ZERO, 1, 2);
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+        List<CompletableFuture<Boolean>> results = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            results.add(batching.submit(image, 50.0f));
+        }
+        assertTrue(batching.getRejectedCount() > 0);
+        ExecutionException full = assertThrows(ExecutionException.class, () -> results.get(9).get());
+        assertInstanceOf(RejectedExecutionException.class, full.getCause());
+
+        batching.close();
+        //only the image being classified is still outstanding
+        assertTrue(results.stream().filter(result -> !result.isDone()).count() <= 1);
+        assertEquals(0, batching.getQueuedCount());
+        assertTrue(batching.submit(image, 50.0f).isCompletedExceptionally());
+    }
+
+    @Test
+    void dispatcherFailure_ClosesTheServiceInsteadOfStrandingCallers() throws Exception {
+        ExecutorService rejecting = Executors.newSingleThreadExecutor();
+        rejecting.shutdown();
+        BatchingImageService batching = new BatchingImageService(new StubImageService(Duration.ZERO), 1, Duration.ZERO, 1, 8, rejecting);
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+
+        CompletableFuture<Boolean> first = batching.submit(image, 50.0f);
+
+        assertThrows(CancellationException.class, () -> first.get(5, TimeUnit.SECONDS));
+        CompletableFuture<Boolean> later = batching.submit(image, 50.0f);
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> later.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, rejected.getCause());
+        assertThrows(RejectedExecutionException.class, () -> batching.imageContainsCat(image, 50.0f));
+        assertEquals(0, batching.getQueuedCount());
+        batching.close();
+    }
+}
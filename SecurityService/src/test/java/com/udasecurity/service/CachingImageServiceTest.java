@@ -0,0 +1,101 @@
+package com.udasecurity.service;
+
+import com.udasecurity.service.image.CachingImageService;
+import com.udasecurity.service.image.DifferenceHash;
+import com.udasecurity.service.image.ImageService;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.time.Duration;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CachingImageServiceTest {
+
+    private final AtomicInteger classifications = new AtomicInteger();
+    private final ImageService classifier = (image, confidenceThreshhold) -> {
+        classifications.incrementAndGet();
+        return true;
+    };
+
+    @Test
+    void nearIdenticalFrame_SkipsClassifier() {
+        CachingImageService cache = new CachingImageService(classifier);
+        BufferedImage frame = scene(1);
+        BufferedImage noisyFrame = withNoise(frame, 2);
+        assertTrue(DifferenceHash.distance(DifferenceHash.of(frame), DifferenceHash.of(noisyFrame)) <= CachingImageService.DEFAULT_MAX_DISTANCE);
+
+        assertTrue(cache.imageContainsCat(frame, 50.0f));
+        assertTrue(cache.imageContainsCat(frame, 50.0f));
+        assertTrue(cache.imageContainsCat(noisyFrame, 50.0f));
+
+        assertEquals(1, classifications.get());
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    void differentSceneOrThreshold_IsClassified() {
+        CachingImageService cache = new CachingImageService(classifier);
+        assertTrue(DifferenceHash.distance(DifferenceHash.of(scene(1)), DifferenceHash.of(scene(2))) > CachingImageService.DEFAULT_MAX_DISTANCE);
+
+        cache.imageContainsCat(scene(1), 50.0f);
+        cache.imageContainsCat(scene(2), 50.0f);
+        cache.imageContainsCat(scene(1), 90.0f);
+
+        assertEquals(3, classifications.get());
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    void leastRecentlyUsedAndExpiredAnswers_AreEvicted() throws InterruptedException {
+        CachingImageService cache = new CachingImageService(classifier, 2, Duration.ofMinutes(1), 0);
+        cache.imageContainsCat(scene(1), 50.0f);
+        cache.imageContainsCat(scene(2), 50.0f);
+        cache.imageContainsCat(scene(1), 50.0f);
+        cache.imageContainsCat(scene(3), 50.0f);
+
+        //scene 2 was the least recently used
+        assertEquals(1, cache.getEvictionCount());
+        cache.imageContainsCat(scene(1), 50.0f);
+        cache.imageContainsCat(scene(2), 50.0f);
+        assertEquals(4, classifications.get());
+
+        CachingImageService shortLived = new CachingImageService(classifier, 2, Duration.ofMillis(1), 4);
+        shortLived.imageContainsCat(scene(1), 50.0f);
+        Thread.sleep(5);
+        shortLived.imageContainsCat(scene(1), 50.0f);
+        assertEquals(0, shortLived.getHitCount());
+        assertEquals(1, shortLived.getEvictionCount());
+    }
+
+    private static BufferedImage scene(long seed) {
+        Random random = new Random(seed);
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        for (int i = 0; i < 40; i++) {
+            g.setColor(new Color(random.nextInt(0x1000000)));
+            g.fillRect(random.nextInt(640), random.nextInt(480), 40 + random.nextInt(200), 40 + random.nextInt(200));
+        }
+        g.dispose();
+        return image;
+    }
+
+    //sensor noise: a few hundred pixels slightly off
+    private static BufferedImage withNoise(BufferedImage image, long seed) {
+        Random random = new Random(seed);
+        BufferedImage noisy = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        noisy.setData(image.getData());
+        for (int i = 0; i < 500; i++) {
+            int x = random.nextInt(image.getWidth());
+            int y = random.nextInt(image.getHeight());
+            noisy.setRGB(x, y, noisy.getRGB(x, y) ^ 0x030303);
+        }
+        return noisy;
+    }
+}
@@ -0,0 +1,96 @@
+package com.udasecurity.service;
+
+import com.udasecurity.service.image.JpegEncoder;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.Function;
+
+/**
+ * Compares the JPEG encoding {@link com.udasecurity.service.image.AwsImageService} used to do,
+ * a fresh {@link ImageIO#write} into a new stream at full resolution followed by the copies of
+ * toByteArray and SdkBytes.fromByteArray, with {@link JpegEncoder}. For each it reports time,
+ * encoded size and heap allocated per frame; heap use is read from {@link Runtime}, as in
+ * {@link SecurityServiceAllocationBenchmark}. Run the main method directly; the optional
+ * arguments are the frame width and height.
+ */
+public class JpegEncoderBenchmark {
+
+    private static final int FRAMES = 10;
+    private static final int ROUNDS = 8;
+
+    public static void main(String[] args) {
+        int width = args.length > 0 ? Integer.parseInt(args[0]) : 1920;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 1080;
+        BufferedImage frame = frame(width, height);
+        JpegEncoder encoder = new JpegEncoder();
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            measure("ImageIO.write", frame, JpegEncoderBenchmark::encodeWithImageIo);
+            measure("JpegEncoder", frame, encoder::encode);
+        }
+    }
+
+    private static void measure(String name, BufferedImage frame, Function<BufferedImage, byte[]> encode) {
+        long allocated;
+        long nanos;
+        long bytes;
+        do {
+            bytes = 0;
+            long before = usedHeap();
+            long start = System.nanoTime();
+            for (int i = 0; i < FRAMES; i++) {
+                bytes += encode.apply(frame).length;
+            }
+            nanos = System.nanoTime() - start;
+            allocated = usedHeap() - before;
+        } while (allocated < 0);
+        System.out.printf("%-14s %7.2f ms/frame  %8d bytes/frame  %10d bytes allocated/frame%n",
+                name, nanos / 1e6 / FRAMES, bytes / FRAMES, allocated / FRAMES);
+    }
+
+    private static byte[] encodeWithImageIo(BufferedImage image) {
+        try (ByteArrayOutputStream os = new ByteArrayOutputStream()) {
+            ImageIO.write(image, "jpg", os);
+            byte[] jpeg = os.toByteArray();
+            //SdkBytes.fromByteArray copies the array once more
+            return Arrays.copyOf(jpeg, jpeg.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    //a camera-like scene: a gradient background with some shapes and sensor noise
+    private static BufferedImage frame(int width, int height) {
+        Random random = new Random(42);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        for (int y = 0; y < height; y++) {
+            g.setColor(new Color(60 + 100 * y / height, 80, 120));
+            g.drawLine(0, y, width, y);
+        }
+        for (int i = 0; i < 30; i++) {
+            g.setColor(new Color(random.nextInt(0x1000000)));
+            g.fillOval(random.nextInt(width), random.nextInt(height), 50 + random.nextInt(300), 50 + random.nextInt(300));
+        }
+        g.dispose();
+        for (int i = 0; i < width * height / 20; i++) {
+            int x = random.nextInt(width);
+            int y = random.nextInt(height);
+            image.setRGB(x, y, image.getRGB(x, y) ^ random.nextInt(0x101010));
+        }
+        return image;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,47 @@
+package com.udasecurity.service;
+
+import com.udasecurity.service.image.JpegEncoder;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class JpegEncoderTest {
+
+    @Test
+    void largeAndTranslucentFrames_AreScaledAndFlattened() throws IOException {
+        JpegEncoder encoder = new JpegEncoder(320, 0.8f);
+
+        BufferedImage large = decode(encoder.encode(new BufferedImage(1280, 720, BufferedImage.TYPE_INT_RGB)));
+        assertEquals(320, large.getWidth());
+        assertEquals(180, large.getHeight());
+
+        //the JPEG writer refuses alpha, so such frames are drawn onto an opaque one first
+        BufferedImage translucent = decode(encoder.encode(new BufferedImage(200, 100, BufferedImage.TYPE_INT_ARGB)));
+        assertEquals(200, translucent.getWidth());
+        assertEquals(100, translucent.getHeight());
+
+        //and the pooled encoder keeps working for the next frame
+        assertEquals(320, decode(encoder.encode(new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB))).getWidth());
+    }
+
+    @Test
+    void failedFrame_DoesNotPoisonThePool() throws IOException {
+        JpegEncoder encoder = new JpegEncoder(320, 0.8f);
+
+        //fails inside the pooled encoder with an unchecked exception, which disposes that encoder
+        assertThrows(NullPointerException.class, () -> encoder.encode(null));
+
+        assertEquals(200, decode(encoder.encode(new BufferedImage(200, 100, BufferedImage.TYPE_INT_RGB))).getWidth());
+    }
+
+    private static BufferedImage decode(byte[] jpeg) throws IOException {
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+        assertNotNull(image);
+        return image;
+    }
+}
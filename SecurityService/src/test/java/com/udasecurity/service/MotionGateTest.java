@@ -0,0 +1,73 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.AlarmStatus;
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.ColumnarSecurityRepositoryImpl;
+import com.udasecurity.service.image.ImageService;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MotionGateTest {
+
+    private final AtomicInteger classifications = new AtomicInteger();
+    private final ImageService classifier = (image, confidenceThreshhold) -> {
+        classifications.incrementAndGet();
+        return image.getRGB(0, 0) != Color.GRAY.getRGB();
+    };
+    private final SecurityService securityService = new SecurityService(new ColumnarSecurityRepositoryImpl(), classifier);
+
+    @Test
+    void unchangedFrame_ReusesLastResult() throws Exception {
+        securityService.setArmingStatus(ArmingStatus.ARMED_HOME);
+        BufferedImage empty = scene(false);
+
+        securityService.processImage("porch", empty);
+        securityService.processImage("porch", scene(false));
+        assertFalse(securityService.processImageAsync("porch", scene(false)).get(5, TimeUnit.SECONDS));
+        assertEquals(1, classifications.get());
+        assertEquals(2, securityService.getMotionGate().getSkippedFrameCount());
+
+        //a cat walking in is classified straight away, and the reused result keeps the alarm going
+        securityService.processImage("porch", scene(true));
+        securityService.processImage("porch", scene(true));
+        assertEquals(2, classifications.get());
+        assertEquals(AlarmStatus.ALARM, securityService.getAlarmStatus());
+    }
+
+    @Test
+    void camerasAreGatedSeparately() {
+        securityService.getMotionGate().configure("garage", MotionGate.Settings.DISABLED);
+
+        securityService.processImage("porch", scene(false));
+        securityService.processImage("yard", scene(false));
+        securityService.processImage("garage", scene(false));
+        securityService.processImage("garage", scene(false));
+        securityService.processImage(scene(false));
+        assertEquals(5, classifications.get());
+
+        securityService.processImage("porch", scene(false));
+        securityService.processImage("yard", scene(false));
+        assertEquals(5, classifications.get());
+    }
+
+    //a gray room, with a cat sized patch in the corner if there is one
+    private static BufferedImage scene(boolean cat) {
+        BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.GRAY);
+        g.fillRect(0, 0, 640, 480);
+        if (cat) {
+            g.setColor(Color.ORANGE);
+            g.fillRect(0, 0, 80, 60);
+        }
+        g.dispose();
+        return image;
+    }
+}
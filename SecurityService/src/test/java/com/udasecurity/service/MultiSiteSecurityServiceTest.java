@@ -0,0 +1,99 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.*;
+import com.udasecurity.service.image.FakeImageService;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MultiSiteSecurityServiceTest {
+
+    @Test
+    void site_ReturnsOneServicePerSiteAndKeepsSitesApart() {
+        MultiSiteSecurityService service = new MultiSiteSecurityService(new MultiSiteSecurityRepository(), new FakeImageService());
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+
+        service.site("home").addSensor(door);
+        service.site("home").setArmingStatus(ArmingStatus.ARMED_AWAY);
+        service.site("home").changeSensorActivationStatus(door, true);
+
+        assertSame(service.site("home"), service.site("home"));
+        assertEquals(AlarmStatus.PENDING_ALARM, service.site("home").getAlarmStatus());
+        assertEquals(AlarmStatus.NO_ALARM, service.site("office").getAlarmStatus());
+        assertTrue(service.site("office").getSensors().isEmpty());
+        assertEquals(2, service.getSiteCount());
+    }
+
+    @Test
+    void removeSite_ThenSite_StartsOverWithAnEmptySite() throws Exception {
+        MultiSiteSecurityRepository repository = new MultiSiteSecurityRepository();
+        MultiSiteSecurityService service = new MultiSiteSecurityService(repository, new FakeImageService());
+        SecurityService removed = service.site("home");
+        removed.addSensor(new Sensor("FrontDoor", SensorType.DOOR));
+
+        service.removeSite("home");
+
+        assertEquals(0, service.getSiteCount());
+        assertTrue(repository.findSite("home").isEmpty());
+        assertTrue(removed.processImageAsync(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB)).isCompletedExceptionally());
+        assertNotSame(removed, service.site("home"));
+        assertTrue(service.site("home").getSensors().isEmpty());
+    }
+
+    // A lookup racing the removal sees either the old site or a new one, never a service over the removed partition
+    @Test
+    void siteDuringRemoval_NeverBindsToTheRemovedPartition() throws Exception {
+        CountDownLatch closing = new CountDownLatch(1);
+        CountDownLatch releaseClose = new CountDownLatch(1);
+        MultiSiteSecurityRepository repository = new MultiSiteSecurityRepository(siteId -> new BlockingPartition(closing, releaseClose));
+        MultiSiteSecurityService service = new MultiSiteSecurityService(repository, new FakeImageService());
+        SecurityService removed = service.site("home");
+        removed.addSensor(new Sensor("FrontDoor", SensorType.DOOR));
+
+        CompletableFuture<Void> removal = CompletableFuture.runAsync(() -> {
+            try {
+                service.removeSite("home");
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        assertTrue(closing.await(5, TimeUnit.SECONDS));
+        CompletableFuture<SecurityService> lookup = CompletableFuture.supplyAsync(() -> service.site("home"));
+        Thread.sleep(50);
+        releaseClose.countDown();
+        removal.get(5, TimeUnit.SECONDS);
+        SecurityService raced = lookup.get(5, TimeUnit.SECONDS);
+
+        SecurityService recreated = service.site("home");
+        assertTrue(raced == removed || raced == recreated);
+        assertNotSame(removed, recreated);
+        assertTrue(recreated.getSensors().isEmpty());
+        assertTrue(repository.findSite("home").isPresent());
+    }
+
+    private static class BlockingPartition extends ColumnarSecurityRepositoryImpl implements Closeable {
+        private final CountDownLatch closing;
+        private final CountDownLatch releaseClose;
+
+        BlockingPartition(CountDownLatch closing, CountDownLatch releaseClose) {
+            this.closing = closing;
+            this.releaseClose = releaseClose;
+        }
+
+        @Override
+        public void close() {
+            closing.countDown();
+            try {
+                releaseClose.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
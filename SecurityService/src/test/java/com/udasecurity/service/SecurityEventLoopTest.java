@@ -0,0 +1,120 @@
+package com.udasecurity.service;
+
+import com.udasecurity.application.StatusListener;
+import com.udasecurity.data.*;
+import com.udasecurity.service.image.FakeImageService;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SecurityEventLoopTest {
+
+    private final SecurityService securityService = new SecurityService(new ColumnarSecurityRepositoryImpl(), new FakeImageService());
+    private final Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+
+    /**
+     * Listener that holds the loop thread in its first sensor notification until released.
+     */
+    private static class BlockingListener implements StatusListener {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void notify(AlarmStatus status) {
+        }
+
+        @Override
+        public void catDetected(boolean catDetected) {
+        }
+
+        @Override
+        public void sensorStatusChanged() {
+            blocked.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    @Test
+    void events_AreAppliedInSubmissionOrderBeforeCloseReturns() throws Exception {
+        securityService.addSensor(door);
+        SecurityEventLoop loop = new SecurityEventLoop(securityService);
+
+        loop.setArmingStatus(ArmingStatus.ARMED_AWAY);
+        loop.sensorChanged(door, true);
+        loop.sensorChanged(door, false);
+        loop.sensorChanged(door, true);
+        loop.close();
+
+        // NO_ALARM -> PENDING_ALARM -> NO_ALARM -> PENDING_ALARM; any other order ends elsewhere
+        assertEquals(AlarmStatus.PENDING_ALARM, securityService.getAlarmStatus());
+        assertTrue(door.getActive());
+        assertEquals(1, securityService.getActiveSensorCount());
+    }
+
+    @Test
+    void fullQueue_BlocksSubmitAndRejectsOffer() throws Exception {
+        securityService.addSensor(door);
+        BlockingListener listener = new BlockingListener();
+        securityService.addStatusListener(listener);
+        SecurityEventLoop loop = new SecurityEventLoop(securityService, 1, 1);
+
+        loop.sensorChanged(door, true);
+        assertTrue(listener.blocked.await(5, TimeUnit.SECONDS));
+        loop.sensorChanged(door, false);
+        assertFalse(loop.offer(new SecurityEventLoop.ImageProcessed(false)));
+        CompletableFuture<Void> blockedProducer = CompletableFuture.runAsync(() -> submit(loop, new SecurityEventLoop.ImageProcessed(false)));
+        Thread.sleep(100);
+        assertFalse(blockedProducer.isDone());
+
+        listener.release.countDown();
+        blockedProducer.get(5, TimeUnit.SECONDS);
+        loop.close();
+        assertFalse(door.getActive());
+    }
+
+    @Test
+    void close_TurnsAwayWaitingProducersAndLaterSubmissions() throws Exception {
+        securityService.addSensor(door);
+        BlockingListener listener = new BlockingListener();
+        securityService.addStatusListener(listener);
+        SecurityEventLoop loop = new SecurityEventLoop(securityService, 1, 1);
+        loop.sensorChanged(door, true);
+        assertTrue(listener.blocked.await(5, TimeUnit.SECONDS));
+        loop.sensorChanged(door, false);
+        CompletableFuture<Void> blockedProducer = CompletableFuture.runAsync(() -> submit(loop, new SecurityEventLoop.ImageProcessed(false)));
+
+        CompletableFuture<Void> closing = CompletableFuture.runAsync(() -> {
+            try {
+                loop.close();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        ExecutionException rejected = assertThrows(ExecutionException.class, () -> blockedProducer.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, rejected.getCause());
+
+        listener.release.countDown();
+        closing.get(5, TimeUnit.SECONDS);
+        // the event queued before close is still applied
+        assertFalse(door.getActive());
+        assertThrows(IllegalStateException.class, () -> loop.sensorChanged(door, true));
+        assertFalse(loop.offer(new SecurityEventLoop.SensorChanged(door, true)));
+    }
+
+    private static void submit(SecurityEventLoop loop, SecurityEventLoop.SecurityEvent event) {
+        try {
+            loop.submit(event);
+        } catch (InterruptedException ie) {
+            throw new IllegalStateException(ie);
+        }
+    }
+}
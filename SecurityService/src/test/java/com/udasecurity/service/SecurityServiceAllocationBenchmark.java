@@ -0,0 +1,114 @@
+package com.udasecurity.service;
+
+import com.udasecurity.application.StatusListener;
+import com.udasecurity.data.AlarmStatus;
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.SecurityRepository;
+import com.udasecurity.data.Sensor;
+import com.udasecurity.data.SensorType;
+import com.udasecurity.service.image.FakeImageService;
+
+import java.util.Set;
+
+/**
+ * Measures heap allocated per sensor activation change handled by {@link SecurityService}. The
+ * repository does nothing, so only the service's own allocations are counted. Heap use is read
+ * from {@link Runtime}, which only sees allocation in TLAB-sized steps, so each round runs enough
+ * events to make that granularity irrelevant and is repeated if a collection ran in between. Run
+ * the main method directly; after warm-up the figure should be close to zero.
+ * A status listener is registered so that notifications are part of the measurement.
+ */
+public class SecurityServiceAllocationBenchmark {
+
+    private static final int EVENTS = 5_000_000;
+    private static final int ROUNDS = 10;
+
+    public static void main(String[] args) {
+        SecurityService service = new SecurityService(new NoOpRepository(), new FakeImageService());
+        service.addStatusListener(new CountingListener());
+        Sensor[] sensors = new Sensor[16];
+        for (int i = 0; i < sensors.length; i++) {
+            sensors[i] = new Sensor("Sensor " + i, SensorType.DOOR);
+        }
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            long allocated;
+            long nanos;
+            do {
+                long before = usedHeap();
+                long start = System.nanoTime();
+                //each sensor is activated and then deactivated, cycling the alarm through
+                //NO_ALARM and PENDING_ALARM so that every event is a transition and is published
+                for (int i = 0; i < EVENTS; i++) {
+                    service.changeSensorActivationStatus(sensors[(i >> 1) & 15], (i & 1) == 0);
+                }
+                nanos = System.nanoTime() - start;
+                allocated = usedHeap() - before;
+            } while (allocated < 0);
+            System.out.printf("round %2d  %.2f bytes/event  %d events/ms  alarm %s%n",
+                    round, (double) allocated / EVENTS, EVENTS * 1_000_000L / nanos, service.getAlarmStatus());
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static final class CountingListener implements StatusListener {
+        private long notifications;
+
+        @Override
+        public void notify(AlarmStatus status) {
+            notifications++;
+        }
+
+        @Override
+        public void catDetected(boolean catDetected) {
+        }
+
+        @Override
+        public void sensorStatusChanged() {
+        }
+    }
+
+    /**
+     * Armed repository that stores nothing.
+     */
+    private static final class NoOpRepository implements SecurityRepository {
+        @Override
+        public void addSensor(Sensor sensor) {
+        }
+
+        @Override
+        public void removeSensor(Sensor sensor) {
+        }
+
+        @Override
+        public void updateSensor(Sensor sensor) {
+        }
+
+        @Override
+        public void setAlarmStatus(AlarmStatus alarmStatus) {
+        }
+
+        @Override
+        public void setArmingStatus(ArmingStatus armingStatus) {
+        }
+
+        @Override
+        public Set<Sensor> getSensors() {
+            return Set.of();
+        }
+
+        @Override
+        public AlarmStatus getAlarmStatus() {
+            return AlarmStatus.NO_ALARM;
+        }
+
+        @Override
+        public ArmingStatus getArmingStatus() {
+            return ArmingStatus.ARMED_AWAY;
+        }
+    }
+}
@@ -14,10 +14,16 @@ import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 import java.awt.image.BufferedImage;
+import java.time.Duration;
 import java.util.*;
-
-import static org.junit.jupiter.api.Assertions.assertEquals;
-import static org.junit.jupiter.api.Assertions.assertFalse;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.verify;
 
 @ExtendWith(MockitoExtension.class)
@@ -68,7 +74,7 @@ class SecurityServiceTest {
         mockSetup.put("Test_Case_1_Arm_System_Activate_Sensor_Pending_Alarm_Status", () -> setupAlarm(ArmingStatus.ARMED_HOME, AlarmStatus.NO_ALARM));
         mockSetup.put("Test_Case_2_Arm_System_Activate_Sensor_in_Pending_Alarm_Transition_to_Alarm_Status", () -> setupAlarm(ArmingStatus.ARMED_HOME, AlarmStatus.PENDING_ALARM));
         mockSetup.put("Test_Case_3_Pending_Alarm_All_Sensors_Inactive_Return_to_No_Alarm", () -> {
-            input.setActive(false);
+            input.setActive(true);
             setupAlarm(ArmingStatus.ARMED_HOME, AlarmStatus.PENDING_ALARM);
         });
         mockSetup.put("Test_Case_4_Alarm_Active_Sensor_State_Changes_Should_Not_Affect_Alarm", () -> setAlarmStatus(AlarmStatus.ALARM));
@@ -136,8 +142,7 @@ class SecurityServiceTest {
 
         // Define execution logic for when the alarm is pending and all sensors are inactive
         executionLogic.put("Test_Case_3_Pending_Alarm_All_Sensors_Inactive_Return_to_No_Alarm", () -> {
-            // Activate the sensor and then deactivate it
-            securityServiceMockTest.changeSensorActivationStatus(input, true);
+            // Deactivate the last active sensor while the alarm is pending
             securityServiceMockTest.changeSensorActivationStatus(input, false);
         });
 
@@ -213,11 +218,9 @@ class SecurityServiceTest {
 
         // Define mock setup for when no cat is detected and sensors are inactive
         mockSetup.put("Test_Case_8_Armed_Home_No_Cat_in_Camera_Return_to_No_Alarm_(If_Sensors_Inactive)", () -> {
-            Sensor sensor = new Sensor("Sensor", SensorType.DOOR);
-            sensor.setActive(false); // Sensor is inactive
             Mockito.when(fakeImageServiceSpy.imageContainsCat(Mockito.any(), Mockito.anyFloat())).thenReturn(false);
-            // Return a list of sensors as a set
-            Mockito.when(securityServiceMockTest.getSensors()).thenReturn(new HashSet<>(Collections.singletonList(sensor)));
+            // No sensor is active
+            Mockito.when(securityRepositorySpy.hasActiveSensors()).thenReturn(false);
         });
 
         // Define mock setup for when the system is armed home and a cat is detected
@@ -228,11 +231,9 @@ class SecurityServiceTest {
 
         // Define mock setup for when no cat is detected but at least one sensor is active
         mockSetup.put("Test_Case_12_Armed_Home_No_Cat_with_Active_Sensor_No_Alarm_Status_Change", () -> {
-            Sensor sensor = new Sensor("ActiveSensor", SensorType.DOOR);
-            sensor.setActive(true); // Sensor is active
             Mockito.when(fakeImageServiceSpy.imageContainsCat(Mockito.any(), Mockito.anyFloat())).thenReturn(false);
-            // Return a list of sensors as a set
-            Mockito.when(securityServiceMockTest.getSensors()).thenReturn(new HashSet<>(Collections.singletonList(sensor)));
+            // At least one sensor is active
+            Mockito.when(securityRepositorySpy.hasActiveSensors()).thenReturn(true);
         });
 
         // Execute the corresponding mock setup logic based on the test case name
@@ -277,46 +278,32 @@ class SecurityServiceTest {
             "Test_Case_10_Arm_System_Reset_All_Sensors_to_Inactive" // 10 If the system is armed, reset all sensors to inactive.
     })
     void updateSystemArmingState(String testName) {
-        Set<Sensor> sensorSet = setupSetArmingStatusMocks(testName);
+        setupSetArmingStatusMocks(testName);
         try {
             executeSetArmingStatus(testName);
             // Verify that the behavior is correct based on the test case
-            verifySetArmingStatus(testName, sensorSet);
+            verifySetArmingStatus(testName);
         } catch (Exception ex) {
             // Re-throw the exception if one occurs
             throw ex;
         }
     }
 
-    private Set<Sensor> setupSetArmingStatusMocks(String testName) {
-        Set<Sensor> sensorSet = new HashSet<>();
+    private void setupSetArmingStatusMocks(String testName) {
         Map<String, Runnable> mockSetup = new HashMap<>();
 
         // Add mock behaviors for both Armed Away and Armed At Home cases
-        mockSetup.put("Test_Case_13_resetSensors_WhenSystemArmedAway_SensorsBecomeInactive", () -> setupMocks(sensorSet));
-        mockSetup.put("Test_Case_10_Arm_System_Reset_All_Sensors_to_Inactive", () -> setupMocks(sensorSet));
+        mockSetup.put("Test_Case_13_resetSensors_WhenSystemArmedAway_SensorsBecomeInactive", this::setupMocks);
+        mockSetup.put("Test_Case_10_Arm_System_Reset_All_Sensors_to_Inactive", this::setupMocks);
         // Execute the mock setup for the given test case
         mockSetup.getOrDefault(testName, () -> {}).run();
-
-        // Return the set of sensors configured for the test
-        return sensorSet;
     }
 
     // Helper method to set up mocks
-    private void setupMocks(Set<Sensor> sensorSet) {
-        // Add sensors to the set
-        Collections.addAll(sensorSet,
-                new Sensor("FrontDoorSensor", SensorType.DOOR),
-                new Sensor("LivingRoomWindowSensor", SensorType.WINDOW),
-                new Sensor("LivingRoomMotionSensor", SensorType.MOTION)
-        );
-
-        // Mock the behavior of the securityRepository to return specific statuses and sensors
+    private void setupMocks() {
+        // Mock the behavior of the securityRepository to report a pending alarm with some sensors still active
         Mockito.when(securityRepositorySpy.getAlarmStatus()).thenReturn(AlarmStatus.PENDING_ALARM);
-        Mockito.when(securityRepositorySpy.getSensors()).thenReturn(sensorSet);
-
-        // Set all sensors to active initially using method reference
-        sensorSet.forEach(sensor -> sensor.setActive(true));
+        Mockito.when(securityRepositorySpy.hasActiveSensors()).thenReturn(true);
     }
 
 
@@ -337,14 +324,14 @@ class SecurityServiceTest {
     }
 
 
-    private void verifySetArmingStatus(String testName, Set<Sensor> sensorSet) {
+    private void verifySetArmingStatus(String testName) {
         Map<String, Runnable> verificationLogic = new HashMap<>();
 
         Runnable verifySensorsInactive = () -> {
-            for (Sensor sensor : sensorSet) {
-                // Check if each sensor is inactive
-                assertFalse(sensor.getActive(), "Sensor should be inactive: " + sensor.getName());
-            }
+            // All sensors are reset with one repository call, and the pending alarm clears with them
+            verify(securityRepositorySpy).deactivateAllSensors();
+            verify(securityRepositorySpy, Mockito.never()).updateSensor(Mockito.any(Sensor.class));
+            verify(securityRepositorySpy).setAlarmStatus(AlarmStatus.NO_ALARM);
         };
 
         // Define verification logic for when the system is disarmed
@@ -368,6 +355,155 @@ class SecurityServiceTest {
         }).run();
     }
 
+    // Several sensors reported together go through the same transitions, but are stored and announced once
+    @Test
+    void changeSensorActivationStatus_Batch_PersistsAndNotifiesOnce() {
+        Map<Sensor, Boolean> activations = new LinkedHashMap<>();
+        activations.put(new Sensor("FrontDoorSensor", SensorType.DOOR), true);
+        activations.put(new Sensor("BackDoorSensor", SensorType.DOOR), true);
+        setupAlarm(ArmingStatus.ARMED_AWAY, AlarmStatus.NO_ALARM);
+        securityServiceMockTest.addStatusListener(statusListener);
+
+        securityServiceMockTest.changeSensorActivationStatus(activations);
+
+        // NO_ALARM -> PENDING_ALARM -> ALARM, with only the outcome written
+        verify(securityRepositorySpy).updateSensors(activations.keySet());
+        verify(securityRepositorySpy, Mockito.never()).updateSensor(Mockito.any());
+        verify(securityRepositorySpy).setAlarmStatus(AlarmStatus.ALARM);
+        verify(securityRepositorySpy, Mockito.never()).setAlarmStatus(AlarmStatus.PENDING_ALARM);
+        verify(statusListener).notify(AlarmStatus.ALARM);
+        verify(statusListener).sensorStatusChanged();
+    }
+
+    // Reports for one sensor from two threads act as if applied one after the other: the alarm is pending exactly when the sensor ends up active
+    @Test
+    void changeSensorActivationStatus_SameSensorFromTwoThreads_IsSerialized() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            SecurityRepository repository = Mockito.mock(SecurityRepository.class);
+            Mockito.when(repository.getArmingStatus()).thenReturn(ArmingStatus.ARMED_AWAY);
+            Mockito.when(repository.getAlarmStatus()).thenReturn(AlarmStatus.NO_ALARM);
+            SecurityService service = new SecurityService(repository, fakeImageServiceSpy);
+            CountDownLatch reading = new CountDownLatch(2);
+            // holds the first reader until the second one reads too, or briefly if it never can
+            Sensor sensor = new Sensor("FrontDoorSensor", SensorType.DOOR) {
+                @Override
+                public Boolean getActive() {
+                    Boolean active = super.getActive();
+                    reading.countDown();
+                    try {
+                        reading.await(50, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return active;
+                }
+            };
+
+            CompletableFuture<Void> activate = CompletableFuture.runAsync(() -> service.changeSensorActivationStatus(sensor, true));
+            CompletableFuture<Void> deactivate = CompletableFuture.runAsync(() -> service.changeSensorActivationStatus(sensor, false));
+            CompletableFuture.allOf(activate, deactivate).get(5, TimeUnit.SECONDS);
+
+            assertEquals(sensor.getActive(), service.getAlarmStatus() == AlarmStatus.PENDING_ALARM);
+        }
+    }
+
+    // A sensor report waits while arming resets the sensors, so it is neither lost nor counted before the reset
+    @Test
+    void setArmingStatus_ExcludesConcurrentSensorReports() throws Exception {
+        CountDownLatch resetting = new CountDownLatch(1);
+        CountDownLatch finishReset = new CountDownLatch(1);
+        setupAlarm(ArmingStatus.DISARMED, AlarmStatus.NO_ALARM);
+        Mockito.when(securityRepositorySpy.hasActiveSensors()).thenReturn(true);
+        Mockito.doAnswer(invocation -> {
+            resetting.countDown();
+            finishReset.await(5, TimeUnit.SECONDS);
+            return null;
+        }).when(securityRepositorySpy).deactivateAllSensors();
+        Sensor sensor = new Sensor("FrontDoorSensor", SensorType.DOOR);
+
+        CompletableFuture<Void> arming = CompletableFuture.runAsync(() -> securityServiceMockTest.setArmingStatus(ArmingStatus.ARMED_AWAY));
+        assertTrue(resetting.await(5, TimeUnit.SECONDS));
+        CompletableFuture<Void> report = CompletableFuture.runAsync(() -> securityServiceMockTest.changeSensorActivationStatus(sensor, true));
+        Thread.sleep(100);
+        assertFalse(report.isDone());
+        verify(securityRepositorySpy, Mockito.never()).updateSensor(Mockito.any());
+
+        finishReset.countDown();
+        CompletableFuture.allOf(arming, report).get(5, TimeUnit.SECONDS);
+        assertTrue(sensor.getActive());
+        assertEquals(AlarmStatus.PENDING_ALARM, securityServiceMockTest.getAlarmStatus());
+    }
+
+    // The cat transition is applied, and listeners told, before the future completes
+    @Test
+    void processImageAsync_AppliesResultWhenAnalysisCompletes() throws Exception {
+        Mockito.when(fakeImageServiceSpy.imageContainsCat(Mockito.any(), Mockito.anyFloat())).thenReturn(true);
+        setupAlarm(ArmingStatus.ARMED_HOME, AlarmStatus.NO_ALARM);
+        securityServiceMockTest.addStatusListener(statusListener);
+
+        assertTrue(securityServiceMockTest.processImageAsync(Mockito.mock(BufferedImage.class)).get(5, TimeUnit.SECONDS));
+
+        verify(securityRepositorySpy).setAlarmStatus(AlarmStatus.ALARM);
+        verify(statusListener).catDetected(true);
+    }
+
+    // A classifier that does not answer in time is interrupted and its result never applied
+    @Test
+    void processImageAsync_TimesOutWithoutChangingAlarm() throws Exception {
+        CountDownLatch interrupted = new CountDownLatch(1);
+        Mockito.when(fakeImageServiceSpy.imageContainsCat(Mockito.any(), Mockito.anyFloat())).thenAnswer(invocation -> {
+            try {
+                Thread.sleep(10_000);
+            } catch (InterruptedException ie) {
+                interrupted.countDown();
+            }
+            return true;
+        });
+        setupAlarm(ArmingStatus.ARMED_HOME, AlarmStatus.NO_ALARM);
+
+        CompletableFuture<Boolean> result = securityServiceMockTest.processImageAsync(Mockito.mock(BufferedImage.class), Duration.ofMillis(50));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(TimeoutException.class, failure.getCause());
+        assertTrue(interrupted.await(5, TimeUnit.SECONDS));
+        verify(securityRepositorySpy, Mockito.never()).setAlarmStatus(Mockito.any());
+    }
+
+    // Analyses finish out of order; a slow frame's result must not override a newer frame's
+    @Test
+    void processImageAsync_DropsResultOlderThanTheLastAppliedFrame() throws Exception {
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        BufferedImage first = Mockito.mock(BufferedImage.class);
+        BufferedImage second = Mockito.mock(BufferedImage.class);
+        Mockito.when(fakeImageServiceSpy.imageContainsCat(Mockito.eq(first), Mockito.anyFloat())).thenAnswer(invocation -> {
+            releaseFirst.await(5, TimeUnit.SECONDS);
+            return true;
+        });
+        Mockito.when(fakeImageServiceSpy.imageContainsCat(Mockito.eq(second), Mockito.anyFloat())).thenReturn(false);
+        setupAlarm(ArmingStatus.ARMED_HOME, AlarmStatus.NO_ALARM);
+        securityServiceMockTest.addStatusListener(statusListener);
+
+        CompletableFuture<Boolean> slow = securityServiceMockTest.processImageAsync(first);
+        assertFalse(securityServiceMockTest.processImageAsync(second).get(5, TimeUnit.SECONDS));
+        releaseFirst.countDown();
+
+        assertTrue(slow.get(5, TimeUnit.SECONDS));
+        assertFalse(securityServiceMockTest.getState().catDetected());
+        assertEquals(AlarmStatus.NO_ALARM, securityServiceMockTest.getAlarmStatus());
+        verify(statusListener, Mockito.never()).catDetected(true);
+    }
+
+    @Test
+    void processImageAsync_AfterClose_IsRejected() {
+        securityServiceMockTest.close();
+
+        CompletableFuture<Boolean> result = securityServiceMockTest.processImageAsync(Mockito.mock(BufferedImage.class));
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(RejectedExecutionException.class, failure.getCause());
+        Mockito.verifyNoInteractions(fakeImageServiceSpy);
+    }
+
     // Enums for action types to improve type safety and readability
     enum ActionType {
         ADD_STATUS_LISTENER,
@@ -0,0 +1,44 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.AlarmStatus;
+import com.udasecurity.data.ArmingStatus;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SecurityStateTest {
+
+    @Test
+    void transitions_FollowTheAlarmRules() {
+        SecurityState armed = SecurityState.of(AlarmStatus.NO_ALARM, ArmingStatus.ARMED_HOME, false);
+
+        SecurityState pending = armed.sensorChanged(false, true);
+        assertEquals(AlarmStatus.PENDING_ALARM, pending.alarmStatus());
+        assertEquals(AlarmStatus.ALARM, pending.sensorChanged(true, true).alarmStatus());
+        assertEquals(AlarmStatus.NO_ALARM, pending.sensorChanged(true, false).alarmStatus());
+        assertSame(pending, pending.sensorChanged(false, false));
+
+        SecurityState alarm = pending.sensorActivated();
+        assertSame(alarm, alarm.sensorChanged(true, false));
+        assertEquals(AlarmStatus.PENDING_ALARM, alarm.sensorDeactivated().alarmStatus());
+
+        SecurityState disarmed = armed.armingChanged(ArmingStatus.DISARMED);
+        assertSame(disarmed, disarmed.sensorChanged(false, true));
+
+        SecurityState cat = SecurityState.of(AlarmStatus.NO_ALARM, ArmingStatus.ARMED_AWAY, false).imageProcessed(true, false);
+        assertTrue(cat.catDetected());
+        assertEquals(AlarmStatus.NO_ALARM, cat.alarmStatus());
+        assertEquals(AlarmStatus.ALARM, cat.armingChanged(ArmingStatus.ARMED_HOME).alarmStatus());
+        assertEquals(AlarmStatus.ALARM, armed.imageProcessed(true, false).alarmStatus());
+        assertSame(pending, pending.imageProcessed(false, true));
+    }
+
+    @Test
+    void completeStates_AreSharedInstances() {
+        SecurityState state = SecurityState.of(AlarmStatus.NO_ALARM, ArmingStatus.ARMED_AWAY, false);
+
+        assertSame(state, SecurityState.of(AlarmStatus.NO_ALARM, ArmingStatus.ARMED_AWAY, false));
+        assertSame(state.sensorActivated(), SecurityState.of(AlarmStatus.PENDING_ALARM, ArmingStatus.ARMED_AWAY, false));
+        assertSame(state, state.sensorActivated().sensorDeactivated());
+    }
+}
@@ -0,0 +1,118 @@
+package com.udasecurity.service;
+
+import com.udasecurity.data.AlarmStatus;
+import com.udasecurity.data.ArmingStatus;
+import com.udasecurity.data.ColumnarSecurityRepositoryImpl;
+import com.udasecurity.data.Sensor;
+import com.udasecurity.data.SensorType;
+import com.udasecurity.service.image.FakeImageService;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CyclicBarrier;
+import java.util.function.LongConsumer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class SensorSequenceTrackerTest {
+
+    @Test
+    void accept_DropsDuplicateAndStaleSequences() {
+        SensorSequenceTracker tracker = new SensorSequenceTracker(4);
+        UUID door = UUID.randomUUID();
+        UUID window = UUID.randomUUID();
+
+        assertTrue(tracker.accept(door, 5));
+        assertTrue(tracker.accept(window, 1));
+        assertFalse(tracker.accept(door, 5));
+        assertFalse(tracker.accept(door, 3));
+        assertTrue(tracker.accept(door, 6));
+        assertEquals(1, tracker.getDuplicateCount());
+        assertEquals(1, tracker.getStaleCount());
+
+        //a restarted controller is accepted again once its sensor is forgotten
+        tracker.forget(door);
+        assertTrue(tracker.accept(door, 1));
+        assertFalse(tracker.accept(window, 1));
+        assertEquals(3, tracker.getDroppedCount());
+
+        //enough sensors to grow every stripe, reusing the forgotten slot
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(tracker.accept(UUID.randomUUID(), i));
+        }
+        assertFalse(tracker.accept(door, 1));
+        assertTrue(tracker.accept(window, 2));
+    }
+
+    @Test
+    void retriedActivation_DoesNotEscalatePendingAlarm() {
+        SecurityService securityService = new SecurityService(new ColumnarSecurityRepositoryImpl(), new FakeImageService());
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        securityService.addSensor(door);
+        securityService.setArmingStatus(ArmingStatus.ARMED_AWAY);
+
+        assertTrue(securityService.changeSensorActivationStatus(door, true, 1));
+        assertFalse(securityService.changeSensorActivationStatus(door, true, 1));
+
+        assertEquals(AlarmStatus.PENDING_ALARM, securityService.getAlarmStatus());
+        assertEquals(1, securityService.getSequenceTracker().getDuplicateCount());
+    }
+
+    @Test
+    void outOfOrderReportsFromTwoThreads_LeaveTheNewestStatus() throws Exception {
+        SecurityService securityService = new SecurityService(new ColumnarSecurityRepositoryImpl(), new FakeImageService());
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        securityService.addSensor(door);
+
+        //each round an activation and the deactivation that follows it race; the deactivation
+        //carries the higher number, so it must win whichever thread gets there first
+        raceRounds(sequence -> securityService.changeSensorActivationStatus(door, true, sequence),
+                sequence -> securityService.changeSensorActivationStatus(door, false, sequence + 1),
+                () -> assertFalse(securityService.findSensor(door.getSensorId()).orElseThrow().getActive()));
+    }
+
+    @Test
+    void outOfOrderFrameBatchesFromTwoThreads_LeaveTheNewestStatus() throws Exception {
+        SecurityService securityService = new SecurityService(new ColumnarSecurityRepositoryImpl(), new FakeImageService());
+        Sensor door = new Sensor("FrontDoor", SensorType.DOOR);
+        securityService.addSensor(door);
+        Sensor[] sensors = {door};
+        List<Sensor> distinctSensors = List.of(door);
+
+        raceRounds(sequence -> securityService.changeSensorActivationStatus(
+                        sensors, new boolean[] {true}, new long[] {sequence}, 1, distinctSensors),
+                sequence -> securityService.changeSensorActivationStatus(
+                        sensors, new boolean[] {false}, new long[] {sequence + 1}, 1, distinctSensors),
+                () -> assertFalse(securityService.findSensor(door.getSensorId()).orElseThrow().getActive()));
+    }
+
+    private static void raceRounds(LongConsumer older, LongConsumer newer, Runnable check) throws Exception {
+        int rounds = 2000;
+        CyclicBarrier start = new CyclicBarrier(2);
+        CyclicBarrier done = new CyclicBarrier(3);
+        Thread first = Thread.ofPlatform().daemon().start(() -> race(rounds, start, done, older));
+        Thread second = Thread.ofPlatform().daemon().start(() -> race(rounds, start, done, newer));
+        for (int i = 0; i < rounds; i++) {
+            done.await();
+            check.run();
+            done.await();
+        }
+        first.join();
+        second.join();
+    }
+
+    private static void race(int rounds, CyclicBarrier start, CyclicBarrier done, LongConsumer report) {
+        try {
+            for (int i = 0; i < rounds; i++) {
+                start.await();
+                report.accept(2L * i + 1);
+                done.await();
+                //wait until the round has been checked
+                done.await();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.udasecurity.service;
+
+import com.udasecurity.application.StatusListener;
+import com.udasecurity.data.AlarmStatus;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class StatusEventPublisherTest {
+
+    @Test
+    void statusListener_ReceivesEventsInOrderOffThePublishingThread() throws InterruptedException {
+        List<String> calls = new CopyOnWriteArrayList<>();
+        CountDownLatch delivered = new CountDownLatch(3);
+        Thread publishingThread = Thread.currentThread();
+        StatusListener listener = new StatusListener() {
+            @Override
+            public void notify(AlarmStatus status) {
+                record("alarm " + status);
+            }
+
+            @Override
+            public void catDetected(boolean catDetected) {
+                record("cat " + catDetected);
+            }
+
+            @Override
+            public void sensorStatusChanged() {
+                record("sensors");
+            }
+
+            private void record(String call) {
+                assertNotSame(publishingThread, Thread.currentThread());
+                calls.add(call);
+                delivered.countDown();
+            }
+        };
+
+        try (StatusEventPublisher publisher = new StatusEventPublisher()) {
+            publisher.subscribe(listener);
+            publisher.alarmStatusChanged(AlarmStatus.PENDING_ALARM);
+            publisher.catDetected(true);
+            publisher.sensorStatusChanged();
+
+            assertTrue(delivered.await(5, TimeUnit.SECONDS));
+        }
+        assertEquals(List.of("alarm PENDING_ALARM", "cat true", "sensors"), calls);
+    }
+
+    @Test
+    void stalledSubscriber_DropsOrIsCancelledWithoutBlockingThePublisher() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try (StatusEventPublisher publisher = new StatusEventPublisher(executor, 2, StatusEventPublisher.OverflowPolicy.DROP)) {
+            publisher.subscribe(new StalledSubscriber());
+            StalledSubscriber cancelled = new StalledSubscriber();
+            publisher.subscribe(cancelled, 2, StatusEventPublisher.OverflowPolicy.CANCEL);
+
+            for (int i = 0; i < 10; i++) {
+                publisher.sensorStatusChanged();
+            }
+
+            assertEquals(8, publisher.getDroppedEvents());
+            assertEquals(1, publisher.getSubscriberCount());
+            assertInstanceOf(IllegalStateException.class, cancelled.error.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void topicSubscription_OnlySeesItsOwnEventType() {
+        List<AlarmStatus> alarms = new ArrayList<>();
+        try (StatusEventPublisher publisher = new StatusEventPublisher()) {
+            StatusEventPublisher.TopicSubscription subscription =
+                    publisher.on(StatusEvent.AlarmStatusChanged.class, event -> alarms.add(event.alarmStatus()));
+
+            publisher.catDetected(true);
+            publisher.alarmStatusChanged(AlarmStatus.ALARM);
+            publisher.sensorStatusChanged();
+            subscription.close();
+            publisher.alarmStatusChanged(AlarmStatus.NO_ALARM);
+        }
+        assertEquals(List.of(AlarmStatus.ALARM), alarms);
+    }
+
+    @Test
+    void failingTopicHandler_NeitherEscapesNorStopsLaterHandlers() {
+        List<AlarmStatus> alarms = new ArrayList<>();
+        try (StatusEventPublisher publisher = new StatusEventPublisher()) {
+            publisher.on(StatusEvent.AlarmStatusChanged.class, event -> {
+                throw new IllegalStateException("broken handler");
+            });
+            publisher.on(StatusEvent.AlarmStatusChanged.class, event -> alarms.add(event.alarmStatus()));
+
+            assertDoesNotThrow(() -> publisher.alarmStatusChanged(AlarmStatus.ALARM));
+        }
+        assertEquals(List.of(AlarmStatus.ALARM), alarms);
+    }
+
+    @Test
+    void topicSubscription_AfterClose_IsNeverCalled() {
+        List<AlarmStatus> alarms = new ArrayList<>();
+        StatusEventPublisher publisher = new StatusEventPublisher();
+        publisher.close();
+
+        publisher.on(StatusEvent.AlarmStatusChanged.class, event -> alarms.add(event.alarmStatus())).close();
+        publisher.on(StatusEvent.AlarmStatusChanged.class, event -> alarms.add(event.alarmStatus()));
+        publisher.alarmStatusChanged(AlarmStatus.ALARM);
+
+        assertTrue(alarms.isEmpty());
+    }
+
+    @Test
+    void latestValueSubscription_SkipsIntermediateEvents() {
+        Queue<Runnable> pendingTasks = new ArrayDeque<>();
+        List<AlarmStatus> shown = new ArrayList<>();
+        try (StatusEventPublisher publisher = new StatusEventPublisher()) {
+            publisher.onLatest(StatusEvent.AlarmStatusChanged.class, pendingTasks::add, event -> shown.add(event.alarmStatus()));
+
+            publisher.alarmStatusChanged(AlarmStatus.PENDING_ALARM);
+            publisher.alarmStatusChanged(AlarmStatus.ALARM);
+            publisher.alarmStatusChanged(AlarmStatus.PENDING_ALARM);
+            assertEquals(1, pendingTasks.size());
+            pendingTasks.poll().run();
+
+            publisher.alarmStatusChanged(AlarmStatus.NO_ALARM);
+            assertEquals(1, pendingTasks.size());
+            pendingTasks.poll().run();
+        }
+        assertEquals(List.of(AlarmStatus.PENDING_ALARM, AlarmStatus.NO_ALARM), shown);
+    }
+
+    //never requests anything, so every event stays in its buffer
+    private static class StalledSubscriber implements Flow.Subscriber<StatusEvent> {
+        final CompletableFuture<Throwable> error = new CompletableFuture<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+        }
+
+        @Override
+        public void onNext(StatusEvent item) {
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error.complete(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+    }
+}